@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.FrameLayout;
+
+/**
+ * Checks that {@link NotesListAdapter} binds rows without allocating, once the rows and the
+ * dates it shows have been bound before, as when the list scrolls back and forth.
+ */
+public class NotesListAdapterTest extends AndroidTestCase {
+
+    // The rows of the list, and the times each is bound while measured
+    private static final int ROW_COUNT = 40;
+    private static final int PASSES = 5;
+
+    private static final String[] COLUMNS = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+            NotePad.Notes.COLUMN_NAME_PREVIEW,
+    };
+
+    public void testBindingRowsDoesNotAllocate() {
+        assertNoAllocations(rows(0, ROW_COUNT));
+    }
+
+    public void testBindingPagesDoesNotAllocate() {
+        int half = ROW_COUNT / 2;
+        assertNoAllocations(new NotesListAdapter.PagesCursor(new Cursor[] {
+                rows(0, half), rows(half, ROW_COUNT - half) }));
+    }
+
+    // Binds every row of the cursor into a few recycled views, and counts the allocations of
+    // the binds after the first pass
+    private void assertNoAllocations(Cursor cursor) {
+        NotesListAdapter adapter = new NotesListAdapter(getContext());
+        adapter.swapCursor(cursor);
+        FrameLayout parent = new FrameLayout(getContext());
+        View[] views = new View[3];
+
+        // Creates the views and fills the date cache
+        bindAll(adapter, parent, views);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        int allocations;
+        try {
+            for (int i = 0; i < PASSES; i++) {
+                bindAll(adapter, parent, views);
+            }
+            allocations = Debug.getThreadAllocCount();
+
+            // A runtime that doesn't count allocations would read 0 above whatever the
+            // adapter does, so the counter has to see one made on purpose
+            sControl = new Object[1];
+            assertTrue("Allocations aren't counted on this runtime",
+                    Debug.getThreadAllocCount() > allocations);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("Allocations binding " + PASSES + " passes of " + adapter.getCount()
+                + " rows", 0, allocations);
+        cursor.close();
+    }
+
+    // Holds the allocation that checks the counter, so it isn't optimized away
+    private static Object sControl;
+
+    private static void bindAll(NotesListAdapter adapter, FrameLayout parent, View[] views) {
+        for (int position = 0; position < adapter.getCount(); position++) {
+            int slot = position % views.length;
+            views[slot] = adapter.getView(position, views[slot], parent);
+        }
+    }
+
+    // Returns count rows of notes, modified a minute apart
+    private static MatrixCursor rows(int first, int count) {
+        MatrixCursor rows = new MatrixCursor(COLUMNS, count);
+        for (int i = first; i < first + count; i++) {
+            rows.addRow(new Object[] {
+                    (long) i + 1,
+                    "Note " + i,
+                    1400000000000L + i * 60 * 1000L,
+                    "The text of note " + i,
+            });
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.os.Handler;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+/**
+ * Saves the text of an {@link EditText} once the user has stopped typing for a while.
+ *
+ * Every change bumps a generation counter. When the text has been idle for the configured
+ * interval, the text is copied once and handed to the {@link Listener}, which writes it on a
+ * worker thread. Comparing generations tells whether the text is dirty without copying or
+ * comparing it, so unchanged text is never written.
+ *
+ * All methods must be called on the thread of the Handler, normally the UI thread.
+ */
+class NoteAutosaver implements TextWatcher {
+
+    /**
+     * Receives the text to save.
+     */
+    interface Listener {
+        /**
+         * Called on the UI thread with a copy of the text. Implementations should hand the
+         * write to a worker thread.
+         */
+        void onSave(String text);
+    }
+
+    private final EditText mText;
+    private final Handler mHandler;
+    private final Listener mListener;
+    private final long mIdleMillis;
+
+    // Incremented on every change the user makes to the text
+    private int mGeneration;
+
+    // The generation last handed to the listener, or loaded from the provider
+    private int mSavedGeneration;
+
+    // The generation of the text as it was when the note was opened
+    private int mOpenedGeneration;
+
+    // Whether the text is being set by the app rather than typed by the user
+    private boolean mBinding;
+
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    NoteAutosaver(EditText text, Handler handler, Listener listener, long idleMillis) {
+        mText = text;
+        mHandler = handler;
+        mListener = listener;
+        mIdleMillis = idleMillis;
+        text.addTextChangedListener(this);
+    }
+
+    /**
+     * Replaces the text with the saved content of the note, without marking it dirty.
+     *
+     * @param opened true if this is the content the note was opened with
+     */
+    void bind(CharSequence savedText, boolean opened) {
+        mBinding = true;
+        try {
+            mText.setTextKeepState(savedText);
+        } finally {
+            mBinding = false;
+        }
+        mHandler.removeCallbacks(mSaveRunnable);
+        mSavedGeneration = mGeneration;
+        if (opened) {
+            mOpenedGeneration = mGeneration;
+        }
+    }
+
+    /**
+     * Returns true if the text changed since it was last saved.
+     */
+    boolean isDirty() {
+        return mGeneration != mSavedGeneration;
+    }
+
+    /**
+     * Returns true if the user changed the text since the note was opened.
+     */
+    boolean isEditedSinceOpened() {
+        return mGeneration != mOpenedGeneration;
+    }
+
+    /**
+     * Saves the text right away if it is dirty.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        if (isDirty()) {
+            mSavedGeneration = mGeneration;
+            mListener.onSave(mText.getText().toString());
+        }
+    }
+
+    /**
+     * Drops any pending save and treats the current text as saved.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mSavedGeneration = mGeneration;
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        if (mBinding) {
+            return;
+        }
+        mGeneration++;
+
+        // Restarts the idle timer, so a burst of typing results in a single write
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, mIdleMillis);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+
+/**
+ * Reads several notes from the NotePad provider in one call of
+ * {@link NotePad.Methods#GET_MANY}, instead of one query per note. Don't call it on the main
+ * thread.
+ */
+final class NoteBatch {
+
+    // This class cannot be instantiated
+    private NoteBatch() {
+    }
+
+    /**
+     * Returns a cursor over the given columns of the notes with the given ids, or over all of
+     * their columns if projection is null. Notes that don't exist are left out; the others are
+     * in the order of ids. At most {@link NotePad.Methods#GET_MANY_MAX_IDS} notes can be read
+     * at a time.
+     */
+    static Cursor getMany(ContentResolver resolver, long[] ids, String[] projection)
+            throws IOException {
+        Bundle extras = new Bundle();
+        extras.putLongArray(NotePad.Methods.KEY_IDS, ids);
+        extras.putStringArray(NotePad.Methods.KEY_PROJECTION, projection);
+        Bundle result = resolver.call(NotePad.Notes.CONTENT_URI, NotePad.Methods.GET_MANY, null,
+                extras);
+
+        ParcelFileDescriptor stream = result.getParcelable(NotePad.Methods.KEY_STREAM);
+        if (stream != null) {
+            return readStream(stream, projection);
+        }
+
+        long[] found = result.getLongArray(NotePad.Methods.KEY_IDS);
+        String[] columns = result.getStringArray(NotePad.Methods.KEY_PROJECTION);
+        MatrixCursor c = new MatrixCursor(columns, found.length);
+        Object[] columnValues = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            // A long array or a String array
+            columnValues[i] = result.get(columns[i]);
+        }
+        for (int row = 0; row < found.length; row++) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = columnValues[i] instanceof long[]
+                        ? ((long[]) columnValues[i])[row] : ((String[]) columnValues[i])[row];
+            }
+            c.addRow(values);
+        }
+        return c;
+    }
+
+    /**
+     * Reads a result that was too large for one call, one note per line of JSON. Fails if the
+     * provider couldn't write the whole result, which it tells from API 19 on.
+     */
+    private static Cursor readStream(ParcelFileDescriptor stream, String[] projection)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ParcelFileDescriptor.AutoCloseInputStream(stream), "UTF-8"));
+        try {
+            MatrixCursor c = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JSONObject note = new JSONObject(line);
+                if (c == null) {
+                    c = new MatrixCursor(projection != null ? projection : names(note));
+                }
+                String[] columns = c.getColumnNames();
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = note.isNull(columns[i]) ? null : note.get(columns[i]);
+                }
+                c.addRow(values);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                // Throws if the provider closed the stream with an error
+                stream.checkError();
+            }
+            if (c == null) {
+                c = new MatrixCursor(projection != null ? projection : new String[0]);
+            }
+            return c;
+        } catch (JSONException e) {
+            throw new IOException("Malformed notes: " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String[] names(JSONObject object) {
+        String[] names = new String[object.length()];
+        Iterator<?> keys = object.keys();
+        for (int i = 0; keys.hasNext(); i++) {
+            names[i] = (String) keys.next();
+        }
+        return names;
+    }
+}
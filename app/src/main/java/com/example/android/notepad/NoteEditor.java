@@ -18,10 +18,12 @@ package com.example.android.notepad;
 
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.AsyncQueryHandler;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.content.ComponentName;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -34,7 +36,11 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.InputType;
+import android.text.Layout;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Menu;
@@ -43,7 +49,10 @@ import android.view.MenuItem;
 import android.widget.EditText;
 import android.widget.Toast;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
 
 
 public class NoteEditor extends Activity {
@@ -66,6 +75,16 @@ public class NoteEditor extends Activity {
     private static final int STATE_EDIT = 0;
     private static final int STATE_INSERT = 1;
 
+    // Tokens of the provider operations started through mQueryHandler
+    private static final int TOKEN_INSERT = 1;
+    private static final int TOKEN_QUERY = 2;
+    private static final int TOKEN_UPDATE = 4;
+    private static final int TOKEN_DELETE = 5;
+    private static final int TOKEN_AUTOSAVE = 6;
+
+    // How long the text must be left alone before it is saved automatically
+    private static final long AUTOSAVE_IDLE_MILLIS = 2000;
+
     // Global mutable variables
     private int mState;
     private Uri mUri;
@@ -73,16 +92,66 @@ public class NoteEditor extends Activity {
     private EditText mText;
     private String mOriginalContent;
 
+    // Runs the provider operations of this activity on a worker thread, one after another
+    private AsyncQueryHandler mQueryHandler;
+
+    // Whether the clipboard is being pasted into a new note; the note is loaded after that
+    private boolean mPasting;
+
+    private boolean mDestroyed;
+
+    // Saves the text in the background while the user edits it
+    private NoteAutosaver mAutosaver;
+
+    // Whether each save of a new note takes its title from the start of its text, as until
+    // the user gives it a title of its own, and the title last taken that way
+    private boolean mDerivingTitle;
+    private String mDerivedTitle;
+
+    /**
+     * An EditText that draws a rule under each line of text. Only the lines in view are ruled,
+     * so the cost of a frame depends on the size of the view rather than of the note.
+     *
+     * Past {@link #LARGE_DOCUMENT_LENGTH} characters the view switches to a large document
+     * mode, in which the keyboard is asked for no suggestions. That keeps spell checking and
+     * suggestion spans from running over the whole note on every edit. Changing the input type
+     * restarts the input, so the mode is switched when the text is set, which restarts it
+     * anyway, or after the edit that crossed the limit, never in the middle of one.
+     */
     public static class LinedEditText extends EditText {
+        // The length at which the view switches to large document mode, and the length it has
+        // to drop below to switch back. The gap keeps it from flipping back and forth while
+        // the user types around the limit.
+        private static final int LARGE_DOCUMENT_LENGTH = 64 * 1024;
+        private static final int SMALL_DOCUMENT_LENGTH = 48 * 1024;
+
         private Rect mRect;
+        private Rect mClip;
         private Paint mPaint;
 
+        // The end points of the rules of a frame, kept from one frame to the next
+        private float[] mRules = new float[0];
+
+        private boolean mLargeDocument;
+
+        // Whether the text is being replaced by setText() rather than edited
+        private boolean mSettingText;
+
+        // Switches the document mode once the edit that crossed the limit is done
+        private final Runnable mUpdateDocumentMode = new Runnable() {
+            @Override
+            public void run() {
+                updateDocumentMode();
+            }
+        };
+
         // This constructor is used by LayoutInflater
         public LinedEditText(Context context, AttributeSet attrs) {
             super(context, attrs);
 
             // Creates a Rect and a Paint object, and sets the style and color of the Paint object.
             mRect = new Rect();
+            mClip = new Rect();
             mPaint = new Paint();
             mPaint.setStyle(Paint.Style.STROKE);
             mPaint.setColor(0x800000FF);
@@ -91,25 +160,108 @@ public class NoteEditor extends Activity {
 
         @Override
         protected void onDraw(Canvas canvas) {
+            Layout layout = getLayout();
+
+            // Rules the lines within the clip, which is the visible part of the text
+            if (layout != null && canvas.getClipBounds(mClip)) {
 
-            // Gets the number of lines of text in the View.
-            int count = getLineCount();
+                // The layout starts below the top padding
+                int top = getExtendedPaddingTop();
+                int first = layout.getLineForVertical(mClip.top - top);
+                int last = layout.getLineForVertical(mClip.bottom - top);
 
-            // Gets the global Rect and Paint objects
-            Rect r = mRect;
-            Paint paint = mPaint;
+                int count = last - first + 1;
+                if (mRules.length < count * 4) {
+                    mRules = new float[count * 4];
+                }
+
+                // Gets the global Rect and rules
+                Rect r = mRect;
+                float[] rules = mRules;
 
-            for (int i = 0; i < count; i++) {
+                for (int i = 0; i < count; i++) {
 
-                // Gets the baseline coordinates for the current line of text
-                int baseline = getLineBounds(i, r);
+                    // Gets the baseline coordinates for the current line of text
+                    int baseline = getLineBounds(first + i, r);
 
-                canvas.drawLine(r.left, baseline + 1, r.right, baseline + 1, paint);
+                    rules[i * 4] = r.left;
+                    rules[i * 4 + 1] = baseline + 1;
+                    rules[i * 4 + 2] = r.right;
+                    rules[i * 4 + 3] = baseline + 1;
+                }
+
+                // Draws all the rules at once
+                canvas.drawLines(rules, 0, count * 4, mPaint);
             }
 
             // Finishes up by calling the parent method
             super.onDraw(canvas);
         }
+
+        @Override
+        protected void onTextChanged(CharSequence text, int start, int lengthBefore,
+                int lengthAfter) {
+            super.onTextChanged(text, start, lengthBefore, lengthAfter);
+
+            // The super constructor sets the text before this view is set up
+            if (mPaint == null || mSettingText) {
+                return;
+            }
+            if (isDocumentModeStale(text.length())) {
+                // The input is in the middle of handling the edit, so it isn't restarted here
+                removeCallbacks(mUpdateDocumentMode);
+                post(mUpdateDocumentMode);
+            }
+        }
+
+        @Override
+        public void setText(CharSequence text, BufferType type) {
+            mSettingText = true;
+            try {
+                super.setText(text, type);
+            } finally {
+                mSettingText = false;
+            }
+            if (mPaint != null) {
+                removeCallbacks(mUpdateDocumentMode);
+                updateDocumentMode();
+            }
+        }
+
+        /**
+         * Returns true if the text is long enough for the view to be in large document mode.
+         */
+        public boolean isLargeDocument() {
+            return mLargeDocument;
+        }
+
+        // Whether the length of the text calls for the other document mode
+        private boolean isDocumentModeStale(int length) {
+            return mLargeDocument ? length < SMALL_DOCUMENT_LENGTH
+                    : length > LARGE_DOCUMENT_LENGTH;
+        }
+
+        private void updateDocumentMode() {
+            if (isDocumentModeStale(length())) {
+                setLargeDocument(!mLargeDocument);
+            }
+        }
+
+        private void setLargeDocument(boolean large) {
+            mLargeDocument = large;
+
+            // Changing the input type restarts the input, so the selection is put back after
+            int selectionStart = getSelectionStart();
+            int selectionEnd = getSelectionEnd();
+            if (large) {
+                setInputType(getInputType() | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+            } else {
+                setInputType(getInputType() & ~InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+            }
+            if (selectionStart >= 0 && selectionEnd >= 0) {
+                setSelection(Math.min(selectionStart, length()), Math.min(selectionEnd, length()));
+            }
+        }
     }
 
     @Override
@@ -119,41 +271,36 @@ public class NoteEditor extends Activity {
         final Intent intent = getIntent();
         final String action = intent.getAction();
 
+        mQueryHandler = new NoteQueryHandler(getContentResolver());
+
         if (Intent.ACTION_EDIT.equals(action)) {
             mState = STATE_EDIT;
             mUri = intent.getData();
         } else if (Intent.ACTION_INSERT.equals(action) || Intent.ACTION_PASTE.equals(action)) {
             mState = STATE_INSERT;
-            mUri = getContentResolver().insert(intent.getData(), null);
-            if (mUri == null) {
-                Log.e(TAG, "Failed to insert new note into " + getIntent().getData());
-                finish();
-                return;
-            }
-            setResult(RESULT_OK, (new Intent()).setAction(mUri.toString()));
+            mDerivingTitle = true;
+            // The new note is created on the worker thread, and loaded once its URI is known
+            mQueryHandler.startInsert(TOKEN_INSERT, action, intent.getData(), null);
         } else {
             Log.e(TAG, "Unknown action, exiting");
             finish();
             return;
         }
 
-        // Initialize the cursor to query the note data
-        mCursor = managedQuery(
-                mUri,
-                PROJECTION,
-                null,
-                null,
-                null
-        );
-
-        if (Intent.ACTION_PASTE.equals(action)) {
-            performPaste();
-            mState = STATE_EDIT;
-        }
-
         setContentView(R.layout.note_editor);
         mText = (EditText) findViewById(R.id.note);
 
+        // Shows an empty, read-only editor until the note has been loaded
+        mText.setEnabled(false);
+        setTitle(getText(R.string.loading));
+
+        mAutosaver = new NoteAutosaver(mText, new Handler(), new NoteAutosaver.Listener() {
+            @Override
+            public void onSave(String text) {
+                saveNote(text);
+            }
+        }, AUTOSAVE_IDLE_MILLIS);
+
         // 恢复背景资源
         SharedPreferences preferences = getSharedPreferences("NoteEditorPrefs", MODE_PRIVATE);
         int backgroundResId = preferences.getInt("backgroundResId", -1); // 默认值为 -1
@@ -172,18 +319,60 @@ public class NoteEditor extends Activity {
     protected void onResume() {
         super.onResume();
 
+        // 恢复背景资源
+        SharedPreferences preferences = getSharedPreferences("NoteEditorPrefs", MODE_PRIVATE);
+        int backgroundResId = preferences.getInt("backgroundResId", -1); // 默认值为 -1
+        if (backgroundResId != -1) {
+            mText.setBackgroundResource(backgroundResId);
+            mText.setTag(backgroundResId);  // 恢复背景资源 ID
+        }
+
+        // 在后台重新查询笔记数据。新笔记在插入完成后才加载
+        if (mUri != null && !mPasting) {
+            startLoading();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+
+        // Pending saves and deletes still run; only the reads are no longer needed
+        if (mQueryHandler != null) {
+            mQueryHandler.cancelOperation(TOKEN_QUERY);
+        }
         if (mCursor != null) {
-            // 恢复背景资源
-            SharedPreferences preferences = getSharedPreferences("NoteEditorPrefs", MODE_PRIVATE);
-            int backgroundResId = preferences.getInt("backgroundResId", -1); // 默认值为 -1
-            if (backgroundResId != -1) {
-                mText.setBackgroundResource(backgroundResId);
-                mText.setTag(backgroundResId);  // 恢复背景资源 ID
-            }
+            mCursor.close();
+            mCursor = null;
+        }
+    }
 
-            // 重新查询笔记数据
-            mCursor.requery();
-            mCursor.moveToFirst();
+    /**
+     * Starts loading the note on the worker thread. It is shown by bindNote() when it arrives.
+     */
+    private void startLoading() {
+        mQueryHandler.cancelOperation(TOKEN_QUERY);
+        mQueryHandler.startQuery(TOKEN_QUERY, null, mUri, PROJECTION, null, null, null);
+    }
+
+    /**
+     * Shows the note loaded by startLoading().
+     */
+    private void bindNote(Cursor cursor) {
+        if (mCursor != null) {
+            mCursor.close();
+        }
+        mCursor = cursor;
+
+        if (mCursor != null && mCursor.moveToFirst()) {
+            if (mDerivingTitle && mDerivedTitle != null) {
+                // A title that isn't the one last saved was set by the user, e.g. in the
+                // title editor, and is kept from now on
+                String title = mCursor.getString(
+                        mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE));
+                mDerivingTitle = mDerivedTitle.equals(title);
+            }
 
             if (mState == STATE_EDIT) {
                 // 设置活动标题为笔记标题
@@ -198,17 +387,68 @@ public class NoteEditor extends Activity {
 
             int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
             String note = mCursor.getString(colNoteIndex);
-            mText.setTextKeepState(note);
+            boolean opened = mOriginalContent == null;
+            if (!mAutosaver.isDirty()) {
+                mAutosaver.bind(note, opened);
+            }
+            // Otherwise the user typed while the note was reloading, as onResume() does. The
+            // text on screen is newer than the loaded one, and its pending save writes it.
+            mText.setEnabled(true);
 
-            if (mOriginalContent == null) {
+            if (opened) {
                 mOriginalContent = note;
             }
         } else {
+            if (mCursor != null) {
+                // The note no longer exists
+                mCursor.close();
+                mCursor = null;
+            }
             setTitle(getText(R.string.error_title));
             mText.setText(getText(R.string.error_message));
         }
     }
 
+    /**
+     * Receives the results of the provider operations on the UI thread.
+     */
+    private final class NoteQueryHandler extends AsyncQueryHandler {
+        NoteQueryHandler(ContentResolver cr) {
+            super(cr);
+        }
+
+        @Override
+        protected void onInsertComplete(int token, Object cookie, Uri uri) {
+            if (uri == null) {
+                Log.e(TAG, "Failed to insert new note into " + getIntent().getData());
+                finish();
+                return;
+            }
+            mUri = uri;
+            setResult(RESULT_OK, (new Intent()).setAction(mUri.toString()));
+            if (mDestroyed) {
+                return;
+            }
+
+            if (Intent.ACTION_PASTE.equals(cookie)) {
+                performPaste();
+            } else {
+                startLoading();
+            }
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (mDestroyed) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            } else {
+                bindNote(cursor);
+            }
+        }
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -229,23 +469,29 @@ public class NoteEditor extends Activity {
             editor.putInt("backgroundResId", backgroundResId);
             editor.apply();  // 保存背景设置
 
-            // 获取当前的笔记内容
-            String text = mText.getText().toString();
-            int length = text.length();
-
-            if (isFinishing() && (length == 0)) {
+            // 空笔记在退出时删除，否则立即保存尚未自动保存的修改（未修改则不写入）
+            if (isFinishing() && mText.length() == 0) {
                 setResult(RESULT_CANCELED);
                 deleteNote();
-            } else if (mState == STATE_EDIT) {
-                // 更新笔记
-                updateNote(text, null);
-            } else if (mState == STATE_INSERT) {
-                updateNote(text, text);
-                mState = STATE_EDIT;
+            } else {
+                mAutosaver.flush();
             }
         }
     }
 
+    /**
+     * Writes the text handed over by the autosaver. Only the latest text matters, so a write
+     * still waiting for the worker thread is replaced rather than queued behind.
+     */
+    private void saveNote(String text) {
+        mQueryHandler.cancelOperation(TOKEN_AUTOSAVE);
+        writeNote(TOKEN_AUTOSAVE, text, null);
+
+        // The note is saved, so it has a history, and cancelling reverts it rather than
+        // deleting it
+        mState = STATE_EDIT;
+    }
+
 
 
     @Override
@@ -269,10 +515,15 @@ public class NoteEditor extends Activity {
 
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
-        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-        String savedNote = mCursor.getString(colNoteIndex);
-        String currentNote = mText.getText().toString();
-        if (savedNote.equals(currentNote)) {
+        // A new note has no history until it is saved
+        menu.findItem(R.id.menu_history).setVisible(mState == STATE_EDIT);
+        if (mCursor == null) {
+            // The note hasn't been loaded, so there is nothing to revert
+            menu.findItem(R.id.menu_revert).setVisible(false);
+            return super.onPrepareOptionsMenu(menu);
+        }
+        // Tells whether the user typed anything since the note was opened without copying it
+        if (!mAutosaver.isEditedSinceOpened()) {
             menu.findItem(R.id.menu_revert).setVisible(false);
         } else {
             menu.findItem(R.id.menu_revert).setVisible(true);
@@ -287,8 +538,7 @@ public class NoteEditor extends Activity {
         // Handle all of the possible menu actions.
         switch (item.getItemId()) {
         case R.id.menu_save:
-            String text = mText.getText().toString();
-            updateNote(text, null);
+            mAutosaver.flush();
             finish();
             break;
         case R.id.menu_delete:
@@ -298,6 +548,9 @@ public class NoteEditor extends Activity {
         case R.id.menu_revert:
             cancelNote();
             break;
+        case R.id.menu_history:
+            showHistory();
+            break;
         case R.id.menu_export:
             export();
             break;
@@ -309,6 +562,16 @@ public class NoteEditor extends Activity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Saves any pending edit, so it is the newest revision, and lists the revisions of the note.
+     * The note is loaded again when the editor resumes, with the revision restored if any.
+     */
+    private void showHistory() {
+        mAutosaver.flush();
+        startActivity(new Intent(this, NoteHistory.class)
+                .setData(Uri.withAppendedPath(mUri, NotePad.NoteRevisions.PATH_SEGMENT)));
+    }
+
     private void showBackgroundImagePickerDialog() {
         final int[] imageResIds = {
                 R.drawable.ic_background_back1,
@@ -427,6 +690,10 @@ public class NoteEditor extends Activity {
     }
 
 
+    /**
+     * Fills the newly inserted note from the clipboard, then loads it. Copied notes are read
+     * together in one call to the provider, off the main thread, see PasteTask.
+     */
     private final void performPaste() {
 
         ClipboardManager clipboard = (ClipboardManager)
@@ -437,59 +704,150 @@ public class NoteEditor extends Activity {
         ClipData clip = clipboard.getPrimaryClip();
         if (clip != null) {
 
-            String text=null;
-            String title=null;
-
-            ClipData.Item item = clip.getItemAt(0);
-            Uri uri = item.getUri();
-            if (uri != null && NotePad.Notes.CONTENT_ITEM_TYPE.equals(cr.getType(uri))) {
-                Cursor orig = cr.query(
-                        uri,            // URI for the content provider
-                        PROJECTION,     // Get the columns referred to in the projection
-                        null,           // No selection variables
-                        null,           // No selection variables, so no criteria are needed
-                        null            // Use the default sort order
-                );
-
-                if (orig != null) {
-                    if (orig.moveToFirst()) {
-                        int colNoteIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
-                        int colTitleIndex = mCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
-                        text = orig.getString(colNoteIndex);
-                        title = orig.getString(colTitleIndex);
-                    }
+            // The id of each item that is a note, or -1. The notes are read in one call.
+            long[] itemIds = new long[clip.getItemCount()];
+            int noteCount = 0;
+            for (int i = 0; i < itemIds.length; i++) {
+                Uri uri = clip.getItemAt(i).getUri();
+                itemIds[i] = -1;
+                if (uri != null && noteCount < NotePad.Methods.GET_MANY_MAX_IDS
+                        && NotePad.Notes.CONTENT_ITEM_TYPE.equals(cr.getType(uri))) {
+                    itemIds[i] = ContentUris.parseId(uri);
+                    noteCount++;
+                }
+            }
+            if (noteCount > 0) {
+                mPasting = true;
+                new PasteTask(clip, itemIds).execute();
+                return;
+            }
 
-                    // Closes the cursor.
-                    orig.close();
+            // Updates the current note with the clipboard's text.
+            updateNote(clipText(clip, itemIds, null), null);
+        }
+        mState = STATE_EDIT;
+        startLoading();
+    }
+
+    /**
+     * Reads the notes on the clipboard off the main thread, then pastes the clip.
+     */
+    private final class PasteTask extends AsyncTask<Void, Void, Cursor> {
+        private final ClipData mClip;
+        private final long[] mItemIds;
+
+        PasteTask(ClipData clip, long[] itemIds) {
+            mClip = clip;
+            mItemIds = itemIds;
+        }
+
+        @Override
+        protected Cursor doInBackground(Void... params) {
+            long[] ids = new long[mItemIds.length];
+            int count = 0;
+            for (long id : mItemIds) {
+                if (id >= 0) {
+                    ids[count++] = id;
                 }
             }
-            if (text == null) {
-                text = item.coerceToText(this).toString();
+            try {
+                return NoteBatch.getMany(getContentResolver(), Arrays.copyOf(ids, count),
+                        PROJECTION);
+            } catch (IOException e) {
+                // Falls back to the items' text
+                Log.w(TAG, "Failed to read the pasted notes", e);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Failed to read the pasted notes", e);
             }
+            return null;
+        }
 
-            // Updates the current note with the retrieved title and text.
-            updateNote(text, title);
+        @Override
+        protected void onPostExecute(Cursor notes) {
+            onPasteComplete(mClip, mItemIds, notes);
         }
     }
 
+    /**
+     * Copies the notes read by performPaste() into the new note, then loads it.
+     */
+    private void onPasteComplete(ClipData clip, long[] itemIds, Cursor notes) {
+        mPasting = false;
+
+        String title = null;
+        String text;
+        try {
+            if (notes != null && itemIds[0] >= 0 && notes.moveToFirst()
+                    && notes.getLong(notes.getColumnIndex(NotePad.Notes._ID)) == itemIds[0]) {
+                // Pasting a note, or a clip that starts with one, keeps the note's title
+                title = notes.getString(notes.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE));
+            }
+            text = clipText(clip, itemIds, notes);
+        } finally {
+            if (notes != null) {
+                notes.close();
+            }
+        }
+
+        // Updates the current note with the retrieved title and text. A pasted note's title
+        // is kept rather than replaced by one taken from the text.
+        if (title != null) {
+            mDerivingTitle = false;
+        }
+        updateNote(text, title);
+        mState = STATE_EDIT;
+        if (!mDestroyed) {
+            startLoading();
+        }
+    }
+
+    /**
+     * Returns the text of every item of the clip, one per line: the content of the notes read
+     * into notes, if any, and the item's own text otherwise, e.g. for a note that is gone.
+     */
+    private String clipText(ClipData clip, long[] itemIds, Cursor notes) {
+        HashMap<Long, String> contents = new HashMap<Long, String>();
+        if (notes != null) {
+            int idColumn = notes.getColumnIndex(NotePad.Notes._ID);
+            int noteColumn = notes.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
+            notes.moveToPosition(-1);
+            while (notes.moveToNext()) {
+                contents.put(notes.getLong(idColumn), notes.getString(noteColumn));
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < itemIds.length; i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            String content = contents.get(itemIds[i]);
+            text.append(content != null ? content : clip.getItemAt(i).coerceToText(this));
+        }
+        return text.toString();
+    }
+
     private final void updateNote(String text, String title) {
+        writeNote(TOKEN_UPDATE, text, title);
+    }
+
+    private final void writeNote(int token, String text, String title) {
 
         ContentValues values = new ContentValues();
         values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, System.currentTimeMillis());
 
-        if (mState == STATE_INSERT) {
-            if (title == null) {
-                int length = text.length();
+        if (mDerivingTitle && title == null) {
+            int length = text.length();
 
-                title = text.substring(0, Math.min(30, length));
+            title = text.substring(0, Math.min(30, length));
 
-                if (length > 30) {
-                    int lastSpace = title.lastIndexOf(' ');
-                    if (lastSpace > 0) {
-                        title = title.substring(0, lastSpace);
-                    }
+            if (length > 30) {
+                int lastSpace = title.lastIndexOf(' ');
+                if (lastSpace > 0) {
+                    title = title.substring(0, lastSpace);
                 }
             }
+            mDerivedTitle = title;
             values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
         } else if (title != null) {
             // In the values map, sets the value of the title
@@ -498,7 +856,9 @@ public class NoteEditor extends Activity {
 
         values.put(NotePad.Notes.COLUMN_NAME_NOTE, text);
 
-        getContentResolver().update(
+        mQueryHandler.startUpdate(
+                token,
+                null,
                 mUri,    // The URI for the record to update.
                 values,  // The map of column names and new values to apply to them.
                 null,    // No selection criteria are used, so no where columns are necessary.
@@ -510,13 +870,17 @@ public class NoteEditor extends Activity {
 
     private final void cancelNote() {
         if (mCursor != null) {
+            // Drops any edits that haven't been written yet
+            mAutosaver.cancel();
+            mQueryHandler.cancelOperation(TOKEN_AUTOSAVE);
+
             if (mState == STATE_EDIT) {
                 // Put the original note text back into the database
                 mCursor.close();
                 mCursor = null;
                 ContentValues values = new ContentValues();
                 values.put(NotePad.Notes.COLUMN_NAME_NOTE, mOriginalContent);
-                getContentResolver().update(mUri, values, null, null);
+                mQueryHandler.startUpdate(TOKEN_UPDATE, null, mUri, values, null, null);
             } else if (mState == STATE_INSERT) {
                 // We inserted an empty note, make sure to delete it
                 deleteNote();
@@ -530,8 +894,10 @@ public class NoteEditor extends Activity {
         if (mCursor != null) {
             mCursor.close();
             mCursor = null;
-            getContentResolver().delete(mUri, null, null);
+            mQueryHandler.cancelOperation(TOKEN_AUTOSAVE);
+            mQueryHandler.startDelete(TOKEN_DELETE, null, mUri, null, null);
             mText.setText("");
+            mAutosaver.cancel();
         }
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import android.content.ClipDescription;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders a note as a text document of one of the MIME types the provider streams. A note is
+ * rendered incrementally: the header with the title, then the content one piece at a time, then
+ * the footer, so a long note never has to be held in memory as a whole.
+ */
+abstract class NoteFormat {
+
+    static final String MIMETYPE_TEXT_MARKDOWN = "text/markdown";
+
+    /**
+     * The title, a blank line, then the content.
+     */
+    static final NoteFormat PLAIN = new NoteFormat(ClipDescription.MIMETYPE_TEXT_PLAIN) {
+        @Override
+        void writeHeader(Writer out, String title) throws IOException {
+            out.write(title);
+            out.write("\n\n");
+        }
+
+        @Override
+        void writeContent(Writer out, String content) throws IOException {
+            out.write(content);
+        }
+
+        @Override
+        void writeFooter(Writer out) throws IOException {
+            out.write('\n');
+        }
+    };
+
+    /**
+     * The title as a level 1 heading, then the content, which is taken to be Markdown already.
+     */
+    static final NoteFormat MARKDOWN = new NoteFormat(MIMETYPE_TEXT_MARKDOWN) {
+        @Override
+        void writeHeader(Writer out, String title) throws IOException {
+            out.write("# ");
+            out.write(title);
+            out.write("\n\n");
+        }
+
+        @Override
+        void writeContent(Writer out, String content) throws IOException {
+            out.write(content);
+        }
+
+        @Override
+        void writeFooter(Writer out) throws IOException {
+            out.write('\n');
+        }
+    };
+
+    /**
+     * A complete HTML page with the title as heading and the content as preformatted text.
+     */
+    static final NoteFormat HTML = new NoteFormat(ClipDescription.MIMETYPE_TEXT_HTML) {
+        @Override
+        void writeHeader(Writer out, String title) throws IOException {
+            out.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>");
+            writeEscaped(out, title);
+            out.write("</title></head>\n<body><h1>");
+            writeEscaped(out, title);
+            out.write("</h1>\n<pre>");
+        }
+
+        @Override
+        void writeContent(Writer out, String content) throws IOException {
+            writeEscaped(out, content);
+        }
+
+        @Override
+        void writeFooter(Writer out) throws IOException {
+            out.write("</pre></body></html>\n");
+        }
+
+        private void writeEscaped(Writer out, String text) throws IOException {
+            // Copies runs of plain characters in one call, and escapes the others
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                String entity;
+                switch (text.charAt(i)) {
+                    case '<': entity = "&lt;"; break;
+                    case '>': entity = "&gt;"; break;
+                    case '&': entity = "&amp;"; break;
+                    case '"': entity = "&quot;"; break;
+                    default: continue;
+                }
+                out.write(text, start, i - start);
+                out.write(entity);
+                start = i + 1;
+            }
+            out.write(text, start, text.length() - start);
+        }
+    };
+
+    /**
+     * The MIME types of the formats, in order of preference.
+     */
+    static final String[] MIME_TYPES = new String[] {
+            PLAIN.mimeType, MARKDOWN.mimeType, HTML.mimeType
+    };
+
+    final String mimeType;
+
+    private NoteFormat(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Returns the format of the given MIME type, or null if there is none.
+     */
+    static NoteFormat forMimeType(String mimeType) {
+        if (PLAIN.mimeType.equals(mimeType)) {
+            return PLAIN;
+        } else if (MARKDOWN.mimeType.equals(mimeType)) {
+            return MARKDOWN;
+        } else if (HTML.mimeType.equals(mimeType)) {
+            return HTML;
+        }
+        return null;
+    }
+
+    abstract void writeHeader(Writer out, String title) throws IOException;
+
+    /**
+     * Writes the next piece of the note content.
+     */
+    abstract void writeContent(Writer out, String content) throws IOException;
+
+    abstract void writeFooter(Writer out) throws IOException;
+}
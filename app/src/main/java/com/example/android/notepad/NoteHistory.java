@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.app.AlertDialog;
+import android.app.ListActivity;
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.DialogInterface;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.ListView;
+import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Lists the revisions of a note, newest first, and restores the one the user picks. It is
+ * started by {@link NoteEditor} with the revisions URI of the note as data, see
+ * {@link NotePad.NoteRevisions}.
+ *
+ * The list only reads the date and length of each revision. The content of a revision is
+ * rebuilt by the provider when the user opens it.
+ */
+public class NoteHistory extends ListActivity {
+
+    // The columns of the list
+    private static final String[] PROJECTION = new String[] {
+            NotePad.NoteRevisions._ID,
+            NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+            NotePad.NoteRevisions.COLUMN_NAME_LENGTH,
+    };
+
+    // The columns of an opened revision
+    private static final String[] REVISION_PROJECTION = new String[] {
+            NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+            NotePad.NoteRevisions.COLUMN_NAME_NOTE,
+    };
+
+    // The number of characters of a revision shown before it is restored
+    private static final int PREVIEW_LENGTH = 2000;
+
+    // Tokens of the provider operations started through mQueryHandler
+    private static final int TOKEN_LIST = 1;
+    private static final int TOKEN_REVISION = 2;
+    private static final int TOKEN_RESTORE = 3;
+
+    // The URI of the note, and of its revisions
+    private Uri mNoteUri;
+    private Uri mRevisionsUri;
+
+    private SimpleCursorAdapter mAdapter;
+
+    // Runs the provider operations of this activity on a worker thread
+    private AsyncQueryHandler mQueryHandler;
+
+    private final SimpleDateFormat mDateFormat =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+
+    private boolean mDestroyed;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        mRevisionsUri = getIntent().getData();
+        mNoteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                Long.parseLong(mRevisionsUri.getPathSegments().get(
+                        NotePad.Notes.NOTE_ID_PATH_POSITION)));
+
+        mAdapter = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_2, null,
+                new String[] {
+                        NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                        NotePad.NoteRevisions.COLUMN_NAME_LENGTH },
+                new int[] { android.R.id.text1, android.R.id.text2 },
+                0);
+        mAdapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+            @Override
+            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+                TextView text = (TextView) view;
+                if (view.getId() == android.R.id.text1) {
+                    text.setText(formatDate(cursor.getLong(columnIndex)));
+                } else {
+                    text.setText(getString(R.string.history_length, cursor.getInt(columnIndex)));
+                }
+                return true;
+            }
+        });
+        setListAdapter(mAdapter);
+
+        mQueryHandler = new HistoryQueryHandler(getContentResolver());
+        mQueryHandler.startQuery(TOKEN_LIST, null, mRevisionsUri, PROJECTION, null, null,
+                NotePad.NoteRevisions.DEFAULT_SORT_ORDER);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+
+        // A restore still runs; only the reads are no longer needed
+        mQueryHandler.cancelOperation(TOKEN_LIST);
+        mQueryHandler.cancelOperation(TOKEN_REVISION);
+        mAdapter.changeCursor(null);
+    }
+
+    /**
+     * Opens the revision the user clicked. It is shown by showRevision() once it is rebuilt.
+     */
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        mQueryHandler.cancelOperation(TOKEN_REVISION);
+        mQueryHandler.startQuery(TOKEN_REVISION, null,
+                ContentUris.withAppendedId(mRevisionsUri, id), REVISION_PROJECTION, null, null,
+                null);
+    }
+
+    /**
+     * Shows the start of a revision, and offers to restore it.
+     */
+    private void showRevision(Cursor cursor) {
+        final String note;
+        long created;
+        try {
+            if (!cursor.moveToFirst()) {
+                return;
+            }
+            created = cursor.getLong(0);
+            note = cursor.getString(1);
+        } finally {
+            cursor.close();
+        }
+        if (note == null) {
+            return;
+        }
+
+        String preview = note.length() > PREVIEW_LENGTH
+                ? note.substring(0, PREVIEW_LENGTH) + "\u2026" : note;
+        new AlertDialog.Builder(this)
+                .setTitle(formatDate(created))
+                .setMessage(preview)
+                .setPositiveButton(R.string.history_restore,
+                        new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                restore(note);
+                            }
+                        })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Saves a revision as the content of the note, which adds it to the history as the newest
+     * revision, and goes back to the editor.
+     */
+    private void restore(String note) {
+        ContentValues values = new ContentValues();
+        values.put(NotePad.Notes.COLUMN_NAME_NOTE, note);
+        values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, System.currentTimeMillis());
+        mQueryHandler.startUpdate(TOKEN_RESTORE, null, mNoteUri, values, null, null);
+        setResult(RESULT_OK);
+        finish();
+    }
+
+    private String formatDate(long millis) {
+        return mDateFormat.format(new Date(millis));
+    }
+
+    /**
+     * Receives the results of the provider operations on the UI thread.
+     */
+    private final class HistoryQueryHandler extends AsyncQueryHandler {
+        HistoryQueryHandler(ContentResolver cr) {
+            super(cr);
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (cursor == null) {
+                return;
+            } else if (mDestroyed) {
+                cursor.close();
+            } else if (token == TOKEN_LIST) {
+                mAdapter.changeCursor(cursor);
+            } else {
+                showRevision(cursor);
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.app.Activity;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Imports the notes of a document: a plain text file holding one note, a zip of such files,
+ * or newline-delimited JSON, as exported by {@link NotesList}.
+ *
+ * The document is parsed as a stream, one note at a time. The notes are staged in batches of
+ * at most {@link #BATCH_SIZE} notes and about {@link #BATCH_CHARS} characters, and each batch
+ * is written with
+ * {@link ContentResolver#bulkInsert}, which the provider commits in a single transaction with
+ * a single change notification.
+ */
+public class NoteImporter extends Activity {
+
+    private static final String TAG = "NoteImporter";
+
+    /** The number of notes written to the provider at a time */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * The number of characters of titles and contents past which a batch is written before it
+     * has {@link #BATCH_SIZE} notes. A batch crosses to the provider in one binder
+     * transaction, whose buffer of 1MB is shared by the process, at two bytes a character.
+     */
+    static final int BATCH_CHARS = 256 * 1024;
+
+    // The number of bytes looked at to tell the format of the document
+    private static final int SNIFF_LENGTH = 64;
+
+    // The first bytes of a zip, the signature of its first local file header
+    private static final byte[] ZIP_SIGNATURE = { 'P', 'K', 3, 4 };
+
+    // What sniff() returns for a zip, which no byte of a text document can be
+    private static final int SNIFFED_ZIP = -2;
+
+    // The size of the buffers the document is read through
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private TextView mProgressText;
+
+    // The import, which keeps running if the activity is destroyed
+    private ImportTask mTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.note_importer);
+        mProgressText = (TextView) findViewById(R.id.progress_text);
+
+        Uri uri = getIntent().getData();
+        if (uri == null) {
+            Log.e(TAG, "No document to import");
+            finish();
+            return;
+        }
+        mTask = new ImportTask(this);
+        mTask.execute(uri);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mTask != null) {
+            // The batches written so far stay imported, so the rest is imported too
+            mTask.mActivity = null;
+        }
+    }
+
+    /**
+     * Reads the document on a worker thread and writes its notes in batches. The progress is
+     * the number of notes written so far, and the number written per second.
+     */
+    private static final class ImportTask extends AsyncTask<Uri, Integer, Integer> {
+        // The activity showing the progress, or null once it is destroyed
+        NoteImporter mActivity;
+
+        private final Context mContext;
+        private final ContentResolver mResolver;
+        private final ArrayList<ContentValues> mBatch = new ArrayList<ContentValues>(BATCH_SIZE);
+        private int mBatchChars;
+        private int mImported;
+        private long mStartTime;
+        private boolean mFailed;
+
+        ImportTask(NoteImporter activity) {
+            mActivity = activity;
+            mContext = activity.getApplicationContext();
+            mResolver = activity.getContentResolver();
+        }
+
+        @Override
+        protected Integer doInBackground(Uri... params) {
+            mStartTime = SystemClock.elapsedRealtime();
+            InputStream in = null;
+            try {
+                in = mResolver.openInputStream(params[0]);
+                if (in == null) {
+                    throw new IOException("Unable to open " + params[0]);
+                }
+                in = new BufferedInputStream(in, BUFFER_SIZE);
+
+                int first = sniff(in);
+                if (first == SNIFFED_ZIP) {
+                    readZip(in);
+                } else if (first == '{') {
+                    readJsonLines(in);
+                } else {
+                    add(readNote(new BufferedReader(new InputStreamReader(in, "UTF-8"))));
+                }
+                writeBatch();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to import " + params[0], e);
+                mFailed = true;
+            } catch (RuntimeException e) {
+                // The provider rejected a batch
+                Log.e(TAG, "Failed to import " + params[0], e);
+                mFailed = true;
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+            return mImported;
+        }
+
+        /**
+         * Returns {@link #SNIFFED_ZIP} if the document starts with the signature of a zip, and
+         * otherwise its first character that isn't white space, or -1 if there is none among
+         * the first bytes. A text note may well start with "PK", so the whole signature is
+         * checked.
+         */
+        private static int sniff(InputStream in) throws IOException {
+            in.mark(SNIFF_LENGTH);
+            try {
+                int matched = 0;
+                while (matched < ZIP_SIGNATURE.length && in.read() == ZIP_SIGNATURE[matched]) {
+                    matched++;
+                }
+                if (matched == ZIP_SIGNATURE.length) {
+                    return SNIFFED_ZIP;
+                }
+                in.reset();
+                for (int i = 0; i < SNIFF_LENGTH; i++) {
+                    int c = in.read();
+                    if (c == -1 || !Character.isWhitespace(c)) {
+                        return c;
+                    }
+                }
+                return -1;
+            } finally {
+                in.reset();
+            }
+        }
+
+        private void readZip(InputStream in) throws IOException {
+            ZipInputStream zip = new ZipInputStream(in);
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                // Reads up to the end of the entry; the reader mustn't be closed, as that
+                // would close the zip
+                ContentValues values = readNote(
+                        new BufferedReader(new InputStreamReader(zip, "UTF-8"), BUFFER_SIZE));
+                if (entry.getTime() != -1) {
+                    values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, entry.getTime());
+                    values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, entry.getTime());
+                }
+                add(values);
+            }
+        }
+
+        private void readJsonLines(InputStream in) throws IOException {
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(in, "UTF-8"), BUFFER_SIZE);
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                try {
+                    add(parseJsonNote(new JSONObject(line)));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Skipping line " + lineNumber + ", " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Returns the columns of the note that are set in a line of NDJSON. The missing ones
+         * are filled in by the provider.
+         */
+        private static ContentValues parseJsonNote(JSONObject object) throws JSONException {
+            ContentValues values = new ContentValues();
+            if (object.has(NotePad.Notes.COLUMN_NAME_TITLE)) {
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE,
+                        object.getString(NotePad.Notes.COLUMN_NAME_TITLE));
+            }
+            if (object.has(NotePad.Notes.COLUMN_NAME_NOTE)) {
+                values.put(NotePad.Notes.COLUMN_NAME_NOTE,
+                        object.getString(NotePad.Notes.COLUMN_NAME_NOTE));
+            }
+            if (object.has(NotePad.Notes.COLUMN_NAME_CREATE_DATE)) {
+                values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+                        object.getLong(NotePad.Notes.COLUMN_NAME_CREATE_DATE));
+            }
+            if (object.has(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE)) {
+                values.put(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
+                        object.getLong(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE));
+            }
+            return values;
+        }
+
+        /**
+         * Reads a note in the plain text format the provider streams: the title on the first
+         * line, a blank line, then the content.
+         */
+        private static ContentValues readNote(BufferedReader reader) throws IOException {
+            ContentValues values = new ContentValues();
+            String title = reader.readLine();
+            if (title != null && title.length() > 0) {
+                values.put(NotePad.Notes.COLUMN_NAME_TITLE, title);
+            }
+
+            StringBuilder content = new StringBuilder();
+            char[] buffer = new char[BUFFER_SIZE];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, count);
+            }
+            // Drops the blank line after the title and the line break ending the file
+            int start = content.length() > 0 && content.charAt(0) == '\n' ? 1 : 0;
+            int end = content.length();
+            if (end > start && content.charAt(end - 1) == '\n') {
+                end--;
+            }
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, content.substring(start, end));
+            return values;
+        }
+
+        private void add(ContentValues values) {
+            mBatch.add(values);
+            mBatchChars += length(values.getAsString(NotePad.Notes.COLUMN_NAME_TITLE))
+                    + length(values.getAsString(NotePad.Notes.COLUMN_NAME_NOTE));
+            if (mBatch.size() == BATCH_SIZE || mBatchChars >= BATCH_CHARS) {
+                writeBatch();
+            }
+        }
+
+        private static int length(String text) {
+            return text != null ? text.length() : 0;
+        }
+
+        private void writeBatch() {
+            if (mBatch.isEmpty()) {
+                return;
+            }
+            mImported += mResolver.bulkInsert(NotePad.Notes.CONTENT_URI,
+                    mBatch.toArray(new ContentValues[mBatch.size()]));
+            mBatch.clear();
+            mBatchChars = 0;
+
+            long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mStartTime);
+            publishProgress(mImported, (int) (mImported * 1000L / elapsed));
+        }
+
+        @Override
+        protected void onProgressUpdate(Integer... values) {
+            if (mActivity != null) {
+                mActivity.mProgressText.setText(
+                        mActivity.getString(R.string.import_progress, values[0], values[1]));
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Integer imported) {
+            String message = mContext.getString(
+                    mFailed ? R.string.import_failed : R.string.import_done, imported);
+            Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+            if (mActivity != null) {
+                mActivity.finish();
+            }
+        }
+    }
+}
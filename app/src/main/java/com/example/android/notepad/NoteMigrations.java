@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+import com.example.android.notepad.NotePadProvider.DatabaseHelper;
+import com.example.android.notepad.store.NoteDatabase;
+import com.example.android.notepad.store.NoteSchema;
+import com.example.android.notepad.store.NoteSql;
+import com.example.android.notepad.store.RevisionLog;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Upgrades the notes database one version at a time, without losing notes.
+ *
+ * An upgrade is split in two parts. The schema steps run in
+ * {@link DatabaseHelper#onUpgrade}, and only create or alter tables, indexes and triggers, so
+ * they are quick however many notes there are. Work on the existing rows, like filling a new
+ * index, is scheduled by the steps as named backfills in the migration_progress table, and run
+ * later on a background thread in small transactions. Each transaction also records the id of
+ * the last note it covered, so a backfill that is interrupted resumes where it stopped the next
+ * time the provider starts.
+ */
+final class NoteMigrations {
+
+    private static final String TAG = "NoteMigrations";
+
+    /** The oldest database version that can be upgraded. Older ones are recreated. */
+    static final int FIRST_UPGRADABLE_VERSION = 2;
+
+    /*
+     * The table of pending backfills, in the order they were scheduled. Version 6 added it.
+     */
+    private static final String PROGRESS_TABLE_NAME = "migration_progress";
+    private static final String COLUMN_NAME_BACKFILL = "backfill";
+    private static final String COLUMN_NAME_LAST_ID = "last_id";
+
+    /*
+     * The backfills
+     */
+
+    // Adds the notes to the full-text index
+    private static final String BACKFILL_FULL_TEXT = "full_text";
+
+    // Splits the notes longer than a chunk, see NotePad.NoteChunks
+    private static final String BACKFILL_CHUNKS = "chunks";
+
+    // Indexes the whole content of the notes longer than a chunk, of which the full-text
+    // triggers only indexed the first chunk
+    private static final String BACKFILL_FULL_TEXT_CHUNKS = "full_text_chunks";
+
+    // Updates the statistics of the query planner. Always runs after the others.
+    private static final String BACKFILL_ANALYZE = "analyze";
+
+    // The number of notes covered by a transaction of the full-text backfill
+    private static final int FULL_TEXT_BATCH_SIZE = 500;
+
+    // The number of notes covered by a transaction of the chunks backfill. Most are short and
+    // only looked at.
+    private static final int CHUNKS_BATCH_SIZE = 100;
+
+    // The number of characters of a long note read at a time. SQLite counts characters, which
+    // may take two chars in Java, so this keeps each piece within a chunk.
+    private static final int PIECE_LENGTH = NotePad.NoteChunks.CHUNK_SIZE / 2;
+
+    /**
+     * A schema change, applied when upgrading from a version older than its own.
+     */
+    private abstract static class Step {
+        final int version;
+
+        Step(int version) {
+            this.version = version;
+        }
+
+        abstract void apply(SQLiteDatabase db);
+    }
+
+    // The steps, in version order
+    private static final Step[] STEPS = new Step[] {
+        // Searches notes through a full-text index
+        new Step(3) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                NoteSchema.createFullTextIndex(new SQLiteNoteDatabase(db));
+                schedule(db, BACKFILL_FULL_TEXT);
+            }
+        },
+
+        // Backs every list sort order with an index
+        new Step(4) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                NoteSchema.createIndexes(new SQLiteNoteDatabase(db));
+            }
+        },
+
+        // Stores long notes in chunks
+        new Step(5) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL("ALTER TABLE " + NotePad.Notes.TABLE_NAME + " ADD COLUMN "
+                        + NotePad.Notes.COLUMN_NAME_CHUNK_COUNT + " INTEGER NOT NULL DEFAULT 0");
+                NoteSchema.createChunksTable(new SQLiteNoteDatabase(db));
+                schedule(db, BACKFILL_CHUNKS);
+            }
+        },
+
+        // Keeps the revisions of the notes. The history of a note starts at its next save.
+        new Step(7) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                RevisionLog.createTable(new SQLiteNoteDatabase(db));
+            }
+        },
+
+        // Indexes the whole content of long notes. The provider writes the full-text index
+        // itself from now on, so the insert and update triggers go.
+        new Step(8) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL("DROP TRIGGER IF EXISTS notes_fts_insert");
+                db.execSQL("DROP TRIGGER IF EXISTS notes_fts_update");
+                schedule(db, BACKFILL_FULL_TEXT_CHUNKS);
+            }
+        },
+
+        // Searches CJK text through the bigrams column of the full-text index. An FTS table
+        // can't gain a column, so it is recreated and filled again.
+        new Step(9) {
+            @Override
+            void apply(SQLiteDatabase db) {
+                db.execSQL("DROP TRIGGER IF EXISTS notes_fts_delete");
+                db.execSQL("DROP TABLE IF EXISTS " + NoteSchema.FTS);
+                NoteSchema.createFullTextIndex(new SQLiteNoteDatabase(db));
+                schedule(db, BACKFILL_FULL_TEXT);
+            }
+        },
+    };
+
+    // This class cannot be instantiated
+    private NoteMigrations() {
+    }
+
+    /**
+     * Creates the table of pending backfills, if it doesn't exist yet.
+     */
+    static void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE_NAME + " ("
+                + COLUMN_NAME_BACKFILL + " TEXT PRIMARY KEY,"
+                + COLUMN_NAME_LAST_ID + " INTEGER NOT NULL DEFAULT 0"
+                + ");");
+    }
+
+    static void dropProgressTable(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + PROGRESS_TABLE_NAME);
+    }
+
+    /**
+     * Applies the schema steps between the two versions, and schedules their backfills.
+     *
+     * @return false if the database is too old to be upgraded, and has to be recreated
+     */
+    static boolean upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < FIRST_UPGRADABLE_VERSION) {
+            return false;
+        }
+
+        Log.i(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
+
+        // The steps schedule backfills, so the table comes first whatever the version
+        createProgressTable(db);
+        for (Step step : STEPS) {
+            if (step.version > oldVersion && step.version <= newVersion) {
+                step.apply(db);
+            }
+        }
+        schedule(db, BACKFILL_ANALYZE);
+        return true;
+    }
+
+    /**
+     * Adds a backfill to the pending ones, unless it is pending already.
+     */
+    private static void schedule(SQLiteDatabase db, String backfill) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME_BACKFILL, backfill);
+        db.insertWithOnConflict(PROGRESS_TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    /**
+     * Opens the database and runs the pending backfills on a background thread. Opening the
+     * database there also keeps the schema steps of an upgrade off the caller's thread.
+     *
+     * @param onChanged run on the background thread if any backfill ran
+     */
+    static void startBackfills(final SQLiteOpenHelper helper, final Runnable onChanged) {
+        Thread thread = new Thread("NoteBackfills") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    if (runBackfills(helper.getWritableDatabase())) {
+                        onChanged.run();
+                    }
+                } catch (RuntimeException e) {
+                    // The progress made so far is kept, and the rest runs on the next start
+                    Log.e(TAG, "Backfill failed", e);
+                }
+            }
+        };
+        thread.start();
+    }
+
+    /**
+     * Runs the pending backfills to completion, one batch per transaction.
+     *
+     * @return true if there were any
+     */
+    static boolean runBackfills(SQLiteDatabase db) {
+        boolean ran = false;
+        String backfill;
+        while ((backfill = nextBackfill(db)) != null) {
+            Log.i(TAG, "Running backfill " + backfill);
+            ran = true;
+            while (runBatch(db, backfill)) {
+                // Each batch commits, so saves from the editor get in between
+            }
+        }
+        return ran;
+    }
+
+    private static String nextBackfill(SQLiteDatabase db) {
+        Cursor c = db.query(PROGRESS_TABLE_NAME, new String[] { COLUMN_NAME_BACKFILL },
+                null, null, null, null,
+                COLUMN_NAME_BACKFILL + " = '" + BACKFILL_ANALYZE + "', rowid", "1");
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Runs the next batch of a backfill and records its progress in the same transaction.
+     *
+     * @return true if there is more to do
+     */
+    private static boolean runBatch(SQLiteDatabase db, String backfill) {
+        String[] whereArgs = new String[] { backfill };
+        db.beginTransaction();
+        try {
+            long lastId = DatabaseUtils.longForQuery(db, "SELECT " + COLUMN_NAME_LAST_ID
+                    + " FROM " + PROGRESS_TABLE_NAME + " WHERE " + COLUMN_NAME_BACKFILL + " = ?",
+                    whereArgs);
+
+            long nextId;
+            if (BACKFILL_FULL_TEXT.equals(backfill)) {
+                nextId = fillFullTextIndex(db, lastId);
+            } else if (BACKFILL_CHUNKS.equals(backfill)) {
+                nextId = splitLongNotes(db, lastId);
+            } else if (BACKFILL_FULL_TEXT_CHUNKS.equals(backfill)) {
+                nextId = indexLongNotes(db, lastId);
+            } else if (BACKFILL_ANALYZE.equals(backfill)) {
+                db.execSQL("ANALYZE");
+                nextId = -1;
+            } else {
+                Log.w(TAG, "Dropping unknown backfill " + backfill);
+                nextId = -1;
+            }
+
+            if (nextId < 0) {
+                db.delete(PROGRESS_TABLE_NAME, COLUMN_NAME_BACKFILL + " = ?", whereArgs);
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_NAME_LAST_ID, nextId);
+                db.update(PROGRESS_TABLE_NAME, values, COLUMN_NAME_BACKFILL + " = ?",
+                        whereArgs);
+            }
+            db.setTransactionSuccessful();
+            return nextId >= 0;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the id of the last of the next count notes after lastId, or 0 if there are none.
+     */
+    private static long batchEnd(SQLiteDatabase db, long lastId, int count) {
+        return DatabaseUtils.longForQuery(db, "SELECT max(" + NotePad.Notes._ID + ") FROM ("
+                + "SELECT " + NotePad.Notes._ID + " FROM " + NotePad.Notes.TABLE_NAME
+                + " WHERE " + NotePad.Notes._ID + " > ? ORDER BY " + NotePad.Notes._ID
+                + " LIMIT " + count + ")", new String[] { Long.toString(lastId) });
+    }
+
+    /**
+     * Adds the next batch of notes to the full-text index. Notes that were saved since the
+     * upgrade are in it already, as the provider indexes what it writes, and are skipped.
+     * The backfill runs before any split of long notes scheduled with it, and a note that
+     * isn't split yet may not fit in a cursor window, so those are indexed without their
+     * bigrams by SQL alone. The full-text chunks backfill, which is scheduled with the split,
+     * indexes them again whole once they are split.
+     *
+     * @return the id of the last note covered, or -1 if all are
+     */
+    private static long fillFullTextIndex(SQLiteDatabase db, long lastId) {
+        long end = batchEnd(db, lastId, FULL_TEXT_BATCH_SIZE);
+        if (end == 0) {
+            return -1;
+        }
+        String range = NotePad.Notes._ID + " > ? AND " + NotePad.Notes._ID + " <= ?";
+        String unindexed = range + " AND " + NotePad.Notes._ID + " NOT IN (SELECT docid FROM "
+                + NoteSchema.FTS + " WHERE docid > ? AND docid <= ?)";
+        db.execSQL("INSERT INTO " + NoteSchema.FTS + " (docid, "
+                + NotePad.Notes.COLUMN_NAME_TITLE + ", " + NotePad.Notes.COLUMN_NAME_NOTE
+                + ") SELECT " + NotePad.Notes._ID + ", " + NotePad.Notes.COLUMN_NAME_TITLE + ", "
+                + NotePad.Notes.COLUMN_NAME_NOTE + " FROM " + NotePad.Notes.TABLE_NAME
+                + " WHERE " + unindexed + " AND " + NotePad.Notes.COLUMN_NAME_CHUNK_COUNT
+                + " = 0 AND length(" + NotePad.Notes.COLUMN_NAME_NOTE + ") > "
+                + NotePad.NoteChunks.CHUNK_SIZE,
+                new Object[] { lastId, end, lastId, end });
+
+        NoteDatabase notes = new SQLiteNoteDatabase(db);
+        String[] args = new String[] { Long.toString(lastId), Long.toString(end),
+                Long.toString(lastId), Long.toString(end) };
+        Cursor c = db.rawQuery("SELECT " + NotePad.Notes._ID + " FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + unindexed, args);
+        try {
+            while (c.moveToNext()) {
+                long noteId = c.getLong(0);
+                NoteSql.indexNote(notes, noteId, NoteSql.readWholeNote(notes, noteId));
+            }
+        } finally {
+            c.close();
+        }
+        return end;
+    }
+
+    /**
+     * Replaces the full-text rows of the next batch of notes that continue in chunks with
+     * their whole content.
+     *
+     * @return the id of the last note covered, or -1 if all are
+     */
+    private static long indexLongNotes(SQLiteDatabase db, long lastId) {
+        long end = batchEnd(db, lastId, CHUNKS_BATCH_SIZE);
+        if (end == 0) {
+            return -1;
+        }
+
+        NoteDatabase notes = new SQLiteNoteDatabase(db);
+        Cursor c = db.rawQuery("SELECT " + NotePad.Notes._ID + " FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID + " > ? AND "
+                + NotePad.Notes._ID + " <= ? AND " + NotePad.Notes.COLUMN_NAME_CHUNK_COUNT
+                + " > 0", new String[] { Long.toString(lastId), Long.toString(end) });
+        try {
+            while (c.moveToNext()) {
+                long noteId = c.getLong(0);
+                NoteSql.indexNote(notes, noteId, NoteSql.readWholeNote(notes, noteId));
+            }
+        } finally {
+            c.close();
+        }
+        return end;
+    }
+
+    /**
+     * Moves everything but the first chunk of the next batch of long notes to the chunks
+     * table. A long note is read a piece at a time, as a whole note may not fit in a cursor
+     * window.
+     *
+     * @return the id of the last note covered, or -1 if all are
+     */
+    private static long splitLongNotes(SQLiteDatabase db, long lastId) {
+        long end = batchEnd(db, lastId, CHUNKS_BATCH_SIZE);
+        if (end == 0) {
+            return -1;
+        }
+
+        // A note takes at least as many bytes in UTF-8 as chars in Java, so this finds every
+        // note that may be longer than a chunk
+        Cursor c = db.rawQuery("SELECT " + NotePad.Notes._ID + " FROM "
+                + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID + " > ? AND "
+                + NotePad.Notes._ID + " <= ? AND " + NotePad.Notes.COLUMN_NAME_CHUNK_COUNT
+                + " = 0 AND length(CAST(" + NotePad.Notes.COLUMN_NAME_NOTE + " AS BLOB)) > "
+                + NotePad.NoteChunks.CHUNK_SIZE,
+                new String[] { Long.toString(lastId), Long.toString(end) });
+        try {
+            while (c.moveToNext()) {
+                splitNote(db, c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        return end;
+    }
+
+    private static void splitNote(SQLiteDatabase db, String noteId) {
+        StringBuilder note = new StringBuilder();
+        for (int start = 1; ; start += PIECE_LENGTH) {
+            String piece = DatabaseUtils.stringForQuery(db, "SELECT substr("
+                    + NotePad.Notes.COLUMN_NAME_NOTE + ", ?, " + PIECE_LENGTH + ") FROM "
+                    + NotePad.Notes.TABLE_NAME + " WHERE " + NotePad.Notes._ID + " = ?",
+                    new String[] { Integer.toString(start), noteId });
+            if (piece == null || piece.length() == 0) {
+                break;
+            }
+            note.append(piece);
+        }
+
+        List<String> chunks = NoteSql.split(note.toString());
+        if (chunks.size() > 1) {
+            ContentValues values = new ContentValues();
+            values.put(NotePad.Notes.COLUMN_NAME_NOTE, chunks.get(0));
+            values.put(NotePad.Notes.COLUMN_NAME_CHUNK_COUNT, chunks.size() - 1);
+            db.update(NotePad.Notes.TABLE_NAME, values, NotePad.Notes._ID + " = ?",
+                    new String[] { noteId });
+            NoteSql.writeChunks(new SQLiteNoteDatabase(db), Long.parseLong(noteId), chunks);
+        }
+    }
+}
@@ -32,6 +32,208 @@ public final class NotePad {
     private NotePad() {
     }
 
+    /**
+     * Methods of the provider, called through
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)}
+     * with the {@link Notes#CONTENT_URI}.
+     */
+    public static final class Methods {
+
+        // This class cannot be instantiated
+        private Methods() {}
+
+        /**
+         * Returns the counters of the provider's cache of recently read notes, as longs under
+         * the KEY_CACHE_* keys.
+         */
+        public static final String GET_CACHE_STATS = "getCacheStats";
+
+        /**
+         * The number of single note reads served from the cache
+         */
+        public static final String KEY_CACHE_HITS = "hits";
+
+        /**
+         * The number of single note reads that went to the database
+         */
+        public static final String KEY_CACHE_MISSES = "misses";
+
+        /**
+         * The number of notes dropped to keep the cache within its size
+         */
+        public static final String KEY_CACHE_EVICTIONS = "evictions";
+
+        /**
+         * The number of notes in the cache
+         */
+        public static final String KEY_CACHE_SIZE = "size";
+
+        /**
+         * The estimated number of bytes taken by the notes in the cache
+         */
+        public static final String KEY_CACHE_BYTES = "bytes";
+
+        /**
+         * Returns the counters and latencies of the provider's operations since it started. The
+         * result has a Bundle per operation and type of URI that has been used, under keys such
+         * as "query:notes" or "update:note_id", holding longs under the KEY_COUNT, KEY_ERRORS,
+         * KEY_ROWS, KEY_BYTES and KEY_*_MICROS keys, and the latency histogram under
+         * KEY_HISTOGRAM_BOUNDS and KEY_HISTOGRAM_COUNTS. The change notifications sent are
+         * counted by type of URI in a Bundle under KEY_NOTIFICATIONS. The same stats are
+         * printed by dumpsys.
+         */
+        public static final String GET_STATS = "stats";
+
+        /**
+         * The number of calls of an operation
+         */
+        public static final String KEY_COUNT = "count";
+
+        /**
+         * The number of calls that threw
+         */
+        public static final String KEY_ERRORS = "errors";
+
+        /**
+         * The number of rows returned by queries, or changed by writes
+         */
+        public static final String KEY_ROWS = "rows";
+
+        /**
+         * The number of bytes streamed
+         */
+        public static final String KEY_BYTES = "bytes";
+
+        /**
+         * The median latency, in microseconds
+         */
+        public static final String KEY_P50_MICROS = "p50";
+
+        /**
+         * The 90th percentile of the latency, in microseconds
+         */
+        public static final String KEY_P90_MICROS = "p90";
+
+        /**
+         * The 99th percentile of the latency, in microseconds
+         */
+        public static final String KEY_P99_MICROS = "p99";
+
+        /**
+         * The highest latency, in microseconds
+         */
+        public static final String KEY_MAX_MICROS = "max";
+
+        /**
+         * The upper bounds in microseconds of the buckets of the latency histogram that have
+         * counts, as a long array. Percentiles are known to within 12.5%.
+         */
+        public static final String KEY_HISTOGRAM_BOUNDS = "histogramBounds";
+
+        /**
+         * The counts of the buckets of KEY_HISTOGRAM_BOUNDS, as a long array
+         */
+        public static final String KEY_HISTOGRAM_COUNTS = "histogramCounts";
+
+        /**
+         * The Bundle of the number of change notifications sent, by type of URI
+         */
+        public static final String KEY_NOTIFICATIONS = "notifications";
+
+        /**
+         * Returns the most recent statements the provider ran for a caller's selection or sort
+         * order that were slow, oldest first, as an ArrayList of Bundles under
+         * KEY_SLOW_QUERIES. Each has the KEY_SLOW_* keys and KEY_ROWS. The number of slow
+         * statements since the provider started, including those no longer kept, is a long
+         * under KEY_COUNT. Updates and deletes are logged as the SELECT of the rows they
+         * change. The log is also printed by dumpsys.
+         */
+        public static final String GET_SLOW_QUERIES = "slowQueries";
+
+        /**
+         * The ArrayList of the Bundles of the slow statements
+         */
+        public static final String KEY_SLOW_QUERIES = "queries";
+
+        /**
+         * When a slow statement ran, as a long from System.currentTimeMillis()
+         */
+        public static final String KEY_SLOW_TIME = "time";
+
+        /**
+         * The provider operation that ran a slow statement: "query", "update" or "delete"
+         */
+        public static final String KEY_SLOW_OPERATION = "operation";
+
+        /**
+         * The URI the operation was called on
+         */
+        public static final String KEY_SLOW_URI = "uri";
+
+        /**
+         * The SQL of a slow statement, without its arguments
+         */
+        public static final String KEY_SLOW_SQL = "sql";
+
+        /**
+         * The output of EXPLAIN QUERY PLAN for a slow statement, one step per line
+         */
+        public static final String KEY_SLOW_PLAN = "plan";
+
+        /**
+         * The UID of the caller, as an int
+         */
+        public static final String KEY_SLOW_UID = "uid";
+
+        /**
+         * The name of the package of the caller's UID
+         */
+        public static final String KEY_SLOW_CALLER = "caller";
+
+        /**
+         * How long a slow statement took, in microseconds
+         */
+        public static final String KEY_SLOW_MICROS = "micros";
+
+        /**
+         * Returns the given columns of several notes in one call. The ids of the notes are a
+         * long array under KEY_IDS in the extras, and the columns of {@link Notes} to return are
+         * a String array under KEY_PROJECTION, or all of them if it is missing. At most
+         * GET_MANY_MAX_IDS notes can be asked for at a time.
+         *
+         * The result has the ids of the notes that exist under KEY_IDS, in the order they were
+         * asked for, the columns returned under KEY_PROJECTION, and the values of each column
+         * under the name of the column, in the order of the ids: a long array for _id, the
+         * dates and the chunk count, where a missing value is 0, and a String array for the
+         * others. A result too large for one binder transaction is streamed instead, through
+         * a ParcelFileDescriptor under KEY_STREAM, as newline-delimited JSON with one object
+         * per note whose members are the columns, with the same values. From API 19 the
+         * stream is closed with an error if it couldn't be written whole, which
+         * ParcelFileDescriptor.checkError() reports once it has been read.
+         */
+        public static final String GET_MANY = "getMany";
+
+        /**
+         * The most notes GET_MANY returns at a time
+         */
+        public static final int GET_MANY_MAX_IDS = 500;
+
+        /**
+         * The ids of the notes of GET_MANY, as a long array
+         */
+        public static final String KEY_IDS = "ids";
+
+        /**
+         * The columns returned by GET_MANY, as a String array
+         */
+        public static final String KEY_PROJECTION = "projection";
+
+        /**
+         * The ParcelFileDescriptor a large GET_MANY result is streamed through
+         */
+        public static final String KEY_STREAM = "stream";
+    }
+
     /**
      * Notes table contract
      */
@@ -73,6 +275,11 @@ public final class NotePad {
          */
         public static final int NOTE_ID_PATH_POSITION = 1;
 
+        /**
+         * Path part for the full-text search URI
+         */
+        private static final String PATH_SEARCH = "/notes/search";
+
         /**
          * Path part for the Live Folder URI
          */
@@ -97,6 +304,35 @@ public final class NotePad {
         public static final Uri CONTENT_ID_URI_PATTERN
             = Uri.parse(SCHEME + AUTHORITY + PATH_NOTE_ID + "/#");
 
+        /**
+         * The content:// style URL for full-text searches over note titles and bodies. Callers
+         * must supply the search terms in the {@link #QUERY_PARAMETER_SEARCH} query parameter.
+         * Results are returned most relevant first.
+         */
+        public static final Uri CONTENT_SEARCH_URI
+            = Uri.parse(SCHEME + AUTHORITY + PATH_SEARCH);
+
+        /**
+         * Query parameter of {@link #CONTENT_SEARCH_URI} holding the search terms
+         */
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} capping the number of notes returned
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} that pages through the notes by key. Its value
+         * is the sort key and the id of the last note of the previous page, separated by a
+         * comma, e.g. {@code after=1288891800000,42} for {@link #DEFAULT_SORT_ORDER}, or the
+         * id alone if its sort key is NULL, e.g. {@code after=42}. Only the notes that sort
+         * after that one are returned, in the same order, with ties on the sort key broken by
+         * id, and NULL keys sorting before all others. Supported for {@link #DEFAULT_SORT_ORDER},
+         * {@link #CREATED_SORT_ORDER} and {@link #TITLE_SORT_ORDER}.
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+
         /**
          * The content Uri pattern for a notes listing for live folders
          */
@@ -118,11 +354,34 @@ public final class NotePad {
          */
         public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.google.note";
 
+        /**
+         * The MIME type of an export of all notes as newline-delimited JSON, one object per
+         * note with its title, note, created and modified columns. It can be opened as a stream
+         * from {@link #CONTENT_URI}.
+         */
+        public static final String EXPORT_TYPE_NDJSON = "application/x-ndjson";
+
+        /**
+         * The MIME type of an export of all notes as a zip archive of plain text files, one per
+         * note. It can be opened as a stream from {@link #CONTENT_URI}.
+         */
+        public static final String EXPORT_TYPE_ZIP = "application/zip";
+
         /**
          * The default sort order for this table
          */
         public static final String DEFAULT_SORT_ORDER = "modified DESC";
 
+        /**
+         * Sorts the notes newest first by creation date
+         */
+        public static final String CREATED_SORT_ORDER = "created DESC";
+
+        /**
+         * Sorts the notes alphabetically by title, ignoring case
+         */
+        public static final String TITLE_SORT_ORDER = "title COLLATE NOCASE ASC";
+
         /*
          * Column definitions
          */
@@ -134,11 +393,28 @@ public final class NotePad {
         public static final String COLUMN_NAME_TITLE = "title";
 
         /**
-         * Column name of the note content
+         * Column name of the note content. Notes longer than {@link NoteChunks#CHUNK_SIZE}
+         * characters are stored in chunks: a query on a single note returns the whole content,
+         * but a query on {@link #CONTENT_URI} only returns the first chunk. Use
+         * {@link NoteChunks} to read a long note piece by piece.
          * <P>Type: TEXT</P>
          */
         public static final String COLUMN_NAME_NOTE = "note";
 
+        /**
+         * Column name of the number of chunks the note content continues in, after the first
+         * one. 0 for notes that fit in one chunk. Maintained by the provider.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_CHUNK_COUNT = "chunks";
+
+        /**
+         * Column name of a short preview of the note content: its first characters, computed
+         * by the provider. Read-only, and only available from queries.
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_PREVIEW = "preview";
+
         /**
          * Column name for the creation timestamp
          * <P>Type: INTEGER (long from System.curentTimeMillis())</P>
@@ -151,4 +427,142 @@ public final class NotePad {
          */
         public static final String COLUMN_NAME_MODIFICATION_DATE = "modified";
     }
+
+    /**
+     * Note chunks contract. The content of a long note is split into chunks of at most
+     * {@link #CHUNK_SIZE} characters, numbered from 0. The chunks of a note are read through
+     * the note's URI with {@link #PATH_SEGMENT} appended, e.g.
+     * {@code content://com.google.provider.NotePad/notes/42/chunks?from=3&limit=2}.
+     * Chunks are read-only; they are written by updating the note.
+     */
+    public static final class NoteChunks {
+
+        // This class cannot be instantiated
+        private NoteChunks() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "note_chunks";
+
+        /**
+         * The path segment appended to a note URI to get its chunks
+         */
+        public static final String PATH_SEGMENT = "chunks";
+
+        /**
+         * Query parameter holding the number of the first chunk to return. Defaults to 0.
+         * The number of chunks returned can be capped with
+         * {@link Notes#QUERY_PARAMETER_LIMIT}.
+         */
+        public static final String QUERY_PARAMETER_FROM = "from";
+
+        /**
+         * The MIME type of the chunks of a note.
+         */
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.note.chunk";
+
+        /**
+         * The maximum number of characters in one chunk. It keeps every row well below the
+         * size of a CursorWindow.
+         */
+        public static final int CHUNK_SIZE = 64 * 1024;
+
+        /*
+         * Column definitions
+         */
+
+        /**
+         * Column name of the ID of the note a chunk belongs to
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+        /**
+         * Column name of the position of a chunk in its note, starting at 0
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_SEQ = "seq";
+
+        /**
+         * Column name of the content of a chunk
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_BODY = "body";
+    }
+
+    /**
+     * Note revisions contract. Every save that changes the content of a note is kept as a
+     * revision. The revisions of a note are listed, newest first, through the note's URI with
+     * {@link #PATH_SEGMENT} appended, e.g.
+     * {@code content://com.google.provider.NotePad/notes/42/revisions}, and a single revision
+     * is read with its id appended to that, which returns its content in
+     * {@link #COLUMN_NAME_NOTE}. Revisions are read-only, and are deleted with their note.
+     */
+    public static final class NoteRevisions implements BaseColumns {
+
+        // This class cannot be instantiated
+        private NoteRevisions() {}
+
+        /**
+         * The table name offered by this provider
+         */
+        public static final String TABLE_NAME = "note_revisions";
+
+        /**
+         * The path segment appended to a note URI to get its revisions
+         */
+        public static final String PATH_SEGMENT = "revisions";
+
+        /**
+         * 0-relative position of a revision ID segment in the path part of a revision URI
+         */
+        public static final int REVISION_ID_PATH_POSITION = 3;
+
+        /**
+         * The MIME type of the revisions of a note.
+         */
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/vnd.google.note.revision";
+
+        /**
+         * The MIME type of a single revision.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.google.note.revision";
+
+        /**
+         * The default sort order, newest first
+         */
+        public static final String DEFAULT_SORT_ORDER = "_id DESC";
+
+        /*
+         * Column definitions
+         */
+
+        /**
+         * Column name of the ID of the note a revision belongs to
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_NOTE_ID = "note_id";
+
+        /**
+         * Column name of the time the revision was saved
+         * <P>Type: INTEGER (long from System.curentTimeMillis())</P>
+         */
+        public static final String COLUMN_NAME_CREATE_DATE = "created";
+
+        /**
+         * Column name of the number of characters in the content of the revision
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COLUMN_NAME_LENGTH = "length";
+
+        /**
+         * Column name of the content of the revision. Only returned by queries on a single
+         * revision.
+         * <P>Type: TEXT</P>
+         */
+        public static final String COLUMN_NAME_NOTE = "note";
+    }
 }
@@ -17,35 +17,67 @@
 package com.example.android.notepad;
 
 import com.example.android.notepad.NotePad;
+import com.example.android.notepad.store.NoteCache;
+import com.example.android.notepad.store.NoteDatabase;
+import com.example.android.notepad.store.NoteJson;
+import com.example.android.notepad.store.NoteSchema;
+import com.example.android.notepad.store.NoteSql;
+import com.example.android.notepad.store.QueryCache;
+import com.example.android.notepad.store.RevisionLog;
 
 import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.ContentProvider.PipeDataWriter;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.os.ParcelFileDescriptor;
 import android.provider.LiveFolders;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 
 public class NotePadProvider extends ContentProvider implements PipeDataWriter<Cursor> {
@@ -53,19 +85,64 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     private static final String TAG = "NotePadProvider";
     private static final String DATABASE_NAME = "note_pad.db";
 
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
+
     private static HashMap<String, String> sNotesProjectionMap;
 
+    // The number of pages the write-ahead log grows to before it is checkpointed. Notes are
+    // small and saved often, so the default of 1000 is kept.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // The size in bytes the write-ahead log is truncated to after a checkpoint
+    private static final long WAL_SIZE_LIMIT = 512 * 1024;
+
+    // The number of characters of a note returned in its preview column
+    private static final int PREVIEW_LENGTH = 100;
+
     private static HashMap<String, String> sLiveFolderProjectionMap;
+    private static HashMap<String, String> sRevisionsProjectionMap;
+    // The note columns read to stream a note. The content is streamed from its chunks.
     private static final String[] READ_NOTE_PROJECTION = new String[] {
             NotePad.Notes._ID,               // Projection position 0, the note's id
-            NotePad.Notes.COLUMN_NAME_NOTE,  // Projection position 1, the note's content
-            NotePad.Notes.COLUMN_NAME_TITLE, // Projection position 2, the note's title
+            NotePad.Notes.COLUMN_NAME_TITLE, // Projection position 1, the note's title
             NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
     };
-    private static final int READ_NOTE_NOTE_INDEX = 1;
-    private static final int READ_NOTE_TITLE_INDEX = 2;
-    private static final int READ_NOTE_MODIFICATION_DATE = 3;
+    private static final int READ_NOTE_ID_INDEX = 0;
+    private static final int READ_NOTE_TITLE_INDEX = 1;
+    private static final int READ_NOTE_MODIFICATION_DATE = 2;
+
+    // The size in characters of the buffer each stream is written through
+    private static final int PIPE_BUFFER_SIZE = 8 * 1024;
+
+    // The number of streams written at the same time, and the number that may wait for a
+    // writer. Requests beyond that are refused.
+    private static final int PIPE_WRITER_THREADS = 2;
+    private static final int PIPE_QUEUE_SIZE = 16;
+
+    // The writer threads of all streams, shared by every instance of the provider
+    private static final ThreadPoolExecutor sPipeExecutor = new ThreadPoolExecutor(
+            PIPE_WRITER_THREADS, PIPE_WRITER_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(PIPE_QUEUE_SIZE));
+
+    static {
+        sPipeExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // The note columns read to export all notes, in pages of EXPORT_PAGE_SIZE notes
+    private static final String[] EXPORT_PROJECTION = new String[] {
+            NotePad.Notes._ID,
+            NotePad.Notes.COLUMN_NAME_TITLE,
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE,
+            NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE
+    };
+    private static final int EXPORT_ID_INDEX = 0;
+    private static final int EXPORT_TITLE_INDEX = 1;
+    private static final int EXPORT_CREATE_DATE_INDEX = 2;
+    private static final int EXPORT_MODIFICATION_DATE_INDEX = 3;
+    private static final String EXPORT_PAGE_SIZE = "256";
+
+    // The number of title characters kept in the name of a zip entry
+    private static final int EXPORT_ENTRY_TITLE_LENGTH = 40;
 
     private static final int NOTES = 1;
 
@@ -73,17 +150,110 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
 
     private static final int LIVE_FOLDER_NOTES = 3;
 
+    private static final int SEARCH = 4;
+
+    private static final int CHUNKS = 5;
+
+    private static final int REVISIONS = 6;
+
+    private static final int REVISION_ID = 7;
+
+    // The names of the types of URI in the provider's stats, by the codes above. Unknown URIs
+    // are counted as type 0.
+    private static final String[] URI_TYPE_NAMES = new String[] {
+            "unknown", "notes", "note_id", "live_folder_notes", "search", "chunks", "revisions",
+            "revision_id",
+    };
+
+    // The columns of a single revision returned when the caller doesn't pick any
+    private static final String[] REVISION_PROJECTION = new String[] {
+            NotePad.NoteRevisions._ID,
+            NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID,
+            NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+            NotePad.NoteRevisions.COLUMN_NAME_LENGTH,
+            NotePad.NoteRevisions.COLUMN_NAME_NOTE,
+    };
+
     private static final UriMatcher sUriMatcher;
 
+    // The sort orders the NOTES URI can be paged through by key, by the sort order clients pass
+    private static final HashMap<String, KeysetOrder> sKeysetOrders;
+
     // Handle to a new DatabaseHelper.
     private DatabaseHelper mOpenHelper;
 
+    // Selects a single note by the id bound as its argument. Binding the id keeps the SQL the
+    // same for every note, so SQLite's statement cache is hit.
+    private static final String NOTE_ID_WHERE = NotePad.Notes._ID + " = ?";
+
+    // Builds the SQL of single note queries. It is only read after the static initializer.
+    private static final SQLiteQueryBuilder sNoteQueryBuilder;
+
+    // The number of projections whose single note query SQL is kept
+    private static final int NOTE_QUERY_CACHE_SIZE = 16;
+
+    // The SQL of single note queries, by projection, least recently used first
+    private final LinkedHashMap<List<String>, String> mNoteQueries =
+            new LinkedHashMap<List<String>, String>(NOTE_QUERY_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, String> eldest) {
+                    return size() > NOTE_QUERY_CACHE_SIZE;
+                }
+            };
+
+    // The most bytes taken by the notes in mNoteCache
+    private static final int NOTE_CACHE_BYTES = 2 * 1024 * 1024;
+
+    // The recently read notes. Writes through this provider invalidate it.
+    private final NoteCache mNoteCache = new NoteCache(NOTE_CACHE_BYTES);
+
+    // The most bytes taken by the results in mQueryCache, and the most rows of a cached result
+    private static final int QUERY_CACHE_BYTES = 1024 * 1024;
+    private static final int QUERY_CACHE_ROWS = 500;
+
+    // The estimated size in bytes up to which a GET_MANY result is returned in the reply. The
+    // binder buffer of a process is 1MB, shared by all of its transactions, so larger results
+    // are streamed.
+    private static final int GET_MANY_REPLY_BYTES = 256 * 1024;
+
+    // The recent results of list and live folder queries
+    private final QueryCache mQueryCache = new QueryCache(QUERY_CACHE_BYTES, QUERY_CACHE_ROWS);
+
+    // Bumped after every write, which makes every result in mQueryCache stale
+    private final AtomicInteger mWriteGeneration = new AtomicInteger();
+
+    // Deletes the note whose id is bound, compiled on first use. Guarded by this.
+    private SQLiteStatement mDeleteNoteStatement;
+
+    // The counters and latencies of the operations, by type of URI
+    private final ProviderStats mStats = new ProviderStats(URI_TYPE_NAMES);
+
+    // The number of slow statements kept, and the time in milliseconds that makes a statement
+    // slow: long enough to drop frames of the UI waiting on it
+    private static final int SLOW_QUERY_LOG_SIZE = 32;
+    private static final long SLOW_QUERY_MILLIS = 50;
+
+    // The recent slow statements run for callers' selections and sort orders
+    private final SlowQueryLog mSlowQueries = new SlowQueryLog(SLOW_QUERY_LOG_SIZE,
+            SLOW_QUERY_MILLIS);
+
+    // Set while a batch runs on the calling thread. Per-row change notifications are held back
+    // and a single one is sent once the batch commits.
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+
     static {
         sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
         // Add a pattern that routes URIs terminated with "notes" to a NOTES operation
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes", NOTES);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/search", SEARCH);
         sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#", NOTE_ID);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/" + NotePad.NoteChunks.PATH_SEGMENT,
+                CHUNKS);
+        sUriMatcher.addURI(NotePad.AUTHORITY, "notes/#/" + NotePad.NoteRevisions.PATH_SEGMENT,
+                REVISIONS);
+        sUriMatcher.addURI(NotePad.AUTHORITY,
+                "notes/#/" + NotePad.NoteRevisions.PATH_SEGMENT + "/#", REVISION_ID);
         sUriMatcher.addURI(NotePad.AUTHORITY, "live_folders/notes", LIVE_FOLDER_NOTES);
         sNotesProjectionMap = new HashMap<String, String>();
         sNotesProjectionMap.put(NotePad.Notes._ID, NotePad.Notes._ID);
@@ -93,6 +263,11 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
 
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_NOTE, NotePad.Notes.COLUMN_NAME_NOTE);
 
+        // Maps "preview" to the first characters of the note, so lists don't copy whole notes
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_PREVIEW,
+                "substr(" + NotePad.Notes.COLUMN_NAME_NOTE + ", 1, " + PREVIEW_LENGTH + ") AS "
+                + NotePad.Notes.COLUMN_NAME_PREVIEW);
+
         sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE,
                 NotePad.Notes.COLUMN_NAME_CREATE_DATE);
 
@@ -101,6 +276,31 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE,
                 NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
 
+        sNotesProjectionMap.put(NotePad.Notes.COLUMN_NAME_CHUNK_COUNT,
+                NotePad.Notes.COLUMN_NAME_CHUNK_COUNT);
+
+        sNoteQueryBuilder = new SQLiteQueryBuilder();
+        sNoteQueryBuilder.setTables(NotePad.Notes.TABLE_NAME);
+        sNoteQueryBuilder.setProjectionMap(sNotesProjectionMap);
+
+        sKeysetOrders = new HashMap<String, KeysetOrder>();
+        sKeysetOrders.put(NotePad.Notes.DEFAULT_SORT_ORDER,
+                new KeysetOrder(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE, true));
+        sKeysetOrders.put(NotePad.Notes.CREATED_SORT_ORDER,
+                new KeysetOrder(NotePad.Notes.COLUMN_NAME_CREATE_DATE, true));
+        sKeysetOrders.put(NotePad.Notes.TITLE_SORT_ORDER,
+                new KeysetOrder(NotePad.Notes.COLUMN_NAME_TITLE + " COLLATE NOCASE", false));
+
+        // Lists the revisions without their content, which only single revision queries return
+        sRevisionsProjectionMap = new HashMap<String, String>();
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions._ID, NotePad.NoteRevisions._ID);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID,
+                NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE);
+        sRevisionsProjectionMap.put(NotePad.NoteRevisions.COLUMN_NAME_LENGTH,
+                NotePad.NoteRevisions.COLUMN_NAME_LENGTH);
+
         sLiveFolderProjectionMap = new HashMap<String, String>();
 
         sLiveFolderProjectionMap.put(LiveFolders._ID, NotePad.Notes._ID + " AS " + LiveFolders._ID);
@@ -109,6 +309,51 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             LiveFolders.NAME);
     }
 
+    /**
+     * A sort order that can be paged through by key: rows are ordered by one column, and ties
+     * are broken by note id in the same direction, so every row has a unique position. Each
+     * order is backed by an index on (column, _id), see {@link NoteSchema#createIndexes}.
+     */
+    private static final class KeysetOrder {
+        // The ORDER BY clause with the id tie breaker
+        final String orderBy;
+
+        // Selects the rows after the one whose sort key and id are bound as the arguments
+        // (key, key, id). The leading inclusive bound lets SQLite seek in the index. NULL
+        // keys sort first, so in a descending order they come after every other key.
+        final String after;
+
+        // Selects the rows after the one whose sort key is NULL and whose id is bound as the
+        // argument
+        final String afterNull;
+
+        KeysetOrder(String column, boolean descending) {
+            String direction = descending ? " DESC" : " ASC";
+            String bound = descending ? " <= ?" : " >= ?";
+            String comparison = descending ? " < ?" : " > ?";
+            orderBy = column + direction + ", " + NotePad.Notes._ID + direction;
+            String keyed = "(" + column + bound + " AND (" + column + comparison + " OR "
+                    + NotePad.Notes._ID + comparison + "))";
+            if (descending) {
+                after = "(" + keyed + " OR " + column + " IS NULL)";
+                afterNull = "(" + column + " IS NULL AND " + NotePad.Notes._ID + " < ?)";
+            } else {
+                after = keyed;
+                afterNull = "(" + column + " IS NOT NULL OR " + NotePad.Notes._ID + " > ?)";
+            }
+        }
+    }
+
+    /**
+     * Thrown by a pipe writer that failed to write the whole stream, so the pipe is closed
+     * with an error rather than looking like a complete stream to the reader.
+     */
+    private static final class PipeWriteException extends RuntimeException {
+        PipeWriteException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
    static class DatabaseHelper extends SQLiteOpenHelper {
 
        DatabaseHelper(Context context) {
@@ -117,26 +362,71 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
            super(context, DATABASE_NAME, null, DATABASE_VERSION);
        }
 
+       /**
+        * Switches the database to write-ahead logging, so the list, the live folder and other
+        * apps keep reading while a note is being saved. With WAL enabled, the framework also
+        * opens a pool of connections, so several readers run at once.
+        */
+       @Override
+       public void onOpen(SQLiteDatabase db) {
+           super.onOpen(db);
+           if (db.isReadOnly() || !db.enableWriteAheadLogging()) {
+               return;
+           }
+
+           // In WAL mode a commit is durable once the log is synced at a checkpoint, which
+           // is safe against corruption and skips an fsync on every save.
+           db.execSQL("PRAGMA synchronous=NORMAL");
+
+           // Checkpoints after WAL_AUTOCHECKPOINT_PAGES pages, and truncates the log back to
+           // WAL_SIZE_LIMIT after that
+           queryPragma(db, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+           queryPragma(db, "journal_size_limit=" + WAL_SIZE_LIMIT);
+       }
+
+       // Runs a pragma that returns a row, which execSQL refuses to do on newer platforms
+       private static void queryPragma(SQLiteDatabase db, String pragma) {
+           Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+           try {
+               c.moveToFirst();
+           } finally {
+               c.close();
+           }
+       }
+
+       /**
+        * Creates the tables of {@link NoteSchema}, which JdbcNoteStore creates the same way.
+        */
        @Override
        public void onCreate(SQLiteDatabase db) {
-           db.execSQL("CREATE TABLE " + NotePad.Notes.TABLE_NAME + " ("
-                   + NotePad.Notes._ID + " INTEGER PRIMARY KEY,"
-                   + NotePad.Notes.COLUMN_NAME_TITLE + " TEXT,"
-                   + NotePad.Notes.COLUMN_NAME_NOTE + " TEXT,"
-                   + NotePad.Notes.COLUMN_NAME_CREATE_DATE + " INTEGER,"
-                   + NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE + " INTEGER"
-                   + ");");
+           NoteSchema.create(new SQLiteNoteDatabase(db));
+           NoteMigrations.createProgressTable(db);
+
+           // Gives the query planner statistics to choose the indexes with
+           db.execSQL("ANALYZE");
        }
 
+       /**
+        * Applies the schema steps of {@link NoteMigrations}, which keep the notes. Only a
+        * database too old for those is recreated.
+        */
        @Override
        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 
+           if (NoteMigrations.upgrade(db, oldVersion, newVersion)) {
+               return;
+           }
+
            // Logs that the database is being upgraded
            Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                    + newVersion + ", which will destroy all old data");
 
            // Kills the table and existing data
            db.execSQL("DROP TABLE IF EXISTS notes");
+           db.execSQL("DROP TABLE IF EXISTS " + NoteSchema.FTS);
+           db.execSQL("DROP TABLE IF EXISTS " + NotePad.NoteChunks.TABLE_NAME);
+           RevisionLog.dropTable(new SQLiteNoteDatabase(db));
+           NoteMigrations.dropProgressTable(db);
 
            // Recreates the database with a new version
            onCreate(db);
@@ -148,6 +438,15 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
 
        mOpenHelper = new DatabaseHelper(getContext());
 
+       // Opens the database in the background, and finishes the data part of any upgrade
+       NoteMigrations.startBackfills(mOpenHelper, new Runnable() {
+           @Override
+           public void run() {
+               mNoteCache.clear();
+               notifyChange(NotePad.Notes.CONTENT_URI);
+           }
+       });
+
        // Assumes that any failures will be reported by a thrown exception.
        return true;
    }
@@ -155,29 +454,154 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
    @Override
    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
            String sortOrder) {
+       return query(uri, projection, selection, selectionArgs, sortOrder, null);
+   }
+
+   /**
+    * Queries like the method without a signal, except that the list and search queries stop
+    * as soon as the signal is cancelled, e.g. when the search typed in the list is superseded
+    * by a longer one. They throw an OperationCanceledException then.
+    */
+   @Override
+   public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+           String sortOrder, CancellationSignal cancellationSignal) {
+       long start = System.nanoTime();
+       Cursor c = null;
+       try {
+           c = queryInternal(uri, projection, selection, selectionArgs, sortOrder,
+                   cancellationSignal);
+           return c;
+       } finally {
+           // Counting the rows runs the query, so the latency is that of the whole query. A
+           // cancelled query isn't an error.
+           mStats.record(ProviderStats.QUERY, uriType(uri), start, c != null ? c.getCount()
+                   : (cancellationSignal != null && cancellationSignal.isCanceled() ? 0 : -1));
+       }
+   }
+
+   private Cursor queryInternal(Uri uri, String[] projection, String selection,
+           String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+
+       int match = sUriMatcher.match(uri);
+       if (match == CHUNKS) {
+           return queryChunks(uri);
+       } else if (match == REVISION_ID) {
+           return queryRevision(uri, projection);
+       } else if (match == NOTE_ID && selection == null) {
+           return queryNote(uri, projection);
+       }
+
+       // The list and the live folder repeat the same queries on every change notification.
+       // Their results are served from mQueryCache until the next write.
+       String cacheKey = null;
+       int generation = 0;
+       if (match == NOTES || match == LIVE_FOLDER_NOTES) {
+           cacheKey = QueryCache.key(uri.toString(), projection, selection, selectionArgs,
+                   sortOrder);
+           generation = mWriteGeneration.get();
+           Cursor cached = SnapshotCursor.get(mQueryCache, cacheKey, generation);
+           if (cached != null) {
+               cached.setNotificationUri(getContext().getContentResolver(), uri);
+               return cached;
+           }
+       }
 
        // Constructs a new query builder and sets its table name
        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
        qb.setTables(NotePad.Notes.TABLE_NAME);
 
-       switch (sUriMatcher.match(uri)) {
+       // The URI that observers of the returned cursor are notified on
+       Uri notificationUri = uri;
+
+       // The sort order used when the caller doesn't supply one
+       String defaultOrderBy = NotePad.Notes.DEFAULT_SORT_ORDER;
+
+       // The maximum number of rows to return, or null for all of them
+       String limit = null;
+
+       switch (match) {
            // If the incoming URI is for notes, chooses the Notes projection
            case NOTES:
                qb.setProjectionMap(sNotesProjectionMap);
+               limit = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT);
+               if (limit != null) {
+                   // Fails with a NumberFormatException if the limit isn't a number
+                   Integer.parseInt(limit);
+               }
+
+               String after = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_AFTER);
+               if (limit != null || after != null) {
+                   // Pages must come in a stable order, so the id breaks ties
+                   KeysetOrder keyset = sKeysetOrders.get(
+                           TextUtils.isEmpty(sortOrder) ? defaultOrderBy : sortOrder);
+                   if (keyset != null) {
+                       sortOrder = keyset.orderBy;
+                   }
+
+                   if (after != null) {
+                       if (keyset == null) {
+                           throw new IllegalArgumentException(
+                                   "Cannot page by key in sort order " + sortOrder);
+                       }
+                       // A key without a comma is the id of a note whose sort key is NULL
+                       int split = after.lastIndexOf(',');
+                       if (split < 0) {
+                           qb.appendWhere(keyset.afterNull);
+                           selectionArgs = prependArgs(new String[] { after }, selectionArgs);
+                       } else {
+                           String key = after.substring(0, split);
+                           qb.appendWhere(keyset.after);
+                           selectionArgs = prependArgs(
+                                   new String[] { key, key, after.substring(split + 1) },
+                                   selectionArgs);
+                       }
+                   }
+               }
                break;
 
            case NOTE_ID:
                qb.setProjectionMap(sNotesProjectionMap);
-               qb.appendWhere(
-                   NotePad.Notes._ID +
-                   "=" +
-                   uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+               qb.appendWhere(NOTE_ID_WHERE);
+               selectionArgs = prependArgs(
+                       new String[] { uri.getPathSegments().get(
+                               NotePad.Notes.NOTE_ID_PATH_POSITION) },
+                       selectionArgs);
                break;
 
            case LIVE_FOLDER_NOTES:
                qb.setProjectionMap(sLiveFolderProjectionMap);
                break;
 
+           case SEARCH:
+               qb.setProjectionMap(sNotesProjectionMap);
+               String search = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH);
+               String searchTables = NoteSql.searchTables(search);
+               if (searchTables == null) {
+                   // Nothing to search for, so nothing matches
+                   qb.appendWhere("0");
+               } else {
+                   qb.setTables(searchTables);
+                   selectionArgs = prependArgs(NoteSql.searchArgs(search), selectionArgs);
+                   defaultOrderBy = NoteSql.SEARCH_SORT_ORDER;
+               }
+
+               // Any change to any note can change the search results
+               notificationUri = NotePad.Notes.CONTENT_URI;
+               break;
+
+           case REVISIONS:
+               String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+               qb.setTables(NotePad.NoteRevisions.TABLE_NAME);
+               qb.setProjectionMap(sRevisionsProjectionMap);
+               qb.appendWhere(NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID + " = ?");
+               selectionArgs = prependArgs(new String[] { noteId }, selectionArgs);
+               defaultOrderBy = NotePad.NoteRevisions.DEFAULT_SORT_ORDER;
+
+               // Every save of the note adds a revision
+               notificationUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                       Long.parseLong(noteId));
+               break;
+
            default:
                // If the URI doesn't match any of the known patterns, throw an exception.
                throw new IllegalArgumentException("Unknown URI " + uri);
@@ -187,43 +611,325 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
        String orderBy;
        // If no sort order is specified, uses the default
        if (TextUtils.isEmpty(sortOrder)) {
-           orderBy = NotePad.Notes.DEFAULT_SORT_ORDER;
+           orderBy = defaultOrderBy;
        } else {
            // otherwise, uses the incoming sort order
            orderBy = sortOrder;
        }
        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
 
-       Cursor c = qb.query(
-           db,            // The database to query
-           projection,    // The columns to return from the query
-           selection,     // The columns for the where clause
-           selectionArgs, // The values for the where clause
-           null,          // don't group the rows
-           null,          // don't filter by row groups
-           orderBy        // The sort order
-       );
+       long start = System.nanoTime();
+       Cursor c;
+       if (cancellationSignal != null) {
+           // Only passed on API 16 and later, where SQLite checks it as it steps
+           c = qb.query(db, projection, selection, selectionArgs, null, null, orderBy, limit,
+                   cancellationSignal);
+       } else {
+           c = qb.query(
+               db,            // The database to query
+               projection,    // The columns to return from the query
+               selection,     // The columns for the where clause
+               selectionArgs, // The values for the where clause
+               null,          // don't group the rows
+               null,          // don't filter by row groups
+               orderBy,       // The sort order
+               limit          // The maximum number of rows, if any
+           );
+       }
+
+       // Counting the rows runs the query, which the caller would do next anyway
+       int rows = c.getCount();
+       if (mSlowQueries.isSlow(start)) {
+           mSlowQueries.add(db, "query", uri,
+                   qb.buildQuery(projection, selection, null, null, orderBy, limit),
+                   selectionArgs, rows, start);
+       }
+
+       if (match == NOTE_ID) {
+           c = withWholeNote(db, c,
+                   uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION));
+       } else if (cacheKey != null) {
+           c = SnapshotCursor.put(mQueryCache, cacheKey, generation, c);
+       }
 
+       c.setNotificationUri(getContext().getContentResolver(), notificationUri);
+       return c;
+   }
+
+   /**
+    * Returns a single note. This is the path of the editor and of most other readers, so it
+    * skips the query builder, and runs SQL that is cached by projection and only binds the id.
+    * Reads of the note content are served from mNoteCache, which then also serves any other
+    * projection of the same note.
+    */
+   private Cursor queryNote(Uri uri, String[] projection) {
+       String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+       long id = Long.parseLong(noteId);
+
+       NoteCache.Row row = mNoteCache.get(id);
+       if (row == null && readsContent(projection)) {
+           row = loadNote(noteId, id);
+       }
+       Cursor c = row != null ? toCursor(row, projection) : null;
+       if (c == null) {
+           SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+           c = withWholeNote(db, db.rawQuery(getNoteQuery(projection), new String[] { noteId }),
+                   noteId);
+       }
        c.setNotificationUri(getContext().getContentResolver(), uri);
        return c;
    }
 
+   /**
+    * Returns a cursor over the given columns of a cached note, or null if it doesn't have one
+    * of them.
+    */
+   private static Cursor toCursor(NoteCache.Row row, String[] projection) {
+       Object[] projected = row.project(projection);
+       if (projected == null) {
+           return null;
+       }
+       MatrixCursor c = new MatrixCursor(projection != null ? projection : row.columns, 1);
+       c.addRow(projected);
+       return c;
+   }
+
+   private static boolean readsContent(String[] projection) {
+       return projection == null
+               || Arrays.asList(projection).contains(NotePad.Notes.COLUMN_NAME_NOTE);
+   }
+
+   /**
+    * Reads every column of a note into mNoteCache, and returns it. Returns null if there is no
+    * such note.
+    */
+   private NoteCache.Row loadNote(String noteId, long id) {
+       int generation = mNoteCache.getGeneration();
+       SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+       Cursor c = withWholeNote(db, db.rawQuery(getNoteQuery(null), new String[] { noteId }),
+               noteId);
+       try {
+           if (!c.moveToFirst()) {
+               return null;
+           }
+           Object[] values = new Object[c.getColumnCount()];
+           for (int i = 0; i < values.length; i++) {
+               values[i] = getValue(c, i);
+           }
+           NoteCache.Row row = new NoteCache.Row(c.getColumnNames(), values);
+           mNoteCache.put(id, row, generation);
+           return row;
+       } finally {
+           c.close();
+       }
+   }
+
+   /**
+    * Returns the SQL that selects the given columns of the note whose id is bound.
+    */
+   private String getNoteQuery(String[] projection) {
+       List<String> key = projection == null
+               ? Collections.<String>emptyList() : Arrays.asList(projection);
+       synchronized (mNoteQueries) {
+           String sql = mNoteQueries.get(key);
+           if (sql == null) {
+               // Fails with an IllegalArgumentException if a column isn't in the projection map
+               sql = sNoteQueryBuilder.buildQuery(projection, NOTE_ID_WHERE, null, null, null,
+                       null);
+               mNoteQueries.put(key, sql);
+           }
+           return sql;
+       }
+   }
+
+   /**
+    * Returns a single revision of a note. Its content is rebuilt by {@link RevisionLog},
+    * and only if the projection asks for it.
+    */
+   private Cursor queryRevision(Uri uri, String[] projection) {
+       List<String> segments = uri.getPathSegments();
+       String noteId = segments.get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+       String revisionId = segments.get(NotePad.NoteRevisions.REVISION_ID_PATH_POSITION);
+       if (projection == null) {
+           projection = REVISION_PROJECTION;
+       }
+
+       SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+       MatrixCursor c = new MatrixCursor(projection, 1);
+       Cursor revision = db.query(NotePad.NoteRevisions.TABLE_NAME,
+               new String[] {
+                       NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE,
+                       NotePad.NoteRevisions.COLUMN_NAME_LENGTH },
+               NotePad.NoteRevisions._ID + " = ? AND "
+                       + NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID + " = ?",
+               new String[] { revisionId, noteId }, null, null, null);
+       try {
+           if (revision.moveToFirst()) {
+               Object[] row = new Object[projection.length];
+               for (int i = 0; i < projection.length; i++) {
+                   String column = projection[i];
+                   if (NotePad.NoteRevisions._ID.equals(column)) {
+                       row[i] = Long.parseLong(revisionId);
+                   } else if (NotePad.NoteRevisions.COLUMN_NAME_NOTE_ID.equals(column)) {
+                       row[i] = Long.parseLong(noteId);
+                   } else if (NotePad.NoteRevisions.COLUMN_NAME_CREATE_DATE.equals(column)) {
+                       row[i] = revision.getLong(0);
+                   } else if (NotePad.NoteRevisions.COLUMN_NAME_LENGTH.equals(column)) {
+                       row[i] = revision.getLong(1);
+                   } else if (NotePad.NoteRevisions.COLUMN_NAME_NOTE.equals(column)) {
+                       row[i] = RevisionLog.read(new SQLiteNoteDatabase(db),
+                               Long.parseLong(noteId), Long.parseLong(revisionId));
+                   } else {
+                       throw new IllegalArgumentException("Invalid column " + column);
+                   }
+               }
+               c.addRow(row);
+           }
+       } finally {
+           revision.close();
+       }
+
+       c.setNotificationUri(getContext().getContentResolver(),
+               ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                       Long.parseLong(noteId)));
+       return c;
+   }
+
+   /**
+    * Returns the chunks of a note, from the one numbered by the "from" query parameter.
+    */
+   private Cursor queryChunks(Uri uri) {
+       String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+       String from = uri.getQueryParameter(NotePad.NoteChunks.QUERY_PARAMETER_FROM);
+       String limit = uri.getQueryParameter(NotePad.Notes.QUERY_PARAMETER_LIMIT);
+
+       // Both fail with a NumberFormatException if they aren't numbers. A negative limit
+       // means no limit.
+       Cursor c = queryChunks(noteId,
+               from == null ? 0 : Integer.parseInt(from),
+               limit == null ? -1 : Integer.parseInt(limit));
+       c.setNotificationUri(getContext().getContentResolver(),
+               ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE,
+                       Long.parseLong(noteId)));
+       return c;
+   }
+
+   /**
+    * Returns the (seq, body) rows of up to limit chunks of a note, from the chunk numbered from.
+    */
+   private Cursor queryChunks(String noteId, int from, int limit) {
+       SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+       return db.rawQuery(NoteSql.CHUNKS_QUERY, new String[] {
+               noteId, noteId, Integer.toString(from), Integer.toString(limit) });
+   }
+
+   /**
+    * If the note column of the single note in c only holds the first chunk of a longer note,
+    * returns a copy of the row with the whole note. Otherwise returns c.
+    */
+   private static Cursor withWholeNote(SQLiteDatabase db, Cursor c, String noteId) {
+       int noteColumn = c.getColumnIndex(NotePad.Notes.COLUMN_NAME_NOTE);
+       if (noteColumn < 0 || !c.moveToFirst()) {
+           return c;
+       }
+
+       // The chunk count is read from the row if it was asked for, and looked up otherwise
+       int chunkColumn = c.getColumnIndex(NotePad.Notes.COLUMN_NAME_CHUNK_COUNT);
+       long chunkCount = chunkColumn >= 0 ? c.getLong(chunkColumn)
+               : DatabaseUtils.longForQuery(db, "SELECT "
+                       + NotePad.Notes.COLUMN_NAME_CHUNK_COUNT + " FROM "
+                       + NotePad.Notes.TABLE_NAME + " WHERE " + NOTE_ID_WHERE,
+                       new String[] { noteId });
+       if (chunkCount == 0) {
+           c.moveToPosition(-1);
+           return c;
+       }
+
+       String note = NoteSql.readWholeNote(new SQLiteNoteDatabase(db), Long.parseLong(noteId));
+       Object[] row = new Object[c.getColumnCount()];
+       for (int i = 0; i < row.length; i++) {
+           row[i] = i == noteColumn ? note : getValue(c, i);
+       }
+       MatrixCursor whole = new MatrixCursor(c.getColumnNames(), 1);
+       whole.addRow(row);
+       c.close();
+       return whole;
+   }
+
+   static Object getValue(Cursor c, int column) {
+       switch (c.getType(column)) {
+           case Cursor.FIELD_TYPE_NULL:
+               return null;
+           case Cursor.FIELD_TYPE_INTEGER:
+               return c.getLong(column);
+           case Cursor.FIELD_TYPE_FLOAT:
+               return c.getDouble(column);
+           case Cursor.FIELD_TYPE_BLOB:
+               return c.getBlob(column);
+           default:
+               return c.getString(column);
+       }
+   }
+
+   /**
+    * Returns the columns of values, for {@link NoteSql}. The values are returned in the same
+    * order by {@link #valuesOf}.
+    */
+   private static String[] columnsOf(ContentValues values) {
+       String[] columns = new String[values.size()];
+       int i = 0;
+       for (Map.Entry<String, Object> entry : values.valueSet()) {
+           columns[i++] = entry.getKey();
+       }
+       return columns;
+   }
+
+   private static Object[] valuesOf(ContentValues values) {
+       Object[] result = new Object[values.size()];
+       int i = 0;
+       for (Map.Entry<String, Object> entry : values.valueSet()) {
+           result[i++] = entry.getValue();
+       }
+       return result;
+   }
+
+   private static String[] prependArgs(String[] first, String[] args) {
+       if (args == null) {
+           return first;
+       }
+       String[] result = new String[first.length + args.length];
+       System.arraycopy(first, 0, result, 0, first.length);
+       System.arraycopy(args, 0, result, first.length, args.length);
+       return result;
+   }
+
    @Override
    public String getType(Uri uri) {
 
        switch (sUriMatcher.match(uri)) {
            case NOTES:
            case LIVE_FOLDER_NOTES:
+           case SEARCH:
                return NotePad.Notes.CONTENT_TYPE;
            case NOTE_ID:
                return NotePad.Notes.CONTENT_ITEM_TYPE;
+           case CHUNKS:
+               return NotePad.NoteChunks.CONTENT_TYPE;
+           case REVISIONS:
+               return NotePad.NoteRevisions.CONTENT_TYPE;
+           case REVISION_ID:
+               return NotePad.NoteRevisions.CONTENT_ITEM_TYPE;
            default:
                throw new IllegalArgumentException("Unknown URI " + uri);
        }
     }
 
     static ClipDescription NOTE_STREAM_TYPES = new ClipDescription(null,
-            new String[] { ClipDescription.MIMETYPE_TEXT_PLAIN });
+            NoteFormat.MIME_TYPES);
+
+    static ClipDescription EXPORT_STREAM_TYPES = new ClipDescription(null,
+            new String[] { NotePad.Notes.EXPORT_TYPE_NDJSON, NotePad.Notes.EXPORT_TYPE_ZIP });
+
     @Override
     public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
         /**
@@ -231,7 +937,12 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
          */
         switch (sUriMatcher.match(uri)) {
             case NOTES:
+                return EXPORT_STREAM_TYPES.filterMimeTypes(mimeTypeFilter);
             case LIVE_FOLDER_NOTES:
+            case SEARCH:
+            case CHUNKS:
+            case REVISIONS:
+            case REVISION_ID:
                 return null;
             case NOTE_ID:
                 return NOTE_STREAM_TYPES.filterMimeTypes(mimeTypeFilter);
@@ -247,17 +958,36 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
     @Override
     public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
             throws FileNotFoundException {
+        long start = System.nanoTime();
+        AssetFileDescriptor descriptor = null;
+        try {
+            descriptor = openTypedAssetFileInternal(uri, mimeTypeFilter, opts);
+            return descriptor;
+        } finally {
+            mStats.record(ProviderStats.OPEN_FILE, uriType(uri), start,
+                    descriptor != null ? 1 : -1);
+        }
+    }
+
+    private AssetFileDescriptor openTypedAssetFileInternal(Uri uri, String mimeTypeFilter,
+            Bundle opts) throws FileNotFoundException {
         String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
 
-        if (mimeTypes != null) {
-            Cursor c = query(
+        if (mimeTypes != null && sUriMatcher.match(uri) == NOTES) {
+            // Exports all notes; the writer reads them itself, a page at a time
+            return new AssetFileDescriptor(
+                    openPipe(uri, mimeTypes[0], opts, null, mExportWriter), 0,
+                    AssetFileDescriptor.UNKNOWN_LENGTH);
+        } else if (mimeTypes != null) {
+            Cursor c = queryInternal(
                     uri,                    // The URI of a note
                     READ_NOTE_PROJECTION,   // Gets a projection containing the note's ID, title,
                                             // and contents
                     null,                   // No WHERE clause, get all matching records
                     null,                   // Since there is no WHERE clause, no selection criteria
-                    null                    // Use the default sort order (modification date,
+                    null,                   // Use the default sort order (modification date,
                                             // descending
+                   null                    // The export can't be cancelled
             );
             if (c == null || !c.moveToFirst()) {
 
@@ -269,43 +999,268 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 throw new FileNotFoundException("Unable to query " + uri);
             }
 
-            // Start a new thread that pipes the stream data back to the caller.
-            return new AssetFileDescriptor(
-                    openPipeHelper(uri, mimeTypes[0], opts, c, this), 0,
-                    AssetFileDescriptor.UNKNOWN_LENGTH);
+            // Has a pooled writer thread pipe the stream data back to the caller.
+            try {
+                return new AssetFileDescriptor(
+                        openPipe(uri, mimeTypes[0], opts, c, this), 0,
+                        AssetFileDescriptor.UNKNOWN_LENGTH);
+            } catch (FileNotFoundException e) {
+                c.close();
+                throw e;
+            }
         }
 
         // If the MIME type is not supported, return a read-only handle to the file.
         return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
     }
 
+    // Writes an export of all notes in the requested format
+    private final PipeDataWriter<Void> mExportWriter = new PipeDataWriter<Void>() {
+        @Override
+        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                Bundle opts, Void args) {
+            exportNotes(output, uri, mimeType);
+        }
+    };
+
+    /**
+     * Like {@link #openPipeHelper}, but runs the writer on the shared, bounded pool of pipe
+     * writer threads instead of a new task per stream. Fails if too many streams are waiting.
+     *
+     * On API 19 and later the pipe is reliable: if the writer throws, the reader's
+     * ParcelFileDescriptor.checkError() reports it instead of the stream just ending early.
+     */
+    private <T> ParcelFileDescriptor openPipe(final Uri uri, final String mimeType,
+            final Bundle opts, final T args, final PipeDataWriter<T> func)
+            throws FileNotFoundException {
+        final boolean reliable = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        final ParcelFileDescriptor[] fds;
+        try {
+            fds = reliable
+                    ? ParcelFileDescriptor.createReliablePipe()
+                    : ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Failure making pipe for " + uri);
+        }
+
+        try {
+            sPipeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String error = null;
+                    try {
+                        func.writeDataToPipe(fds[1], uri, mimeType, opts, args);
+                    } catch (RuntimeException e) {
+                        Log.w(TAG, "Failed to write " + uri, e);
+                        error = e.toString();
+                    } finally {
+                        closePipe(fds[1], reliable ? error : null);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            closePipe(fds[0], null);
+            closePipe(fds[1], null);
+            throw new FileNotFoundException("Too many streams open, refusing " + uri);
+        }
+        return fds[0];
+    }
+
+    // Closes an end of a pipe, with the given error if it isn't null. The error needs a
+    // reliable pipe, so API 19.
+    private static void closePipe(ParcelFileDescriptor fd, String error) {
+        try {
+            if (error != null) {
+                fd.closeWithError(error);
+            } else {
+                fd.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failure closing pipe", e);
+        }
+    }
+
+    /**
+     * Streams a note in the format of the given MIME type. The content is read chunk by chunk
+     * and written through a fixed-size buffer, so memory use doesn't grow with the note.
+     */
     @Override
     public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
             Bundle opts, Cursor c) {
-        FileOutputStream fout = new FileOutputStream(output.getFileDescriptor());
-        PrintWriter pw = null;
+        long start = System.nanoTime();
+        boolean streamed = false;
+        ProviderStats.CountingOutputStream counter = new ProviderStats.CountingOutputStream(
+                new FileOutputStream(output.getFileDescriptor()));
+        NoteFormat format = NoteFormat.forMimeType(mimeType);
+        Writer out = null;
+        Cursor chunks = null;
         try {
-            pw = new PrintWriter(new OutputStreamWriter(fout, "UTF-8"));
-            pw.println(c.getString(READ_NOTE_TITLE_INDEX));
-            pw.println("");
-            pw.println(c.getString(READ_NOTE_NOTE_INDEX));
-        } catch (UnsupportedEncodingException e) {
-            Log.w(TAG, "Ooops", e);
+            out = new BufferedWriter(new OutputStreamWriter(counter, "UTF-8"), PIPE_BUFFER_SIZE);
+            String title = c.getString(READ_NOTE_TITLE_INDEX);
+            format.writeHeader(out, title == null ? "" : title);
+
+            chunks = queryChunks(c.getString(READ_NOTE_ID_INDEX), 0, -1);
+            while (chunks.moveToNext()) {
+                String content = chunks.getString(1);
+                if (content != null) {
+                    format.writeContent(out, content);
+                }
+            }
+            format.writeFooter(out);
+            out.flush();
+            streamed = true;
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early
+            throw new PipeWriteException("Failed to stream " + uri, e);
         } finally {
+            mStats.recordBytes(ProviderStats.STREAM, uriType(uri), counter.getCount());
+            mStats.record(ProviderStats.STREAM, uriType(uri), start, streamed ? 1 : -1);
             c.close();
-            if (pw != null) {
-                pw.flush();
+            if (chunks != null) {
+                chunks.close();
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Streams all notes as NDJSON or as a zip of plain text files. The notes are walked forward
+     * by _id a page of titles and dates at a time, and the content of each note is streamed
+     * from its chunks, so at most one note is in memory however many there are.
+     */
+    private void exportNotes(ParcelFileDescriptor output, Uri uri, String mimeType) {
+        long start = System.nanoTime();
+        long exported = -1;
+        ProviderStats.CountingOutputStream counter = new ProviderStats.CountingOutputStream(
+                new FileOutputStream(output.getFileDescriptor()));
+        OutputStream stream = new BufferedOutputStream(counter, PIPE_BUFFER_SIZE);
+        ZipOutputStream zip = null;
+        if (NotePad.Notes.EXPORT_TYPE_ZIP.equals(mimeType)) {
+            zip = new ZipOutputStream(stream);
+            stream = zip;
+        }
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), PIPE_BUFFER_SIZE);
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            long count = 0;
+            String lastId = "0";
+            boolean more = true;
+            while (more) {
+                Cursor page = db.query(NotePad.Notes.TABLE_NAME, EXPORT_PROJECTION,
+                        NotePad.Notes._ID + " > ?", new String[] { lastId },
+                        null, null, NotePad.Notes._ID, EXPORT_PAGE_SIZE);
+                try {
+                    more = page.getCount() > 0;
+                    while (page.moveToNext()) {
+                        lastId = page.getString(EXPORT_ID_INDEX);
+                        exportNote(out, zip, page);
+                        count++;
+                    }
+                } finally {
+                    page.close();
+                }
             }
+            out.flush();
+            exported = count;
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early
+            throw new PipeWriteException("Failed to export " + uri, e);
+        } finally {
             try {
-                fout.close();
+                // Also finishes the zip
+                if (out != null) {
+                    out.close();
+                } else {
+                    stream.close();
+                }
             } catch (IOException e) {
             }
+            mStats.recordBytes(ProviderStats.STREAM, uriType(uri), counter.getCount());
+            mStats.record(ProviderStats.STREAM, uriType(uri), start, exported);
+        }
+    }
+
+    /**
+     * Writes the note at the current position of page, as a zip entry if zip isn't null or as
+     * a line of NDJSON otherwise.
+     */
+    private void exportNote(Writer out, ZipOutputStream zip, Cursor page) throws IOException {
+        String noteId = page.getString(EXPORT_ID_INDEX);
+        String title = page.getString(EXPORT_TITLE_INDEX);
+        long modified = page.getLong(EXPORT_MODIFICATION_DATE_INDEX);
+        if (zip != null) {
+            ZipEntry entry = new ZipEntry(exportEntryName(noteId, title));
+            entry.setTime(modified);
+            zip.putNextEntry(entry);
+            NoteFormat.PLAIN.writeHeader(out, title == null ? "" : title);
+        } else {
+            NoteJson.beginNote(out, title, page.getLong(EXPORT_CREATE_DATE_INDEX), modified);
+        }
+
+        Cursor chunks = queryChunks(noteId, 0, -1);
+        try {
+            while (chunks.moveToNext()) {
+                String content = chunks.getString(1);
+                if (content == null) {
+                    continue;
+                }
+                if (zip != null) {
+                    NoteFormat.PLAIN.writeContent(out, content);
+                } else {
+                    NoteJson.writeEscaped(out, content);
+                }
+            }
+        } finally {
+            chunks.close();
+        }
+
+        if (zip != null) {
+            NoteFormat.PLAIN.writeFooter(out);
+            // The buffered text belongs to this entry
+            out.flush();
+            zip.closeEntry();
+        } else {
+            NoteJson.endNote(out);
         }
     }
+
+    /**
+     * Returns the name of the zip entry of a note: its title, made safe for a file name, and
+     * its id, which keeps the names unique.
+     */
+    private static String exportEntryName(String noteId, String title) {
+        StringBuilder name = new StringBuilder();
+        if (title != null) {
+            int length = Math.min(title.length(), EXPORT_ENTRY_TITLE_LENGTH);
+            for (int i = 0; i < length; i++) {
+                char c = title.charAt(i);
+                name.append(Character.isLetterOrDigit(c) || c == ' ' || c == '-' ? c : '_');
+            }
+        }
+        String trimmed = name.toString().trim();
+        return (trimmed.length() > 0 ? trimmed : "note") + "-" + noteId + ".txt";
+    }
 //END_INCLUDE(stream)
 
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
+        long start = System.nanoTime();
+        Uri noteUri = null;
+        try {
+            noteUri = insertInternal(uri, initialValues);
+            return noteUri;
+        } finally {
+            mStats.record(ProviderStats.INSERT, uriType(uri), start, noteUri != null ? 1 : -1);
+        }
+    }
+
+    private Uri insertInternal(Uri uri, ContentValues initialValues) {
 
         // Validates the incoming URI. Only the full provider URI is allowed for inserts.
         if (sUriMatcher.match(uri) != NOTES) {
@@ -324,9 +1279,37 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             values = new ContentValues();
         }
 
-        // Gets the current system time in milliseconds
-        Long now = Long.valueOf(System.currentTimeMillis());
+        // Gets the current system time in milliseconds, and fills in the missing columns
+        fillDefaults(values, Long.valueOf(System.currentTimeMillis()));
+
+        // Opens the database object in "write" mode.
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        // Performs the insert and returns the ID of the new note. A long note keeps its first
+        // chunk in the notes table and the rest aside, and its content starts its history.
+        long rowId = NoteSql.insert(new SQLiteNoteDatabase(db), columnsOf(values),
+                valuesOf(values), true);
+
+        // If the insert succeeded, the row ID exists.
+        if (rowId > 0) {
+            // Creates a URI with the note ID pattern and the new row ID appended to it.
+            Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, rowId);
+
+            // Notifies observers registered against this provider that the data changed.
+            notifyChange(noteUri);
+            return noteUri;
+        }
+
+        // If the insert didn't succeed, then the rowID is <= 0. Throws an exception.
+        throw new SQLException("Failed to insert row into " + uri);
+    }
 
+    /**
+     * Sets the columns of a new note that values doesn't contain to their defaults.
+     *
+     * @param now the creation and modification date of the note
+     */
+    private static void fillDefaults(ContentValues values, Long now) {
         // If the values map doesn't contain the creation date, sets the value to the current time.
         if (values.containsKey(NotePad.Notes.COLUMN_NAME_CREATE_DATE) == false) {
             values.put(NotePad.Notes.COLUMN_NAME_CREATE_DATE, now);
@@ -348,35 +1331,41 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
         if (values.containsKey(NotePad.Notes.COLUMN_NAME_NOTE) == false) {
             values.put(NotePad.Notes.COLUMN_NAME_NOTE, "");
         }
+    }
 
-        // Opens the database object in "write" mode.
-        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
-
-        // Performs the insert and returns the ID of the new note.
-        long rowId = db.insert(
-            NotePad.Notes.TABLE_NAME,        // The table to insert into.
-            NotePad.Notes.COLUMN_NAME_NOTE,  // A hack, SQLite sets this column value to null
-                                             // if values is empty.
-            values                           // A map of column names, and the values to insert
-                                             // into the columns.
-        );
-
-        // If the insert succeeded, the row ID exists.
-        if (rowId > 0) {
-            // Creates a URI with the note ID pattern and the new row ID appended to it.
-            Uri noteUri = ContentUris.withAppendedId(NotePad.Notes.CONTENT_ID_URI_BASE, rowId);
-
-            // Notifies observers registered against this provider that the data changed.
-            getContext().getContentResolver().notifyChange(noteUri, null);
-            return noteUri;
+    @Override
+    public int delete(Uri uri, String where, String[] whereArgs) {
+        long start = System.nanoTime();
+        int count = -1;
+        try {
+            count = deleteInternal(uri, where, whereArgs);
+            if (where != null && mSlowQueries.isSlow(start)) {
+                logSlowWrite("delete", uri, where, whereArgs, count, start);
+            }
+            return count;
+        } finally {
+            mStats.record(ProviderStats.DELETE, uriType(uri), start, count);
         }
+    }
 
-        // If the insert didn't succeed, then the rowID is <= 0. Throws an exception.
-        throw new SQLException("Failed to insert row into " + uri);
+    /**
+     * Logs a slow update or delete with the caller's where clause, as the SELECT of the rows it
+     * changes. SQLite finds them with the same plan, and the plan of the SELECT can be taken
+     * without binding the new values.
+     */
+    private void logSlowWrite(String operation, Uri uri, String where, String[] whereArgs,
+            int rows, long start) {
+        if (sUriMatcher.match(uri) == NOTE_ID) {
+            where = NOTE_ID_WHERE + " AND (" + where + ")";
+            whereArgs = prependArgs(new String[] {
+                    uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION) }, whereArgs);
+        }
+        mSlowQueries.add(mOpenHelper.getReadableDatabase(), operation, uri,
+                "SELECT " + NotePad.Notes._ID + " FROM " + NotePad.Notes.TABLE_NAME
+                + " WHERE " + where, whereArgs, rows, start);
     }
 
-    @Override
-    public int delete(Uri uri, String where, String[] whereArgs) {
+    private int deleteInternal(Uri uri, String where, String[] whereArgs) {
 
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -395,22 +1384,21 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                     where,                     // The incoming where clause column names
                     whereArgs                  // The incoming where clause values
                 );
+                mNoteCache.clear();
                 break;
             case NOTE_ID:
-                finalWhere =
-                        NotePad.Notes._ID +                              // The ID column name
-                        " = " +                                          // test for equality
-                        uri.getPathSegments().                           // the incoming note ID
-                            get(NotePad.Notes.NOTE_ID_PATH_POSITION)
-                ;
-                if (where != null) {
-                    finalWhere = finalWhere + " AND " + where;
+                String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
+                if (where == null) {
+                    count = deleteNote(db, noteId);
+                } else {
+                    finalWhere = NOTE_ID_WHERE + " AND (" + where + ")";
+                    count = db.delete(
+                        NotePad.Notes.TABLE_NAME,  // The database table name.
+                        finalWhere,                // The final WHERE clause
+                        prependArgs(new String[] { noteId }, whereArgs)
+                    );
                 }
-                count = db.delete(
-                    NotePad.Notes.TABLE_NAME,  // The database table name.
-                    finalWhere,                // The final WHERE clause
-                    whereArgs                  // The incoming where clause values.
-                );
+                mNoteCache.invalidate(Long.parseLong(noteId));
                 break;
 
             // If the incoming pattern is invalid, throws an exception.
@@ -418,13 +1406,28 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Returns the number of rows deleted.
         return count;
     }
     @Override
     public int update(Uri uri, ContentValues values, String where, String[] whereArgs) {
+        long start = System.nanoTime();
+        int count = -1;
+        try {
+            count = updateInternal(uri, values, where, whereArgs);
+            if (where != null && mSlowQueries.isSlow(start)) {
+                logSlowWrite("update", uri, where, whereArgs, count, start);
+            }
+            return count;
+        } finally {
+            mStats.record(ProviderStats.UPDATE, uriType(uri), start, count);
+        }
+    }
+
+    private int updateInternal(Uri uri, ContentValues values, String where,
+            String[] whereArgs) {
 
         // Opens the database object in "write" mode.
         SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -439,45 +1442,376 @@ public class NotePadProvider extends ContentProvider implements PipeDataWriter<C
             case NOTES:
 
                 // Does the update and returns the number of rows updated.
-                count = db.update(
-                    NotePad.Notes.TABLE_NAME, // The database table name.
-                    values,                   // A map of column names and new values to use.
+                count = NoteSql.update(
+                    new SQLiteNoteDatabase(db),
+                    columnsOf(values),        // The column names to set.
+                    valuesOf(values),         // The new values of the columns.
                     where,                    // The where clause column names.
-                    whereArgs                 // The where clause column values to select on.
+                    (Object[]) whereArgs      // The where clause column values to select on.
                 );
+                mNoteCache.clear();
                 break;
 
             case NOTE_ID:
                 // From the incoming URI, get the note ID
                 String noteId = uri.getPathSegments().get(NotePad.Notes.NOTE_ID_PATH_POSITION);
-                finalWhere =
-                        NotePad.Notes._ID +                              // The ID column name
-                        " = " +                                          // test for equality
-                        uri.getPathSegments().                           // the incoming note ID
-                            get(NotePad.Notes.NOTE_ID_PATH_POSITION)
-                ;
-
-                if (where !=null) {
-                    finalWhere = finalWhere + " AND " + where;
+                if (where == null) {
+                    // The editor's save, whose revision is a delta against the old content
+                    count = NoteSql.update(new SQLiteNoteDatabase(db), Long.parseLong(noteId),
+                            columnsOf(values), valuesOf(values));
+                } else {
+                    finalWhere = NOTE_ID_WHERE + " AND (" + where + ")";
+
+                    count = NoteSql.update(
+                        new SQLiteNoteDatabase(db),
+                        columnsOf(values),
+                        valuesOf(values),
+                        finalWhere,
+                        (Object[]) prependArgs(new String[] { noteId }, whereArgs)
+                    );
                 }
-
-                count = db.update(
-                    NotePad.Notes.TABLE_NAME, // The database table name.
-                    values,
-                    finalWhere,
-                    whereArgs
-                );
+                mNoteCache.invalidate(Long.parseLong(noteId));
                 break;
             // If the incoming pattern is invalid, throws an exception.
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Returns the number of rows updated.
         return count;
     }
+
+    /**
+     * Deletes a single note through a statement compiled once, as deleting from the list and
+     * the editor always goes through this path.
+     */
+    private synchronized int deleteNote(SQLiteDatabase db, String noteId) {
+        if (mDeleteNoteStatement == null) {
+            mDeleteNoteStatement = db.compileStatement("DELETE FROM " + NotePad.Notes.TABLE_NAME
+                    + " WHERE " + NOTE_ID_WHERE);
+        }
+        try {
+            mDeleteNoteStatement.bindString(1, noteId);
+            return mDeleteNoteStatement.executeUpdateDelete();
+        } finally {
+            mDeleteNoteStatement.clearBindings();
+        }
+    }
+
+    /**
+     * Applies all of the operations in a single transaction, so a batch costs one journal
+     * commit and one change notification no matter how many notes it touches.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+
+        mApplyingBatch.set(Boolean.TRUE);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mApplyingBatch.set(Boolean.FALSE);
+
+            // Other connections may have cached what they read before the commit
+            mNoteCache.clear();
+        }
+
+        notifyChange(NotePad.Notes.CONTENT_URI);
+        return results;
+    }
+
+    /**
+     * Inserts all of the rows in a single transaction, with a single change notification. The
+     * missing columns are filled in as {@link #insert} does, with one time for all the rows.
+     * This is the entry point of imports, which stage their notes in batches. No revisions are
+     * kept for the inserted notes; their history starts at their first save.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long start = System.nanoTime();
+        int count = -1;
+        try {
+            count = bulkInsertInternal(uri, values);
+            return count;
+        } finally {
+            mStats.record(ProviderStats.BULK_INSERT, uriType(uri), start, count);
+        }
+    }
+
+    private int bulkInsertInternal(Uri uri, ContentValues[] values) {
+        // Validates the incoming URI. Only the full provider URI is allowed for inserts.
+        if (sUriMatcher.match(uri) != NOTES) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        NoteDatabase db = new SQLiteNoteDatabase(mOpenHelper.getWritableDatabase());
+        Long now = Long.valueOf(System.currentTimeMillis());
+
+        db.beginTransaction();
+        try {
+            for (ContentValues initialValues : values) {
+                ContentValues row = new ContentValues(initialValues);
+                fillDefaults(row, now);
+                if (NoteSql.insert(db, columnsOf(row), valuesOf(row), false) <= 0) {
+                    // Rolls back the whole batch
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        notifyChange(NotePad.Notes.CONTENT_URI);
+        return values.length;
+    }
+
+    /**
+     * Runs the methods of {@link NotePad.Methods}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (NotePad.Methods.GET_CACHE_STATS.equals(method)) {
+            return getCacheStats();
+        } else if (NotePad.Methods.GET_STATS.equals(method)) {
+            return mStats.getStats();
+        } else if (NotePad.Methods.GET_SLOW_QUERIES.equals(method)) {
+            return mSlowQueries.getEntries(getContext().getPackageManager());
+        } else if (NotePad.Methods.GET_MANY.equals(method)) {
+            long start = System.nanoTime();
+            Bundle result = null;
+            try {
+                result = getMany(extras);
+                return result;
+            } finally {
+                // Streamed results count no rows here, only the bytes of the stream
+                long[] ids = result != null
+                        ? result.getLongArray(NotePad.Methods.KEY_IDS) : null;
+                mStats.record(ProviderStats.GET_MANY, NOTE_ID, start,
+                        result == null ? -1 : (ids != null ? ids.length : 0));
+            }
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private Bundle getCacheStats() {
+        Bundle stats = new Bundle();
+        stats.putLong(NotePad.Methods.KEY_CACHE_HITS, mNoteCache.getHits());
+        stats.putLong(NotePad.Methods.KEY_CACHE_MISSES, mNoteCache.getMisses());
+        stats.putLong(NotePad.Methods.KEY_CACHE_EVICTIONS, mNoteCache.getEvictions());
+        stats.putLong(NotePad.Methods.KEY_CACHE_SIZE, mNoteCache.size());
+        stats.putLong(NotePad.Methods.KEY_CACHE_BYTES, mNoteCache.getBytes());
+        return stats;
+    }
+
+    /**
+     * Returns the columns of several notes, as described by {@link NotePad.Methods#GET_MANY}.
+     * Each note is read as a single note query reads it, see {@link #getNoteRow}, so notes
+     * read recently cost no query, and a projection without the content doesn't read it.
+     */
+    private Bundle getMany(Bundle extras) {
+        long[] ids = extras != null ? extras.getLongArray(NotePad.Methods.KEY_IDS) : null;
+        if (ids == null) {
+            throw new IllegalArgumentException("No " + NotePad.Methods.KEY_IDS);
+        }
+        if (ids.length > NotePad.Methods.GET_MANY_MAX_IDS) {
+            throw new IllegalArgumentException("Too many ids: " + ids.length);
+        }
+        String[] projection = extras.getStringArray(NotePad.Methods.KEY_PROJECTION);
+
+        long[] found = new long[ids.length];
+        ArrayList<Object[]> rows = new ArrayList<Object[]>(ids.length);
+        String[] columns = projection != null ? projection : new String[0];
+        int bytes = 0;
+        for (long id : ids) {
+            NoteCache.Row row = getNoteRow(id, projection);
+            if (row == null) {
+                continue;
+            }
+            Object[] values = projectRow(row, projection);
+            bytes += NoteCache.sizeOf(values);
+            if (bytes > GET_MANY_REPLY_BYTES) {
+                return streamMany(ids, projection);
+            }
+            found[rows.size()] = id;
+            rows.add(values);
+            if (projection == null) {
+                columns = row.columns;
+            }
+        }
+
+        Bundle result = new Bundle();
+        result.putLongArray(NotePad.Methods.KEY_IDS, Arrays.copyOf(found, rows.size()));
+        result.putStringArray(NotePad.Methods.KEY_PROJECTION, columns);
+        for (int i = 0; i < columns.length; i++) {
+            if (isIntegerColumn(columns[i])) {
+                long[] values = new long[rows.size()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = (Long) rows.get(j)[i];
+                }
+                result.putLongArray(columns[i], values);
+            } else {
+                String[] values = new String[rows.size()];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = (String) rows.get(j)[i];
+                }
+                result.putStringArray(columns[i], values);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a GET_MANY result that streams the notes through a pipe, reading them again one
+     * at a time, so no more than one of them is in memory.
+     */
+    private Bundle streamMany(final long[] ids, final String[] projection) {
+        ParcelFileDescriptor stream;
+        try {
+            stream = openPipe(NotePad.Notes.CONTENT_URI, NotePad.Notes.EXPORT_TYPE_NDJSON, null,
+                    null, new PipeDataWriter<Void>() {
+                        @Override
+                        public void writeDataToPipe(ParcelFileDescriptor output, Uri uri,
+                                String mimeType, Bundle opts, Void args) {
+                            writeMany(output, ids, projection);
+                        }
+                    });
+        } catch (FileNotFoundException e) {
+            // Too many streams are open
+            throw new IllegalStateException(e.getMessage());
+        }
+        Bundle result = new Bundle();
+        result.putParcelable(NotePad.Methods.KEY_STREAM, stream);
+        return result;
+    }
+
+    // Streams the notes, and throws if any of them couldn't be written, so the reader is told
+    // the stream is short
+    private void writeMany(ParcelFileDescriptor output, long[] ids, String[] projection) {
+        ProviderStats.CountingOutputStream counter = new ProviderStats.CountingOutputStream(
+                new FileOutputStream(output.getFileDescriptor()));
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(counter, "UTF-8"), PIPE_BUFFER_SIZE);
+            for (long id : ids) {
+                NoteCache.Row row = getNoteRow(id, projection);
+                if (row != null) {
+                    NoteJson.writeRow(out, projection != null ? projection : row.columns,
+                            projectRow(row, projection));
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early
+            throw new PipeWriteException("Failed to stream notes", e);
+        } finally {
+            mStats.recordBytes(ProviderStats.GET_MANY, NOTE_ID, counter.getCount());
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a row with the columns of projection of a note, as queryNote() reads them: from
+     * mNoteCache, or else the whole note into mNoteCache if the projection has the content,
+     * or only the columns of the projection otherwise. Returns null if there is no such note.
+     */
+    private NoteCache.Row getNoteRow(long id, String[] projection) {
+        NoteCache.Row row = mNoteCache.get(id);
+        if (row == null && readsContent(projection)) {
+            return loadNote(Long.toString(id), id);
+        } else if (row != null && row.project(projection) != null) {
+            return row;
+        }
+
+        // Fails with an IllegalArgumentException if a column isn't in the projection map
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor c = db.rawQuery(getNoteQuery(projection), new String[] { Long.toString(id) });
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            Object[] values = new Object[c.getColumnCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = getValue(c, i);
+            }
+            return new NoteCache.Row(c.getColumnNames(), values);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Returns the values of the columns of projection of a row, as GET_MANY returns them
+     * whether in the reply or streamed: a Long for the integer columns, 0 if the value is
+     * null, and a String or null for the others.
+     */
+    private static Object[] projectRow(NoteCache.Row row, String[] projection) {
+        Object[] values = row.project(projection);
+        if (values == null) {
+            throw new IllegalArgumentException(
+                    "Unknown column in projection " + Arrays.toString(projection));
+        }
+        String[] columns = projection != null ? projection : row.columns;
+        Object[] projected = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (isIntegerColumn(columns[i])) {
+                projected[i] = value instanceof Number ? ((Number) value).longValue() : 0L;
+            } else {
+                projected[i] = value != null ? value.toString() : null;
+            }
+        }
+        return projected;
+    }
+
+    // Whether GET_MANY returns the values of a column as a long array
+    private static boolean isIntegerColumn(String column) {
+        return NotePad.Notes._ID.equals(column)
+                || NotePad.Notes.COLUMN_NAME_CREATE_DATE.equals(column)
+                || NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE.equals(column)
+                || NotePad.Notes.COLUMN_NAME_CHUNK_COUNT.equals(column);
+    }
+
+    /**
+     * Prints the provider's stats and slow queries, for
+     * {@code adb shell dumpsys activity provider com.google.provider.NotePad}.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mStats.dump(writer);
+        mSlowQueries.dump(writer, getContext().getPackageManager());
+    }
+
+    // The type of a URI in the provider's stats
+    private static int uriType(Uri uri) {
+        return Math.max(0, sUriMatcher.match(uri));
+    }
+
+    /**
+     * Notifies observers registered against this provider that the data changed, unless a batch
+     * is being applied on this thread. Called after every write, so it also makes the cached
+     * list results stale, batch or not; a batch calls it once more after it commits.
+     */
+    private void notifyChange(Uri uri) {
+        mWriteGeneration.incrementAndGet();
+        if (mApplyingBatch.get() != Boolean.TRUE) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            mStats.recordNotification(uriType(uri));
+        }
+    }
+
     DatabaseHelper getOpenHelperForTest() {
         return mOpenHelper;
     }
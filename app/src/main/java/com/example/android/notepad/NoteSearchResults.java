@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+import com.example.android.notepad.store.NoteSearch;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The notes matching a search typed in the notes list, held in memory with the text the
+ * provider searched: the title and the note column. When the user types on, the matches of the
+ * longer search are among these, so {@link #refine} picks them out with
+ * {@link NoteSearch#score} instead of querying the provider again. The note column only has
+ * the first chunk of a long note, while the provider searches all of it, so results with a
+ * long note aren't refined. Instances are immutable, so they can be refined on a worker thread.
+ */
+final class NoteSearchResults {
+
+    // The most characters of note content kept for refining. Larger results are still shown,
+    // but a longer search queries the provider again.
+    private static final int REFINE_BUDGET = 512 * 1024;
+
+    // The columns of the caller's projection, then the note and chunk count columns
+    private final String[] mColumns;
+
+    // The indexes in mColumns of the columns the rows are refined and ordered on
+    private final int mTitleColumn;
+    private final int mNoteColumn;
+    private final int mModifiedColumn;
+
+    // The words searched for
+    private final String[] mTerms;
+
+    // The values of mColumns of each match, most relevant first
+    private final ArrayList<Object[]> mRows;
+
+    // Whether the rows have their whole note content, so they can be refined
+    private final boolean mRefinable;
+
+    private NoteSearchResults(String[] columns, String[] terms, ArrayList<Object[]> rows,
+            boolean refinable) {
+        mColumns = columns;
+        mTitleColumn = indexOf(columns, NotePad.Notes.COLUMN_NAME_TITLE);
+        mNoteColumn = columns.length - 2;
+        mModifiedColumn = indexOf(columns, NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        mTerms = terms;
+        mRows = rows;
+        mRefinable = refinable;
+    }
+
+    /**
+     * Searches the provider for the notes matching the text typed by the user. The projection
+     * must have the title and modification date. Don't call it on the main thread.
+     *
+     * @param signal cancels the query, or null. Only used on API 16 and later, where the query
+     * throws an OperationCanceledException once it is cancelled.
+     */
+    static NoteSearchResults query(ContentResolver resolver, String text, String[] projection,
+            CancellationSignal signal) {
+        String[] columns = new String[projection.length + 2];
+        System.arraycopy(projection, 0, columns, 0, projection.length);
+        columns[projection.length] = NotePad.Notes.COLUMN_NAME_NOTE;
+        columns[projection.length + 1] = NotePad.Notes.COLUMN_NAME_CHUNK_COUNT;
+
+        Uri uri = NotePad.Notes.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_SEARCH, text)
+                .build();
+        Cursor c;
+        if (signal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            c = resolver.query(uri, columns, null, null, null, signal);
+        } else {
+            c = resolver.query(uri, columns, null, null, null);
+        }
+
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        boolean refinable = true;
+        if (c != null) {
+            try {
+                int kept = 0;
+                while (c.moveToNext()) {
+                    Object[] row = new Object[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        int type = c.getType(i);
+                        if (type == Cursor.FIELD_TYPE_INTEGER) {
+                            row[i] = c.getLong(i);
+                        } else if (type != Cursor.FIELD_TYPE_NULL) {
+                            row[i] = c.getString(i);
+                        }
+                    }
+
+                    // A long note continues past the note column, so its matches may not be
+                    // in the text held here
+                    Long chunks = (Long) row[projection.length + 1];
+                    if (chunks != null && chunks > 0) {
+                        refinable = false;
+                    }
+
+                    // Past the budget, the content is dropped and the rows can't be refined
+                    String note = (String) row[projection.length];
+                    if (note != null && refinable) {
+                        kept += note.length();
+                        refinable = kept <= REFINE_BUDGET;
+                    }
+                    if (!refinable) {
+                        row[projection.length] = null;
+                    }
+                    rows.add(row);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return new NoteSearchResults(columns, NoteSearch.terms(text), rows, refinable);
+    }
+
+    /**
+     * Returns the matches of the text typed by the user among these results, or null if they
+     * can't be found here: the text doesn't narrow the search these are the results of, or the
+     * rows don't have their content. They are ordered by {@link NoteSearch#score}, which is
+     * close to the provider's rank but not the same, so notes of equal relevance may come in
+     * another order than a query of the provider would give.
+     */
+    NoteSearchResults refine(String text) {
+        String[] terms = NoteSearch.terms(text);
+        if (!mRefinable || terms.length == 0 || !NoteSearch.narrows(terms, mTerms)) {
+            return null;
+        }
+
+        final HashMap<Object[], Integer> scores = new HashMap<Object[], Integer>();
+        ArrayList<Object[]> hits = new ArrayList<Object[]>();
+        for (Object[] row : mRows) {
+            int score = NoteSearch.score(terms, (String) row[mTitleColumn],
+                    (String) row[mNoteColumn]);
+            if (score > 0) {
+                scores.put(row, score);
+                hits.add(row);
+            }
+        }
+
+        // Most relevant by score first, then most recently modified
+        Collections.sort(hits, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                int c = scores.get(b) - scores.get(a);
+                if (c != 0) {
+                    return c;
+                }
+                long x = (Long) a[mModifiedColumn];
+                long y = (Long) b[mModifiedColumn];
+                return x > y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return new NoteSearchResults(mColumns, terms, hits, true);
+    }
+
+    /**
+     * Whether these are the results of the same words as the text typed by the user, which
+     * then doesn't need to be searched again.
+     */
+    boolean isFor(String text) {
+        return Arrays.equals(NoteSearch.terms(text), mTerms);
+    }
+
+    /**
+     * Returns a new cursor over the results, with the columns of the projection they were
+     * queried with followed by the note and chunk count columns.
+     */
+    Cursor toCursor() {
+        MatrixCursor c = new MatrixCursor(mColumns, mRows.size());
+        for (Object[] row : mRows) {
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Missing column " + column);
+    }
+}
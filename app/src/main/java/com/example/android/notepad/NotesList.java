@@ -17,49 +17,60 @@
 package com.example.android.notepad;
 
 import com.example.android.notepad.NotePad;
+import com.example.android.notepad.store.NoteSearch;
 
 import android.app.AlarmManager;
-import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.app.PendingIntent;
+import android.content.AsyncQueryHandler;
 import android.content.ClipboardManager;
 import android.content.ClipData;
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Context;
-import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.RemoteException;
 import android.util.Log;
+import android.view.ActionMode;
 import android.view.ContextMenu;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.Window;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
-import android.widget.EditText;
 import android.widget.ListView;
-import android.widget.SimpleCursorAdapter;
-import android.widget.TextView;
+import android.widget.SearchView;
 import android.widget.Toast;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 
 /**
  * Displays a list of notes. Will display notes from the {@link Uri}
  * provided in the incoming Intent if there is one, otherwise it defaults to displaying the
  * contents of the {@link NotePadProvider}.
  *
- * NOTE: Notice that the provider operations in this Activity are taking place on the UI thread.
- * This is not a good practice. It is only done here to make the code more readable. A real
- * application should use the {@link android.content.AsyncQueryHandler} or
- * {@link android.os.AsyncTask} object to perform operations asynchronously on a separate thread.
+ * The provider operations in this Activity run on a separate thread through an
+ * {@link android.content.AsyncQueryHandler}, so slow storage never blocks the UI. The list is
+ * shown empty with a progress indicator until the first page of notes arrives.
  */
 public class NotesList extends ListActivity {
 
@@ -70,16 +81,133 @@ public class NotesList extends ListActivity {
             NotePad.Notes._ID, // 0
             NotePad.Notes.COLUMN_NAME_TITLE, // 1
             NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE ,//时间
-            NotePad.Notes.COLUMN_NAME_NOTE//内容
+            NotePad.Notes.COLUMN_NAME_PREVIEW,//内容预览
+            NotePad.Notes.COLUMN_NAME_CREATE_DATE // 4
     };
 
     /** The index of the title column */
     private static final int COLUMN_INDEX_TITLE = 1;
 
+    /** The index of the modification date column */
+    private static final int COLUMN_INDEX_MODIFICATION_DATE = 2;
+
+    /** The index of the creation date column */
+    private static final int COLUMN_INDEX_CREATE_DATE = 4;
+
+    // The sort orders the user can choose from, the menu items choosing them, and the columns
+    // holding their sort keys
+    private static final String[] SORT_ORDERS = {
+            NotePad.Notes.DEFAULT_SORT_ORDER,
+            NotePad.Notes.CREATED_SORT_ORDER,
+            NotePad.Notes.TITLE_SORT_ORDER
+    };
+    private static final int[] SORT_MENU_ITEMS = {
+            R.id.sort_modified,
+            R.id.sort_created,
+            R.id.sort_title
+    };
+    private static final int[] SORT_KEY_COLUMNS = {
+            COLUMN_INDEX_MODIFICATION_DATE,
+            COLUMN_INDEX_CREATE_DATE,
+            COLUMN_INDEX_TITLE
+    };
+
+    // The preferences holding the sort order the user chose
+    private static final String PREFS_NAME = "NotesListPrefs";
+    private static final String PREF_SORT_ORDER = "sortOrder";
+
+    /** The number of notes fetched each time the list is scrolled near its end */
+    private static final int PAGE_SIZE = 50;
+
+    // The URI the list is loaded from
+    private Uri mQueryUri;
+
+    // The index in SORT_ORDERS of the sort order passed to the provider
+    private int mSortIndex;
+
+    // The pages of notes loaded so far, shown through one PagesCursor
+    private final ArrayList<Cursor> mPages = new ArrayList<Cursor>();
+
+    // The value of the "after" parameter that fetches the page following the loaded ones
+    private String mNextPageKey;
+
+    // Whether the provider may have more notes after the loaded pages
+    private boolean mHasMorePages;
+
+    // Whether the notes changed while the activity was stopped
+    private boolean mContentChanged;
+
+    private boolean mStarted;
+
+    // Reloads the list when the notes change
+    private ContentObserver mNotesObserver;
+
+    // The token of the page queries started through mQueryHandler
+    private static final int TOKEN_PAGE = 1;
+
+    // The token of the deletes started through mQueryHandler
+    private static final int TOKEN_DELETE = 2;
+
+    // Runs the provider operations of this activity on a worker thread
+    private AsyncQueryHandler mQueryHandler;
+
+    // Whether a page query is running
+    private boolean mLoadingPage;
+
+    // Incremented whenever the loaded pages are thrown away, so the results of page queries
+    // started before that are dropped
+    private int mLoadGeneration;
+
+    private NotesListAdapter mAdapter;
+
+    // The action mode shown while the user is checking notes, or null when not selecting
+    private ActionMode mSelectionMode;
+
+    // How long the list waits after a keystroke in the search field before searching, so a
+    // word typed quickly runs one search rather than one per letter
+    private static final long SEARCH_DELAY_MS = 250;
+
+    // The key of the search text in the saved instance state
+    private static final String STATE_SEARCH_TEXT = "searchText";
+
+    // The text typed in the search field, or null when the list shows all notes
+    private String mSearchText;
+
+    // The search results shown in place of the pages, or null while the pages are shown
+    private NoteSearchResults mSearchResults;
+
+    // Whether mSearchResults still match the notes, so longer searches can be refined from them
+    private boolean mSearchResultsCurrent;
+
+    // The search running on a worker thread, or null
+    private SearchTask mSearchTask;
+
+    // Searches for mSearchText once the user pauses typing
+    private final Handler mSearchHandler = new Handler();
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startSearch();
+        }
+    };
+
+    // The request codes of the documents picked to export all notes to, one per format
+    private static final int REQUEST_CODE_EXPORT_NDJSON = 1;
+    private static final int REQUEST_CODE_EXPORT_ZIP = 2;
+
+    // The request code of the document picked to import notes from
+    private static final int REQUEST_CODE_IMPORT = 3;
+
+    // The size of the buffer an export is copied through
+    private static final int EXPORT_BUFFER_SIZE = 8 * 1024;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Shows a progress indicator until the first page of notes has been loaded
+        requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
+
         // The user does not need to hold down the key to use menu shortcuts.
         setDefaultKeyMode(DEFAULT_KEYS_SHORTCUT);
 
@@ -89,8 +217,6 @@ public class NotesList extends ListActivity {
         // 设置根视图的背景颜色
         rootView.setBackgroundColor(Color.parseColor("#F0F8E1"));
 
-        String searchQuery = getIntent().getStringExtra("searchQuery");
-
         Intent intent = getIntent();
 
         if (intent.getData() == null) {
@@ -98,73 +224,413 @@ public class NotesList extends ListActivity {
         }
 
         getListView().setOnCreateContextMenuListener(this);
-        String selection = null;
-        String[] selectionArgs = null;
-        if (searchQuery != null && !searchQuery.isEmpty()) {
-            selection = NotePad.Notes.COLUMN_NAME_TITLE + " LIKE ?"; // 根据标题过滤
-            selectionArgs = new String[]{"%" + searchQuery + "%"}; // 搜索关键字
-        }
-
-        // 执行查询，传入过滤条件
-        Cursor cursor = managedQuery(
-                getIntent().getData(),                // 使用默认内容URI
-                PROJECTION,                           // 返回的列
-                selection,                            // 设置筛选条件
-                selectionArgs,                        // 设置筛选条件的参数
-                NotePad.Notes.DEFAULT_SORT_ORDER      // 默认排序
-        );
-
-        // 创建映射列和视图ID
-        String[] dataColumns = {
-                NotePad.Notes.COLUMN_NAME_TITLE,
-                NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE ,
-                NotePad.Notes.COLUMN_NAME_NOTE};
-        int[] viewIDs = {
-                android.R.id.text1,
-                android.R.id.text2,
-                R.id.content};
-
-        // 移除自定义绑定，使用默认绑定
-        SimpleCursorAdapter adapter = new SimpleCursorAdapter(
-                this,
-                R.layout.noteslist_item,
-                cursor,
-                dataColumns,
-                viewIDs);
-
-
-        // 设置ViewBinder来自定义时间显示
-        adapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+        mQueryUri = getIntent().getData();
+        mSortIndex = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getInt(PREF_SORT_ORDER, 0);
+
+        // 设置ListView的适配器。数据按页加载，见 loadPages()
+        mAdapter = new NotesListAdapter(this);
+        setListAdapter(mAdapter);
+
+        // Fetches the next page when the user scrolls near the end of the loaded notes
+        getListView().setOnScrollListener(new AbsListView.OnScrollListener() {
             @Override
-            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-                if (columnIndex == cursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE)) {
-                    long timestamp = cursor.getLong(columnIndex);
-                    String formattedDate = formatDate(timestamp);
-                    TextView textView = (TextView) view;
-                    textView.setText(formattedDate);
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
 
-                    return true;
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                    int totalItemCount) {
+                if (mHasMorePages && !mLoadingPage && mSearchResults == null
+                        && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+                    loadPages(PAGE_SIZE, mNextPageKey);
                 }
-                return false; // 对其他列不做处理
             }
         });
 
-        // 设置ListView的适配器
-        setListAdapter(adapter);
+        mNotesObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (mStarted) {
+                    onNotesChanged();
+                } else {
+                    mContentChanged = true;
+                }
+            }
+        };
+        getContentResolver().registerContentObserver(NotePad.Notes.CONTENT_URI, true,
+                mNotesObserver);
+
+        mQueryHandler = new PageQueryHandler(getContentResolver());
+        setProgressBarIndeterminateVisibility(true);
+        loadPages(PAGE_SIZE, null);
+
+        // Searches again for the text of the search field before a configuration change
+        if (savedInstanceState != null) {
+            mSearchText = savedInstanceState.getString(STATE_SEARCH_TEXT);
+            if (mSearchText != null) {
+                startSearch();
+            }
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_TEXT, mSearchText);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        mStarted = true;
+        if (mContentChanged) {
+            mContentChanged = false;
+            onNotesChanged();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mStarted = false;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(mNotesObserver);
+
+        // Drops the result of any page query or search still running
+        mLoadGeneration++;
+        mQueryHandler.cancelOperation(TOKEN_PAGE);
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        cancelSearch();
+
+        showCursor(null);
+        closePages(mPages);
+    }
+
+    /**
+     * Starts fetching up to {@code limit} notes following the note identified by {@code after},
+     * or from the top of the list if it is null. When they arrive they are appended to the list,
+     * or replace it when fetched from the top.
+     */
+    private void loadPages(int limit, String after) {
+        Uri.Builder builder = mQueryUri.buildUpon().appendQueryParameter(
+                NotePad.Notes.QUERY_PARAMETER_LIMIT, Integer.toString(limit));
+        if (after != null) {
+            builder.appendQueryParameter(NotePad.Notes.QUERY_PARAMETER_AFTER, after);
+        }
+
+        mLoadingPage = true;
+        mQueryHandler.startQuery(TOKEN_PAGE,
+                new PageRequest(mLoadGeneration, limit, after == null),
+                builder.build(), PROJECTION, null, null, SORT_ORDERS[mSortIndex]);
+    }
+
+    /**
+     * Adds a page of notes fetched by loadPages() to the list.
+     */
+    private void onPageLoaded(PageRequest request, Cursor page) {
+        if (request.generation != mLoadGeneration) {
+            // The list was reset after the query started
+            if (page != null) {
+                page.close();
+            }
+            return;
+        }
+        mLoadingPage = false;
+        setProgressBarIndeterminateVisibility(mSearchTask != null);
+
+        // A page fetched from the top replaces the pages shown so far
+        ArrayList<Cursor> oldPages = null;
+        if (request.first) {
+            oldPages = new ArrayList<Cursor>(mPages);
+            mPages.clear();
+        }
+
+        mHasMorePages = page != null && page.getCount() == request.limit;
+        if (page != null) {
+            if (page.moveToLast()) {
+                // A NULL key is left out, rather than sent as the string "null"
+                int keyColumn = SORT_KEY_COLUMNS[mSortIndex];
+                mNextPageKey = page.isNull(keyColumn) ? Long.toString(page.getLong(0))
+                        : page.getString(keyColumn) + "," + page.getLong(0);
+            }
+            mPages.add(page);
+        }
+        if (mSearchResults == null) {
+            showCursor(pagesCursor());
+        }
+
+        if (oldPages != null) {
+            closePages(oldPages);
+        }
+    }
+
+    /**
+     * Reloads the list after the notes changed, keeping as many notes as were shown before.
+     * The old notes stay on screen until the new ones arrive.
+     */
+    private void reloadPages() {
+        int shown = 0;
+        for (Cursor page : mPages) {
+            shown += page.getCount();
+        }
+        mLoadGeneration++;
+        mQueryHandler.cancelOperation(TOKEN_PAGE);
+        loadPages(Math.max(PAGE_SIZE, shown), null);
+    }
+
+    /**
+     * Sorts the list in the order at the given index of SORT_ORDERS, and remembers the choice.
+     */
+    private void setSortOrder(int sortIndex) {
+        mSortIndex = sortIndex;
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putInt(PREF_SORT_ORDER, sortIndex)
+                .apply();
+
+        mLoadGeneration++;
+        mQueryHandler.cancelOperation(TOKEN_PAGE);
+        if (mSearchResults == null) {
+            showCursor(null);
+        }
+        closePages(mPages);
+        setProgressBarIndeterminateVisibility(true);
+        loadPages(PAGE_SIZE, null);
+    }
+
+    /**
+     * Returns a cursor over the loaded pages, or null if there are none.
+     */
+    private Cursor pagesCursor() {
+        return mPages.isEmpty()
+                ? null : new NotesListAdapter.PagesCursor(mPages.toArray(new Cursor[mPages.size()]));
+    }
+
+    /**
+     * Shows the given cursor in the list. Search results are closed once replaced; the pages
+     * are closed by closePages().
+     */
+    private void showCursor(Cursor cursor) {
+        Cursor old = mAdapter.swapCursor(cursor);
+        if (old != null && !(old instanceof NotesListAdapter.PagesCursor)) {
+            old.close();
+        }
+    }
+
+    /**
+     * Reloads the list and searches again after the notes changed.
+     */
+    private void onNotesChanged() {
+        reloadPages();
+        if (mSearchText != null) {
+            mSearchResultsCurrent = false;
+            startSearch();
+        }
+    }
+
+    private static void closePages(ArrayList<Cursor> pages) {
+        for (Cursor page : pages) {
+            page.close();
+        }
+        pages.clear();
+    }
+
+    /**
+     * Identifies a page query started by loadPages().
+     */
+    private static final class PageRequest {
+        // The value of mLoadGeneration when the query started
+        final int generation;
+
+        // The number of notes asked for
+        final int limit;
+
+        // Whether the page is fetched from the top of the list
+        final boolean first;
+
+        PageRequest(int generation, int limit, boolean first) {
+            this.generation = generation;
+            this.limit = limit;
+            this.first = first;
+        }
+    }
+
+    /**
+     * Hands the pages fetched on the worker thread back to the activity on the UI thread.
+     */
+    private final class PageQueryHandler extends AsyncQueryHandler {
+        PageQueryHandler(ContentResolver cr) {
+            super(cr);
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            onPageLoaded((PageRequest) cookie, cursor);
+        }
+    }
+
+    /**
+     * Called as the user types in the search field. Searches once the user pauses, or shows all
+     * notes again as soon as the field is cleared.
+     */
+    private void onSearchTextChanged(String text) {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        if (NoteSearch.terms(text).length == 0) {
+            endSearch();
+            return;
+        }
+        mSearchText = text;
+        mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MS);
+    }
+
+    /**
+     * Starts searching for mSearchText, and cancels the search it supersedes. The list keeps
+     * what it shows until the results arrive.
+     */
+    private void startSearch() {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        cancelSearch();
+
+        NoteSearchResults previous = mSearchResultsCurrent ? mSearchResults : null;
+        if (previous != null && previous.isFor(mSearchText)) {
+            // Only spaces or quotes were typed
+            setProgressBarIndeterminateVisibility(mLoadingPage);
+            return;
+        }
+        mSearchTask = new SearchTask(mSearchText, previous);
+        // Not behind an export or a delete on the serial executor
+        mSearchTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        setProgressBarIndeterminateVisibility(true);
+    }
+
+    private void cancelSearch() {
+        if (mSearchTask != null) {
+            mSearchTask.cancelQuery();
+            mSearchTask = null;
+        }
     }
 
-    private String formatDate(long timestamp) {
-        // 创建一个日期格式化器
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+    /**
+     * Shows the results of the search started last. The results of a cancelled search never
+     * get here.
+     */
+    private void onSearchComplete(SearchTask task, NoteSearchResults results) {
+        if (task != mSearchTask) {
+            return;
+        }
+        mSearchTask = null;
+        setProgressBarIndeterminateVisibility(mLoadingPage);
+        mSearchResults = results;
+        mSearchResultsCurrent = true;
+        showCursor(results.toCursor());
+    }
 
-        // 将时间戳转换为 Date 对象，并格式化为字符串
-        return dateFormat.format(new Date(timestamp));
+    /**
+     * Shows all notes again, in place of the search results.
+     */
+    private void endSearch() {
+        cancelSearch();
+        mSearchText = null;
+        setProgressBarIndeterminateVisibility(mLoadingPage);
+        if (mSearchResults != null) {
+            mSearchResults = null;
+            showCursor(pagesCursor());
+        }
     }
+
+    /**
+     * Searches on a worker thread, refining the previous results when the new text narrows
+     * their search. From API 16 on, cancelling it also stops the provider's query.
+     */
+    private final class SearchTask extends AsyncTask<Void, Void, NoteSearchResults> {
+        private final ContentResolver mResolver;
+        private final String mText;
+        private final NoteSearchResults mPrevious;
+
+        // Cancels the provider's query, or null before API 16
+        private final CancellationSignal mSignal;
+
+        SearchTask(String text, NoteSearchResults previous) {
+            mResolver = getContentResolver();
+            mText = text;
+            mPrevious = previous;
+            mSignal = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                    ? new CancellationSignal() : null;
+        }
+
+        void cancelQuery() {
+            cancel(false);
+            if (mSignal != null) {
+                mSignal.cancel();
+            }
+        }
+
+        @Override
+        protected NoteSearchResults doInBackground(Void... params) {
+            if (mPrevious != null) {
+                NoteSearchResults refined = mPrevious.refine(mText);
+                if (refined != null) {
+                    return refined;
+                }
+            }
+            try {
+                return NoteSearchResults.query(mResolver, mText, PROJECTION, mSignal);
+            } catch (RuntimeException e) {
+                if (isCancelled()) {
+                    // The OperationCanceledException of a superseded search
+                    return null;
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(NoteSearchResults results) {
+            onSearchComplete(this, results);
+        }
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate menu from XML resource
         MenuInflater inflater = getMenuInflater();
         inflater.inflate(R.menu.list_options_menu, menu);
+
+        // Searches as the user types, showing the results in place of the notes
+        final SearchView searchView =
+                (SearchView) menu.findItem(R.id.menu_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchText != null) {
+            searchView.setIconified(false);
+            searchView.setQuery(mSearchText, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Searches without waiting, and hides the keyboard
+                onSearchTextChanged(query);
+                if (mSearchText != null) {
+                    startSearch();
+                }
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                onSearchTextChanged(newText);
+                return true;
+            }
+        });
+        // Exports are written to a document the user creates, which takes the storage access
+        // framework of KitKat
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            menu.findItem(R.id.menu_export).setVisible(false);
+        }
+
         Intent intent = new Intent(null, getIntent().getData());
         intent.addCategory(Intent.CATEGORY_ALTERNATIVE);
         menu.addIntentOptions(Menu.CATEGORY_ALTERNATIVE, 0, 0,
@@ -183,6 +649,8 @@ public class NotesList extends ListActivity {
 
         MenuItem mPasteItem = menu.findItem(R.id.menu_paste);
 
+        menu.findItem(SORT_MENU_ITEMS[mSortIndex]).setChecked(true);
+
         if (clipboard.hasPrimaryClip()) {
             mPasteItem.setEnabled(true);
         } else {
@@ -243,33 +711,32 @@ public class NotesList extends ListActivity {
         case R.id.menu_paste:
           startActivity(new Intent(Intent.ACTION_PASTE, getIntent().getData()));
           return true;
-
-        case R.id.menu_search:
-
-                AlertDialog.Builder builder = new AlertDialog.Builder(this);
-                builder.setTitle("搜索笔记");
-
-                final EditText input = new EditText(this);
-                builder.setView(input);
-
-                builder.setPositiveButton("搜索", new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialog, int which) {
-                        String searchQuery = input.getText().toString().trim();
-                        if (!searchQuery.isEmpty()) {
-                            Intent intent = new Intent(NotesList.this, NotesList.class);
-                            intent.putExtra("searchQuery", searchQuery); // 将搜索内容传递给NotesList
-                            startActivity(intent);
-                        } else {
-                            Toast.makeText(NotesList.this, "请输入搜索内容", Toast.LENGTH_SHORT).show();
-                        }
-                    }
-                });
-                builder.setNegativeButton("取消", null);
-
-                // 显示对话框
-                builder.show();
-                return true;
-
+        case R.id.menu_select:
+            startSelection();
+            return true;
+        case R.id.export_ndjson:
+            pickExportDocument(REQUEST_CODE_EXPORT_NDJSON, NotePad.Notes.EXPORT_TYPE_NDJSON,
+                    "notes.ndjson");
+            return true;
+        case R.id.export_zip:
+            pickExportDocument(REQUEST_CODE_EXPORT_ZIP, NotePad.Notes.EXPORT_TYPE_ZIP,
+                    "notes.zip");
+            return true;
+        case R.id.menu_import:
+            Intent pick = new Intent(Intent.ACTION_GET_CONTENT);
+            pick.addCategory(Intent.CATEGORY_OPENABLE);
+            pick.setType("*/*");
+            startActivityForResult(pick, REQUEST_CODE_IMPORT);
+            return true;
+        case R.id.sort_modified:
+        case R.id.sort_created:
+        case R.id.sort_title:
+            for (int i = 0; i < SORT_MENU_ITEMS.length; i++) {
+                if (SORT_MENU_ITEMS[i] == item.getItemId()) {
+                    setSortOrder(i);
+                }
+            }
+            return true;
 
         default:
                 return super.onOptionsItemSelected(item);
@@ -357,7 +824,9 @@ public class NotesList extends ListActivity {
 
         case R.id.context_delete:
 
-            getContentResolver().delete(
+            mQueryHandler.startDelete(
+                TOKEN_DELETE,
+                null,
                 noteUri,  // The URI of the provider
                 null,     // No where clause is needed, since only a single note ID is being
                           // passed in.
@@ -369,8 +838,183 @@ public class NotesList extends ListActivity {
         }
     }
 
+    /**
+     * Enters multi-select mode. While it is active, clicking a note checks or unchecks it
+     * instead of opening it.
+     */
+    private void startSelection() {
+        if (mSelectionMode != null) {
+            return;
+        }
+        getListView().setChoiceMode(ListView.CHOICE_MODE_MULTIPLE);
+        mSelectionMode = startActionMode(new ActionMode.Callback() {
+            @Override
+            public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+                getMenuInflater().inflate(R.menu.list_select_menu, menu);
+                mode.setTitle(getString(R.string.selected_count, 0));
+                return true;
+            }
+
+            @Override
+            public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+                return false;
+            }
+
+            @Override
+            public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+                if (item.getItemId() == R.id.select_delete) {
+                    deleteNotes(getListView().getCheckedItemIds());
+                    mode.finish();
+                    return true;
+                }
+                return false;
+            }
+
+            @Override
+            public void onDestroyActionMode(ActionMode mode) {
+                ListView listView = getListView();
+                listView.clearChoices();
+                listView.setChoiceMode(ListView.CHOICE_MODE_NONE);
+                // Redraws the rows so none of them stays checked
+                listView.requestLayout();
+                mSelectionMode = null;
+            }
+        });
+    }
+
+    /**
+     * Deletes the given notes as one batch, so the provider commits them in a single
+     * transaction and notifies the list once.
+     */
+    private void deleteNotes(long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(ids.length);
+        for (long id : ids) {
+            operations.add(ContentProviderOperation
+                    .newDelete(ContentUris.withAppendedId(getIntent().getData(), id))
+                    .build());
+        }
+
+        // The batch runs on a worker thread; the list reloads when the provider notifies it
+        final ContentResolver resolver = getContentResolver();
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolver.applyBatch(NotePad.AUTHORITY, operations);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "Failed to delete notes", e);
+                } catch (OperationApplicationException e) {
+                    Log.e(TAG, "Failed to delete notes", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Asks the user for the document to export all notes to. Only called on KitKat and later,
+     * where the export menu is shown.
+     */
+    private void pickExportDocument(int requestCode, String mimeType, String fileName) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(mimeType);
+        intent.putExtra(Intent.EXTRA_TITLE, fileName);
+        startActivityForResult(intent, requestCode);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        switch (requestCode) {
+            case REQUEST_CODE_EXPORT_NDJSON:
+                new ExportTask(this, NotePad.Notes.EXPORT_TYPE_NDJSON).execute(data.getData());
+                break;
+            case REQUEST_CODE_EXPORT_ZIP:
+                new ExportTask(this, NotePad.Notes.EXPORT_TYPE_ZIP).execute(data.getData());
+                break;
+            case REQUEST_CODE_IMPORT:
+                Intent intent = new Intent(this, NoteImporter.class);
+                intent.setData(data.getData());
+                intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                startActivity(intent);
+                break;
+        }
+    }
+
+    /**
+     * Copies the export stream of all notes into a document on a worker thread, through a
+     * fixed-size buffer. The provider writes the stream one note at a time.
+     */
+    private static final class ExportTask extends AsyncTask<Uri, Void, Boolean> {
+        // The application context, which outlives the activity
+        private final Context mContext;
+        private final String mMimeType;
+
+        ExportTask(Context context, String mimeType) {
+            mContext = context.getApplicationContext();
+            mMimeType = mimeType;
+        }
+
+        @Override
+        protected Boolean doInBackground(Uri... params) {
+            ContentResolver resolver = mContext.getContentResolver();
+            InputStream in = null;
+            OutputStream out = null;
+            try {
+                in = resolver.openTypedAssetFileDescriptor(NotePad.Notes.CONTENT_URI, mMimeType,
+                        null).createInputStream();
+                out = resolver.openOutputStream(params[0]);
+                byte[] buffer = new byte[EXPORT_BUFFER_SIZE];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, count);
+                }
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to export notes to " + params[0], e);
+                return false;
+            } finally {
+                closeQuietly(in);
+                closeQuietly(out);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean exported) {
+            Toast.makeText(mContext, exported ? R.string.export_done : R.string.export_failed,
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
     @Override
     protected void onListItemClick(ListView l, View v, int position, long id) {
+        if (mSelectionMode != null) {
+            // In multi-select mode the click only toggles the note's check mark
+            mSelectionMode.setTitle(getString(R.string.selected_count,
+                    l.getCheckedItemIds().length));
+            return;
+        }
+
         Uri uri = ContentUris.withAppendedId(getIntent().getData(), id);
         String action = getIntent().getAction();
         if (Intent.ACTION_PICK.equals(action) || Intent.ACTION_GET_CONTENT.equals(action)) {
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ResourceCursorAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Binds the rows of the notes list: the title, the preview and the modification date.
+ *
+ * Binding a row is meant to allocate nothing once the list has scrolled for a bit, which
+ * NotesListAdapterTest checks on a device. The column indexes are looked up once per cursor,
+ * the views of a row are kept in a {@link ViewHolder}, the text is copied into a buffer owned
+ * by the row rather than read as a new String, and the dates come from a
+ * {@link MinuteDateCache}.
+ */
+class NotesListAdapter extends ResourceCursorAdapter {
+
+    /**
+     * The views of a row, and the buffers their text is copied into.
+     */
+    private static final class ViewHolder {
+        final TextView title;
+        final TextView preview;
+        final TextView date;
+        final CharArrayBuffer titleBuffer = new CharArrayBuffer(64);
+        final CharArrayBuffer previewBuffer = new CharArrayBuffer(128);
+
+        ViewHolder(View view) {
+            title = (TextView) view.findViewById(android.R.id.text1);
+            preview = (TextView) view.findViewById(R.id.content);
+            date = (TextView) view.findViewById(android.R.id.text2);
+        }
+    }
+
+    /**
+     * Formats timestamps to the minute, keeping the text of recently formatted minutes. The
+     * cache is direct-mapped: each minute has one slot, shared with the minutes
+     * {@link #SIZE} apart from it. A slot gets a new array when it is refilled, as the text of
+     * a TextView keeps referring to the array it was set from.
+     */
+    static final class MinuteDateCache {
+        // The number of slots, a power of two
+        private static final int SIZE = 256;
+
+        private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+        private final long[] mMinutes = new long[SIZE];
+        private final char[][] mTexts = new char[SIZE][];
+        private final SimpleDateFormat mFormat =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.getDefault());
+        private final Date mDate = new Date();
+
+        /**
+         * Returns the text of the minute of a timestamp. The array must not be changed.
+         */
+        char[] format(long millis) {
+            long minute = millis >= 0
+                    ? millis / MILLIS_PER_MINUTE
+                    : (millis - MILLIS_PER_MINUTE + 1) / MILLIS_PER_MINUTE;
+            int slot = (int) (minute & (SIZE - 1));
+            char[] text = mTexts[slot];
+            if (text == null || mMinutes[slot] != minute) {
+                mDate.setTime(minute * MILLIS_PER_MINUTE);
+                text = mFormat.format(mDate).toCharArray();
+                mTexts[slot] = text;
+                mMinutes[slot] = minute;
+            }
+            return text;
+        }
+    }
+
+    /**
+     * Shows the pages of the list as one cursor, like MergeCursor, and copies text straight
+     * from the page the row is on. MergeCursor itself reads the text as a String first.
+     */
+    static final class PagesCursor extends MergeCursor {
+        private final Cursor[] mPages;
+
+        // The page of the current row
+        private Cursor mPage;
+
+        PagesCursor(Cursor[] pages) {
+            super(pages);
+            mPages = pages;
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            boolean moved = super.onMove(oldPosition, newPosition);
+            mPage = null;
+            int start = 0;
+            for (Cursor page : mPages) {
+                if (page == null) {
+                    continue;
+                }
+                if (newPosition < start + page.getCount()) {
+                    mPage = page;
+                    break;
+                }
+                start += page.getCount();
+            }
+            return moved;
+        }
+
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            if (mPage != null) {
+                mPage.copyStringToBuffer(columnIndex, buffer);
+            } else {
+                super.copyStringToBuffer(columnIndex, buffer);
+            }
+        }
+    }
+
+    private final MinuteDateCache mDates = new MinuteDateCache();
+
+    // The indexes of the bound columns in the current cursor, or -1 if it doesn't have them
+    private int mTitleColumn = -1;
+    private int mPreviewColumn = -1;
+    private int mDateColumn = -1;
+
+    NotesListAdapter(Context context) {
+        super(context, R.layout.noteslist_item, null, 0);
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor != null) {
+            mTitleColumn = newCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_TITLE);
+            mPreviewColumn = newCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_PREVIEW);
+            mDateColumn = newCursor.getColumnIndex(NotePad.Notes.COLUMN_NAME_MODIFICATION_DATE);
+        }
+        return super.swapCursor(newCursor);
+    }
+
+    @Override
+    public View newView(Context context, Cursor cursor, ViewGroup parent) {
+        View view = super.newView(context, cursor, parent);
+        view.setTag(new ViewHolder(view));
+        return view;
+    }
+
+    @Override
+    public void bindView(View view, Context context, Cursor cursor) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        bindText(holder.title, cursor, mTitleColumn, holder.titleBuffer);
+        bindText(holder.preview, cursor, mPreviewColumn, holder.previewBuffer);
+        if (mDateColumn >= 0) {
+            char[] date = mDates.format(cursor.getLong(mDateColumn));
+            holder.date.setText(date, 0, date.length);
+        }
+    }
+
+    private static void bindText(TextView view, Cursor cursor, int column,
+            CharArrayBuffer buffer) {
+        if (column < 0) {
+            return;
+        }
+        cursor.copyStringToBuffer(column, buffer);
+        view.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+}
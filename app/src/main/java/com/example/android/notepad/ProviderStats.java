@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.os.Bundle;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counters and latency histograms of the operations of {@link NotePadProvider}, kept per
+ * operation and per type of URI. Recording only adds to atomic counters, with no locks and no
+ * allocation once an operation has been seen on a type of URI, so it is cheap enough to leave
+ * on in production.
+ *
+ * Latencies are kept in microseconds, in buckets like those of an HDR histogram: exact below
+ * {@link #LINEAR_BUCKETS}, then SUB_BUCKETS buckets per power of two, so a value is known to
+ * within 12.5% whatever its magnitude.
+ */
+final class ProviderStats {
+
+    /** The operations, which index {@link #OPERATION_NAMES} */
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int OPEN_FILE = 5;
+    static final int STREAM = 6;
+    static final int GET_MANY = 7;
+
+    private static final String[] OPERATION_NAMES = new String[] {
+            "query", "insert", "bulkInsert", "update", "delete", "openTypedAssetFile", "stream",
+            "getMany",
+    };
+
+    // Latencies under this many microseconds have a bucket each
+    private static final int LINEAR_BUCKETS = 16;
+
+    // The buckets per power of two above that, and its log
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // The log of LINEAR_BUCKETS, the first power of two split into SUB_BUCKETS
+    private static final int FIRST_EXPONENT = 4;
+
+    // Latencies from 2^31 microseconds, about 36 minutes, fall into the last bucket
+    private static final int LAST_EXPONENT = 30;
+
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS
+            + (LAST_EXPONENT - FIRST_EXPONENT + 1) * SUB_BUCKETS;
+
+    /**
+     * The counters of one operation on one type of URI.
+     */
+    private static final class Counters {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    }
+
+    // The names of the types of URI, by index
+    private final String[] mUriTypeNames;
+
+    // The counters by operation and type of URI, created on first use
+    private final AtomicReferenceArray<Counters> mCounters;
+
+    // The change notifications sent, by type of the URI notified
+    private final AtomicLongArray mNotifications;
+
+    /**
+     * @param uriTypeNames the names of the types of URI that operations are recorded with
+     */
+    ProviderStats(String[] uriTypeNames) {
+        mUriTypeNames = uriTypeNames;
+        mCounters = new AtomicReferenceArray<Counters>(
+                OPERATION_NAMES.length * uriTypeNames.length);
+        mNotifications = new AtomicLongArray(uriTypeNames.length);
+    }
+
+    /**
+     * Records an operation that started at startNanos, from {@link System#nanoTime}.
+     *
+     * @param rows the rows it returned or changed, or -1 if it failed
+     */
+    void record(int operation, int uriType, long startNanos, long rows) {
+        Counters counters = getCounters(operation, uriType);
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        counters.count.incrementAndGet();
+        if (rows < 0) {
+            counters.errors.incrementAndGet();
+        } else {
+            counters.rows.addAndGet(rows);
+        }
+        counters.buckets.incrementAndGet(bucketOf(micros));
+        long max;
+        do {
+            max = counters.maxMicros.get();
+        } while (micros > max && !counters.maxMicros.compareAndSet(max, micros));
+    }
+
+    /**
+     * Records bytes written by an operation, e.g. to a stream.
+     */
+    void recordBytes(int operation, int uriType, long bytes) {
+        getCounters(operation, uriType).bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Records a change notification sent for a URI of the given type.
+     */
+    void recordNotification(int uriType) {
+        mNotifications.incrementAndGet(uriType);
+    }
+
+    private Counters getCounters(int operation, int uriType) {
+        int index = operation * mUriTypeNames.length + uriType;
+        Counters counters = mCounters.get(index);
+        if (counters == null) {
+            // Whichever thread sets it first wins; the others use its counters
+            mCounters.compareAndSet(index, null, new Counters());
+            counters = mCounters.get(index);
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the stats as described by {@link NotePad.Methods#GET_STATS}.
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        for (int i = 0; i < mCounters.length(); i++) {
+            Counters counters = mCounters.get(i);
+            if (counters == null) {
+                continue;
+            }
+            long[] buckets = snapshot(counters.buckets);
+            Bundle operation = new Bundle();
+            operation.putLong(NotePad.Methods.KEY_COUNT, counters.count.get());
+            operation.putLong(NotePad.Methods.KEY_ERRORS, counters.errors.get());
+            operation.putLong(NotePad.Methods.KEY_ROWS, counters.rows.get());
+            operation.putLong(NotePad.Methods.KEY_BYTES, counters.bytes.get());
+            operation.putLong(NotePad.Methods.KEY_P50_MICROS, percentile(buckets, 0.50));
+            operation.putLong(NotePad.Methods.KEY_P90_MICROS, percentile(buckets, 0.90));
+            operation.putLong(NotePad.Methods.KEY_P99_MICROS, percentile(buckets, 0.99));
+            operation.putLong(NotePad.Methods.KEY_MAX_MICROS, counters.maxMicros.get());
+            putHistogram(operation, buckets);
+            stats.putBundle(keyOf(i), operation);
+        }
+
+        Bundle notifications = new Bundle();
+        for (int i = 0; i < mNotifications.length(); i++) {
+            long count = mNotifications.get(i);
+            if (count > 0) {
+                notifications.putLong(mUriTypeNames[i], count);
+            }
+        }
+        stats.putBundle(NotePad.Methods.KEY_NOTIFICATIONS, notifications);
+        return stats;
+    }
+
+    /**
+     * Prints the stats, one line per operation and type of URI, for dumpsys.
+     */
+    void dump(PrintWriter out) {
+        out.println("Operations (latencies in microseconds):");
+        for (int i = 0; i < mCounters.length(); i++) {
+            Counters counters = mCounters.get(i);
+            if (counters == null) {
+                continue;
+            }
+            long[] buckets = snapshot(counters.buckets);
+            out.println("  " + keyOf(i)
+                    + ": count=" + counters.count.get()
+                    + " errors=" + counters.errors.get()
+                    + " rows=" + counters.rows.get()
+                    + " bytes=" + counters.bytes.get()
+                    + " p50=" + percentile(buckets, 0.50)
+                    + " p90=" + percentile(buckets, 0.90)
+                    + " p99=" + percentile(buckets, 0.99)
+                    + " max=" + counters.maxMicros.get());
+        }
+        out.println("Notifications:");
+        for (int i = 0; i < mNotifications.length(); i++) {
+            long count = mNotifications.get(i);
+            if (count > 0) {
+                out.println("  " + mUriTypeNames[i] + ": " + count);
+            }
+        }
+    }
+
+    // The key of the counters at an index of mCounters, e.g. "query:notes"
+    private String keyOf(int index) {
+        return OPERATION_NAMES[index / mUriTypeNames.length] + ":"
+                + mUriTypeNames[index % mUriTypeNames.length];
+    }
+
+    // Puts the buckets that have counts, as the arrays of their upper bounds and counts
+    private static void putHistogram(Bundle operation, long[] buckets) {
+        int used = 0;
+        for (long count : buckets) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        long[] bounds = new long[used];
+        long[] counts = new long[used];
+        for (int i = 0, j = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0) {
+                bounds[j] = upperBoundOf(i);
+                counts[j] = buckets[i];
+                j++;
+            }
+        }
+        operation.putLongArray(NotePad.Methods.KEY_HISTOGRAM_BOUNDS, bounds);
+        operation.putLongArray(NotePad.Methods.KEY_HISTOGRAM_COUNTS, counts);
+    }
+
+    private static long[] snapshot(AtomicLongArray buckets) {
+        long[] copy = new long[buckets.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return copy;
+    }
+
+    // The upper bound of the bucket that holds the given fraction of the values, or 0 if there
+    // are none
+    private static long percentile(long[] buckets, double fraction) {
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return upperBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > LAST_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest latency in microseconds that falls into a bucket
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = FIRST_EXPONENT + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+
+    /**
+     * An output stream that counts the bytes written through it.
+     */
+    static final class CountingOutputStream extends FilterOutputStream {
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            mCount += length;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.store.NoteDatabase;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * The {@link NoteDatabase} of the app, on an open SQLiteDatabase. The provider writes notes
+ * through it, with the NoteSql code {@code JdbcNoteStore} runs on a plain JVM.
+ *
+ * Arguments are bound with their types, so a number compares as a number, as it does through
+ * JDBC, rather than as the string rawQuery() would bind.
+ */
+final class SQLiteNoteDatabase implements NoteDatabase {
+
+    private final SQLiteDatabase mDb;
+
+    SQLiteNoteDatabase(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    @Override
+    public void execute(String sql, Object... args) {
+        mDb.execSQL(sql, args);
+    }
+
+    @Override
+    public long insert(String sql, Object... args) {
+        SQLiteStatement statement = compile(sql, args);
+        try {
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public int update(String sql, Object... args) {
+        SQLiteStatement statement = compile(sql, args);
+        try {
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+    }
+
+    @Override
+    public Rows query(String sql, final Object... args) {
+        // The driver binds no arguments, as none are passed to it, so the factory binds them
+        final Cursor c = mDb.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver,
+                    String editTable, SQLiteQuery query) {
+                for (int i = 0; i < args.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(query, i + 1, args[i]);
+                }
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        }, sql, null, null);
+
+        return new Rows() {
+            @Override
+            public boolean next() {
+                return c.moveToNext();
+            }
+
+            @Override
+            public boolean isNull(int column) {
+                return c.isNull(column);
+            }
+
+            @Override
+            public long getLong(int column) {
+                return c.getLong(column);
+            }
+
+            @Override
+            public String getString(int column) {
+                return c.getString(column);
+            }
+
+            @Override
+            public void close() {
+                c.close();
+            }
+        };
+    }
+
+    @Override
+    public void beginTransaction() {
+        mDb.beginTransaction();
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        mDb.endTransaction();
+    }
+
+    private SQLiteStatement compile(String sql, Object... args) {
+        SQLiteStatement statement = mDb.compileStatement(sql);
+        for (int i = 0; i < args.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+        }
+        return statement;
+    }
+}
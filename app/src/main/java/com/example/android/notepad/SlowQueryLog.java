@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.NotePad;
+
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * The most recent slow statements run by {@link NotePadProvider} for a caller's selection and
+ * sort order, kept in a ring buffer of fixed size. Each entry has the SQL, the plan SQLite chose
+ * for it, the row count, and the UID of the caller, so a client that makes the provider scan
+ * the whole table can be found, and its query fixed or an index added.
+ *
+ * The plan is taken right after a statement is found to be slow, while the caller waits, which
+ * only costs the planning of the statement again. Selection arguments aren't kept, as they may
+ * hold the text of notes.
+ */
+final class SlowQueryLog {
+
+    private static final String TAG = "NotePadProvider";
+
+    // The column of EXPLAIN QUERY PLAN with the description of each step
+    private static final String PLAN_DETAIL_COLUMN = "detail";
+
+    /**
+     * A slow statement.
+     */
+    private static final class Entry {
+        final long time;
+        final String operation;
+        final String uri;
+        final String sql;
+        final String plan;
+        final int uid;
+        final long rows;
+        final long micros;
+
+        Entry(long time, String operation, String uri, String sql, String plan, int uid,
+                long rows, long micros) {
+            this.time = time;
+            this.operation = operation;
+            this.uri = uri;
+            this.sql = sql;
+            this.plan = plan;
+            this.uid = uid;
+            this.rows = rows;
+            this.micros = micros;
+        }
+    }
+
+    private final long mThresholdNanos;
+
+    // The entries, the oldest at mNext once the buffer is full. Guarded by this.
+    private final Entry[] mEntries;
+    private int mNext;
+    private int mSize;
+
+    // The number of slow statements since the provider started, including those overwritten.
+    // Guarded by this.
+    private long mTotal;
+
+    /**
+     * @param capacity the number of entries kept
+     * @param thresholdMillis the time a statement must take to be logged
+     */
+    SlowQueryLog(int capacity, long thresholdMillis) {
+        mEntries = new Entry[capacity];
+        mThresholdNanos = thresholdMillis * 1000 * 1000;
+    }
+
+    /**
+     * Returns whether a statement that started at startNanos, from {@link System#nanoTime},
+     * is slow enough to be logged.
+     */
+    boolean isSlow(long startNanos) {
+        return System.nanoTime() - startNanos >= mThresholdNanos;
+    }
+
+    /**
+     * Logs a slow statement along with its query plan. Call it on the thread of the caller,
+     * whose UID is logged.
+     *
+     * @param args the arguments of sql, which are bound to take the plan and then dropped
+     */
+    void add(SQLiteDatabase db, String operation, Uri uri, String sql, String[] args,
+            long rows, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        Entry entry = new Entry(System.currentTimeMillis(), operation, uri.toString(), sql,
+                explain(db, sql, args), Binder.getCallingUid(), rows, micros);
+        Log.w(TAG, "Slow " + operation + " of " + uri + " for uid " + entry.uid + ": "
+                + micros / 1000 + " ms, " + rows + " rows: " + sql);
+
+        synchronized (this) {
+            mEntries[mNext] = entry;
+            mNext = (mNext + 1) % mEntries.length;
+            mSize = Math.min(mSize + 1, mEntries.length);
+            mTotal++;
+        }
+    }
+
+    /**
+     * Returns the plan of a statement, one step per line, or an error if it can't be planned.
+     */
+    private static String explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor c = null;
+        try {
+            c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detail = c.getColumnIndex(PLAN_DETAIL_COLUMN);
+            StringBuilder plan = new StringBuilder();
+            while (c.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(c.getString(detail >= 0 ? detail : c.getColumnCount() - 1));
+            }
+            return plan.toString();
+        } catch (RuntimeException e) {
+            // The statement ran, so this is unlikely; the entry is still worth keeping
+            return "Failed to explain: " + e;
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+    }
+
+    // The entries, oldest first
+    private synchronized Entry[] snapshot() {
+        Entry[] entries = new Entry[mSize];
+        int oldest = (mNext - mSize + mEntries.length) % mEntries.length;
+        for (int i = 0; i < mSize; i++) {
+            entries[i] = mEntries[(oldest + i) % mEntries.length];
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the log as described by {@link NotePad.Methods#GET_SLOW_QUERIES}. The package
+     * manager names the callers.
+     */
+    Bundle getEntries(PackageManager packageManager) {
+        ArrayList<Bundle> queries = new ArrayList<Bundle>();
+        for (Entry entry : snapshot()) {
+            Bundle query = new Bundle();
+            query.putLong(NotePad.Methods.KEY_SLOW_TIME, entry.time);
+            query.putString(NotePad.Methods.KEY_SLOW_OPERATION, entry.operation);
+            query.putString(NotePad.Methods.KEY_SLOW_URI, entry.uri);
+            query.putString(NotePad.Methods.KEY_SLOW_SQL, entry.sql);
+            query.putString(NotePad.Methods.KEY_SLOW_PLAN, entry.plan);
+            query.putInt(NotePad.Methods.KEY_SLOW_UID, entry.uid);
+            query.putString(NotePad.Methods.KEY_SLOW_CALLER,
+                    packageManager.getNameForUid(entry.uid));
+            query.putLong(NotePad.Methods.KEY_ROWS, entry.rows);
+            query.putLong(NotePad.Methods.KEY_SLOW_MICROS, entry.micros);
+            queries.add(query);
+        }
+        Bundle result = new Bundle();
+        result.putParcelableArrayList(NotePad.Methods.KEY_SLOW_QUERIES, queries);
+        result.putLong(NotePad.Methods.KEY_COUNT, getTotal());
+        return result;
+    }
+
+    /**
+     * Prints the log, oldest first, for dumpsys.
+     */
+    void dump(PrintWriter out, PackageManager packageManager) {
+        Entry[] entries = snapshot();
+        out.println("Slow queries (" + entries.length + " of " + getTotal() + "):");
+        for (Entry entry : entries) {
+            out.println("  " + DateFormat.format("yyyy-MM-dd kk:mm:ss", entry.time)
+                    + " " + entry.operation + " " + entry.uri
+                    + " uid=" + entry.uid + " (" + packageManager.getNameForUid(entry.uid) + ")"
+                    + " rows=" + entry.rows + " micros=" + entry.micros);
+            out.println("    " + entry.sql);
+            for (String step : entry.plan.split("\n")) {
+                out.println("      " + step);
+            }
+        }
+    }
+
+    private synchronized long getTotal() {
+        return mTotal;
+    }
+}
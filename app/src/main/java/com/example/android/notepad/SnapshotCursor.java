@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad;
+
+import com.example.android.notepad.store.QueryCache;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+/**
+ * A read-only cursor over a snapshot of a {@link QueryCache}, which the provider serves
+ * cached list results through. Each hit returns a new cursor over the shared snapshot, without
+ * copying the rows.
+ */
+final class SnapshotCursor extends AbstractCursor {
+    private final QueryCache.Snapshot mSnapshot;
+
+    SnapshotCursor(QueryCache.Snapshot snapshot) {
+        mSnapshot = snapshot;
+    }
+
+    /**
+     * Returns a cursor over the cached result of a query, or null if there is none from the
+     * given generation.
+     */
+    static Cursor get(QueryCache cache, String key, int generation) {
+        QueryCache.Snapshot snapshot = cache.get(key, generation);
+        return snapshot != null ? new SnapshotCursor(snapshot) : null;
+    }
+
+    /**
+     * Caches the result of a query that started at the given generation. Returns a cursor over
+     * the snapshot, and closes c, or returns c itself, before its first row, if it has too
+     * many rows or bytes to cache. The rows are only copied up to the byte budget of the
+     * cache, so a result too large to cache costs no more than the budget to find out.
+     */
+    static Cursor put(QueryCache cache, String key, int generation, Cursor c) {
+        int count = c.getCount();
+        if (count > cache.getMaxRows()) {
+            return c;
+        }
+
+        String[] columns = c.getColumnNames();
+        Object[][] rows = new Object[count][];
+        int size = 0;
+        c.moveToPosition(-1);
+        for (int i = 0; c.moveToNext(); i++) {
+            Object[] row = new Object[columns.length];
+            for (int column = 0; column < row.length; column++) {
+                row[column] = NotePadProvider.getValue(c, column);
+            }
+            size += QueryCache.sizeOf(row);
+            if (size > cache.getMaxBytes()) {
+                // Served as it is, without the copy
+                c.moveToPosition(-1);
+                return c;
+            }
+            rows[i] = row;
+        }
+        c.close();
+        return new SnapshotCursor(cache.put(key, generation, columns, rows));
+    }
+
+    @Override
+    public int getCount() {
+        return mSnapshot.rows.length;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mSnapshot.columns;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mSnapshot.columns.length) {
+            throw new IndexOutOfBoundsException("Requested column: " + column
+                    + ", # of columns: " + mSnapshot.columns.length);
+        }
+        if (mPos < 0 || mPos >= mSnapshot.rows.length) {
+            throw new IndexOutOfBoundsException("Requested row: " + mPos
+                    + ", # of rows: " + mSnapshot.rows.length);
+        }
+        return mSnapshot.rows[mPos][column];
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            // As SQLiteCursor reads text that isn't a number
+            return 0;
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return (byte[]) get(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
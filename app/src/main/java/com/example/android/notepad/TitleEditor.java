@@ -17,6 +17,7 @@
 package com.example.android.notepad;
 
 import android.app.Activity;
+import android.content.AsyncQueryHandler;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
@@ -28,10 +29,9 @@ import android.widget.EditText;
  * This Activity allows the user to edit a note's title. It displays a floating window
  * containing an EditText.
  *
- * NOTE: Notice that the provider operations in this Activity are taking place on the UI thread.
- * This is not a good practice. It is only done here to make the code more readable. A real
- * application should use the {@link android.content.AsyncQueryHandler}
- * or {@link android.os.AsyncTask} object to perform operations asynchronously on a separate thread.
+ * The provider operations in this Activity run on a separate thread through an
+ * {@link android.content.AsyncQueryHandler}. The title box stays disabled until the note has
+ * been loaded.
  */
 public class TitleEditor extends Activity {
 
@@ -49,6 +49,10 @@ public class TitleEditor extends Activity {
     // The position of the title column in a Cursor returned by the provider.
     private static final int COLUMN_INDEX_TITLE = 1;
 
+    // Tokens of the provider operations started through mQueryHandler.
+    private static final int TOKEN_QUERY = 1;
+    private static final int TOKEN_UPDATE = 2;
+
     // A Cursor object that will contain the results of querying the provider for a note.
     private Cursor mCursor;
 
@@ -58,6 +62,11 @@ public class TitleEditor extends Activity {
     // A URI object for the note whose title is being edited.
     private Uri mUri;
 
+    // Runs the provider operations of this Activity on a worker thread.
+    private AsyncQueryHandler mQueryHandler;
+
+    private boolean mDestroyed;
+
     /**
      * This method is called by Android when the Activity is first started. From the incoming
      * Intent, it determines what kind of editing is desired, and then does it.
@@ -73,47 +82,63 @@ public class TitleEditor extends Activity {
         // title we need to edit.
         mUri = getIntent().getData();
 
+        // Gets the View ID for the EditText box, and disables it until the title is loaded.
+        mText = (EditText) this.findViewById(R.id.title);
+        mText.setEnabled(false);
+
         /*
-         * Using the URI passed in with the triggering Intent, gets the note.
-         *
-         * Note: This is being done on the UI thread. It will block the thread until the query
-         * completes. In a sample app, going against a simple provider based on a local database,
-         * the block will be momentary, but in a real app you should use
-         * android.content.AsyncQueryHandler or android.os.AsyncTask.
+         * Using the URI passed in with the triggering Intent, gets the note. The query runs on
+         * the worker thread, and onQueryComplete() displays the title when it finishes.
          */
-
-        mCursor = managedQuery(
+        mQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                onTitleLoaded(cursor);
+            }
+        };
+        mQueryHandler.startQuery(
+            TOKEN_QUERY,
+            null,
             mUri,        // The URI for the note that is to be retrieved.
             PROJECTION,  // The columns to retrieve
             null,        // No selection criteria are used, so no where columns are needed.
             null,        // No where columns are used, so no where values are needed.
             null         // No sort order is needed.
         );
-
-        // Gets the View ID for the EditText box
-        mText = (EditText) this.findViewById(R.id.title);
     }
 
     /**
-     * This method is called when the Activity is about to come to the foreground. This happens
-     * when the Activity comes to the top of the task stack, OR when it is first starting.
-     *
-     * Displays the current title for the selected note.
+     * Displays the current title for the selected note, once the query started in onCreate()
+     * has finished.
      */
-    @Override
-    protected void onResume() {
-        super.onResume();
-
-        // Verifies that the query made in onCreate() actually worked. If it worked, then the
-        // Cursor object is not null. If it is *empty*, then mCursor.getCount() == 0.
-        if (mCursor != null) {
+    private void onTitleLoaded(Cursor cursor) {
+        if (mDestroyed) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
 
-            // The Cursor was just retrieved, so its index is set to one record *before* the first
-            // record retrieved. This moves it to the first record.
-            mCursor.moveToFirst();
+        // Verifies that the query actually worked and found the note.
+        if (cursor != null && cursor.moveToFirst()) {
+            mCursor = cursor;
 
             // Displays the current title text in the EditText object.
             mText.setText(mCursor.getString(COLUMN_INDEX_TITLE));
+            mText.setEnabled(true);
+        } else if (cursor != null) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mDestroyed = true;
+        mQueryHandler.cancelOperation(TOKEN_QUERY);
+        if (mCursor != null) {
+            mCursor.close();
+            mCursor = null;
         }
     }
 
@@ -132,8 +157,7 @@ public class TitleEditor extends Activity {
     protected void onPause() {
         super.onPause();
 
-        // Verifies that the query made in onCreate() actually worked. If it worked, then the
-        // Cursor object is not null. If it is *empty*, then mCursor.getCount() == 0.
+        // Verifies that the note has been loaded. If it hasn't, there is no title to save.
 
         if (mCursor != null) {
 
@@ -144,14 +168,11 @@ public class TitleEditor extends Activity {
             values.put(NotePad.Notes.COLUMN_NAME_TITLE, mText.getText().toString());
 
             /*
-             * Updates the provider with the note's new title.
-             *
-             * Note: This is being done on the UI thread. It will block the thread until the
-             * update completes. In a sample app, going against a simple provider based on a
-             * local database, the block will be momentary, but in a real app you should use
-             * android.content.AsyncQueryHandler or android.os.AsyncTask.
+             * Updates the provider with the note's new title, on the worker thread.
              */
-            getContentResolver().update(
+            mQueryHandler.startUpdate(
+                TOKEN_UPDATE,
+                null,
                 mUri,    // The URI for the note to update.
                 values,  // The values map containing the columns to update and the values to use.
                 null,    // No selection criteria is used, so no "where" columns are needed.
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteJson;
+import com.example.android.notepad.store.NoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to export notes as the provider's NDJSON export writes them: every note of a store,
+ * and a single note of a megabyte. The JSON goes to a writer that only counts it, so the
+ * scores are those of reading and encoding, not of the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+
+    /**
+     * A store holding a single large note.
+     */
+    @State(Scope.Benchmark)
+    public static class LargeNote {
+
+        @Param({"MEMORY", "SQLITE", "SQLITE_CACHED"})
+        public StoreKind store;
+
+        /** The length of the note, in characters */
+        @Param({"1048576"})
+        public int length;
+
+        NoteStore notes;
+        long id;
+
+        private File mFile;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            mFile = StoreKind.tempDatabase();
+            notes = store.open(mFile);
+            id = notes.insert(NoteDataset.note(11, length));
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            notes.close();
+            mFile.delete();
+        }
+    }
+
+    @Benchmark
+    public long exportAll(LoadedStore store) throws IOException {
+        CountingWriter out = new CountingWriter();
+        for (Note note : store.notes.list(NoteStore.Order.CREATED, Integer.MAX_VALUE)) {
+            write(out, note);
+        }
+        return out.count;
+    }
+
+    @Benchmark
+    public long exportLargeNote(LargeNote large) throws IOException {
+        CountingWriter out = new CountingWriter();
+        write(out, large.notes.get(large.id));
+        return out.count;
+    }
+
+    private static void write(Writer out, Note note) throws IOException {
+        NoteJson.beginNote(out, note.title, note.created, note.modified);
+        if (note.content != null) {
+            NoteJson.writeEscaped(out, note.content);
+        }
+        NoteJson.endNote(out);
+    }
+
+    // Counts the characters written to it, and drops them
+    private static final class CountingWriter extends Writer {
+
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput of inserting notes, one per transaction as the editor saves a new note, and
+ * in batches of one transaction as an import does. Each iteration starts from an empty store,
+ * so the size of the database doesn't drift between iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InsertBenchmark {
+
+    // Enough distinct notes that the benchmark doesn't insert the same few over and over
+    private static final int NOTE_COUNT = 10000;
+
+    @Param({"MEMORY", "SQLITE"})
+    public StoreKind store;
+
+    /** The notes of a batch, so the scores of insertAll are batches per second */
+    @Param({"100"})
+    public int batchSize;
+
+    private List<Note> mNotes;
+    private File mFile;
+    private NoteStore mStore;
+    private int mNext;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        mNotes = NoteDataset.notes(21, NOTE_COUNT);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        mFile = StoreKind.tempDatabase();
+        mStore = store.open(mFile);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        mStore.close();
+        mFile.delete();
+    }
+
+    @Benchmark
+    public long insert() {
+        Note note = mNotes.get(mNext);
+        mNext = (mNext + 1) % NOTE_COUNT;
+        return mStore.insert(note);
+    }
+
+    @Benchmark
+    public int insertAll() {
+        int start = mNext;
+        mNext = (mNext + batchSize) % (NOTE_COUNT - batchSize);
+        return mStore.insertAll(mNotes.subList(start, start + batchSize));
+    }
+}
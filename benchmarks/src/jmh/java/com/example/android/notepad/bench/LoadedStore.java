@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteStore;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A store filled with a dataset of {@link NoteDataset}, shared by the threads of a trial of
+ * the read benchmarks. The notes are inserted in batches, as an import does, so the ids of a
+ * store of n notes are 1 to n.
+ */
+@State(Scope.Benchmark)
+public class LoadedStore {
+
+    // The notes inserted per transaction while loading
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"MEMORY", "SQLITE", "SQLITE_CACHED"})
+    public StoreKind store;
+
+    @Param({"1000", "100000"})
+    public int noteCount;
+
+    NoteStore notes;
+
+    private File mFile;
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        mFile = StoreKind.tempDatabase();
+        notes = store.open(mFile);
+        List<Note> dataset = NoteDataset.notes(7, noteCount);
+        for (int i = 0; i < noteCount; i += BATCH_SIZE) {
+            notes.insertAll(dataset.subList(i, Math.min(noteCount, i + BATCH_SIZE)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        notes.close();
+        mFile.delete();
+    }
+}
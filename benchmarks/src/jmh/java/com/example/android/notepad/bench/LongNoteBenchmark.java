@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of editing a single note as the editor does: saving it after a small change,
+ * and opening it again. On SQLite a save splits a long note into chunks, reads back the old
+ * content and stores the change as a revision delta, and an open reassembles the note from
+ * its chunks, or takes it from the note cache. Each iteration starts from a new store, so the
+ * revisions don't pile up between iterations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LongNoteBenchmark {
+
+    // The text typed in and deleted again by the edits
+    private static final String EDIT = " typed";
+
+    @Param({"MEMORY", "SQLITE", "SQLITE_CACHED"})
+    public StoreKind store;
+
+    /** The length of the note, in characters: a single chunk, and several */
+    @Param({"4096", "262144"})
+    public int length;
+
+    private final Random mRandom = new Random(5);
+
+    private Note mNote;
+    private File mFile;
+    private NoteStore mStore;
+    private long mId;
+
+    // Where EDIT was typed into the saved note, or -1 if the saved note is mNote
+    private int mEditAt = -1;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        mNote = NoteDataset.note(17, length);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        mFile = StoreKind.tempDatabase();
+        mStore = store.open(mFile);
+        mId = mStore.insert(mNote);
+        mEditAt = -1;
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        mStore.close();
+        mFile.delete();
+    }
+
+    /**
+     * Saves the note with a word typed in at a random place, or deleted again, so every save
+     * changes a few characters of the whole note.
+     */
+    @Benchmark
+    public boolean save() {
+        String content = mNote.content;
+        if (mEditAt < 0) {
+            mEditAt = mRandom.nextInt(content.length());
+            content = content.substring(0, mEditAt) + EDIT + content.substring(mEditAt);
+        } else {
+            mEditAt = -1;
+        }
+        return mStore.update(new Note(mId, mNote.title, content, mNote.created,
+                mNote.modified));
+    }
+
+    @Benchmark
+    public Note read() {
+        return mStore.get(mId);
+    }
+}
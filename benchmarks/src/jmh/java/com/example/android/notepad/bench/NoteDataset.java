@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates notes that look like the ones people keep, from a fixed seed so every run and
+ * every store sees the same data.
+ *
+ * Words are drawn from a vocabulary with Zipf's distribution, so a few words are in most notes
+ * and most words are in a few, as in natural text. Note lengths are skewed the same way: most
+ * notes are a few lines, and a few are many pages. Titles are the first words of the note, as
+ * the editor makes them, and the dates spread over two years.
+ */
+final class NoteDataset {
+
+    /** The number of distinct words */
+    static final int VOCABULARY_SIZE = 20000;
+
+    // Long enough for a note of a few pages, and short enough for a dataset of 100k to fit
+    private static final int MAX_WORDS = 4000;
+
+    private static final long TWO_YEARS = 2L * 365 * 24 * 60 * 60 * 1000;
+
+    // The start of the dates, fixed so the data doesn't depend on the day of the run
+    private static final long EPOCH = 1500000000000L;
+
+    private static final String[] WORDS = new String[VOCABULARY_SIZE];
+
+    // cumulative[i] is the probability of drawing one of the first i + 1 words
+    private static final double[] CUMULATIVE = new double[VOCABULARY_SIZE];
+
+    static {
+        Random random = new Random(1);
+        HashSet<String> words = new HashSet<String>();
+        double total = 0;
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            total += 1.0 / (i + 1);
+            CUMULATIVE[i] = total;
+            do {
+                WORDS[i] = makeWord(random, i);
+            } while (!words.add(WORDS[i]));
+        }
+        for (int i = 0; i < VOCABULARY_SIZE; i++) {
+            CUMULATIVE[i] /= total;
+        }
+    }
+
+    // This class cannot be instantiated
+    private NoteDataset() {
+    }
+
+    /**
+     * Returns the word of the given rank, 0 being the most frequent one.
+     */
+    static String word(int rank) {
+        return WORDS[rank];
+    }
+
+    /**
+     * Returns count notes, generated from the given seed. Their ids are {@link Note#NO_ID}.
+     */
+    static List<Note> notes(long seed, int count) {
+        Random random = new Random(seed);
+        ArrayList<Note> notes = new ArrayList<Note>(count);
+        for (int i = 0; i < count; i++) {
+            notes.add(note(random, wordCount(random)));
+        }
+        return notes;
+    }
+
+    /**
+     * Returns one note of at least the given number of characters.
+     */
+    static Note note(long seed, int length) {
+        Random random = new Random(seed);
+        StringBuilder content = new StringBuilder(length + 64);
+        while (content.length() < length) {
+            appendLine(random, content, 5 + random.nextInt(20));
+        }
+        return note(random, content.toString());
+    }
+
+    // A note of about words words
+    private static Note note(Random random, int words) {
+        StringBuilder content = new StringBuilder(words * 8);
+        while (words > 0) {
+            int line = Math.min(words, 3 + random.nextInt(15));
+            appendLine(random, content, line);
+            words -= line;
+        }
+        return note(random, content.toString());
+    }
+
+    private static Note note(Random random, String content) {
+        long created = EPOCH + (long) (random.nextDouble() * TWO_YEARS);
+        // Most notes are edited soon after they are written, some much later
+        long modified = created + (long) (TWO_YEARS * Math.pow(random.nextDouble(), 8));
+        int end = content.indexOf(' ', Math.min(content.length(), 20));
+        String title = end > 0 ? content.substring(0, end) : content;
+        return new Note(Note.NO_ID, title, content, created, modified);
+    }
+
+    private static void appendLine(Random random, StringBuilder content, int words) {
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                content.append(' ');
+            }
+            content.append(WORDS[rank(random)]);
+        }
+        content.append('\n');
+    }
+
+    // A log-normal number of words: a median of about 40, with a long tail
+    private static int wordCount(Random random) {
+        double words = Math.exp(3.7 + 1.2 * random.nextGaussian());
+        return (int) Math.max(1, Math.min(MAX_WORDS, words));
+    }
+
+    private static int rank(Random random) {
+        int i = Arrays.binarySearch(CUMULATIVE, random.nextDouble());
+        return Math.min(i >= 0 ? i : -i - 1, VOCABULARY_SIZE - 1);
+    }
+
+    // A pronounceable word, whose length grows slowly with its rank like that of real words.
+    // The rank is appended to the rarer ones so every word is distinct.
+    private static String makeWord(Random random, int rank) {
+        String consonants = "bcdfghklmnprstvwz";
+        String vowels = "aeiou";
+        int syllables = 1 + Math.min(3, (int) (Math.log10(rank + 1) + random.nextInt(2)));
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            word.append(consonants.charAt(random.nextInt(consonants.length())));
+            word.append(vowels.charAt(random.nextInt(vowels.length())));
+        }
+        if (rank >= 100) {
+            word.append(rank);
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.JdbcNoteStore;
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteDatabase;
+import com.example.android.notepad.store.NoteSchema;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of the single note operations of the editor, for ids spread uniformly over the
+ * store: reading a note as it opens, and replacing one as it saves. Run with {@code -prof gc}
+ * for their allocation as well.
+ *
+ * {@link #select} reads a note with the id bound, as the provider does, or pasted into the SQL
+ * as a literal, as it used to. A literal makes the SQL of every note different, so each read
+ * compiles its statement and pushes another out of the statement cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PointLookupBenchmark {
+
+    // The contents the notes are replaced with
+    private static final int EDIT_COUNT = 1000;
+
+    private final Random mRandom = new Random(3);
+
+    private List<Note> mEdits;
+    private int mNextEdit;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        mEdits = NoteDataset.notes(13, EDIT_COUNT);
+    }
+
+    /**
+     * How {@link #select} puts the id in its SQL.
+     */
+    public enum IdBinding {
+        /** Pasted into the SQL, as {@code _id = 42} */
+        LITERAL,
+
+        /** Bound to {@code _id = ?} */
+        BOUND
+    }
+
+    /**
+     * A SQLite database of notes, queried directly through the connection of the store.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        // The notes inserted per transaction while loading
+        private static final int BATCH_SIZE = 1000;
+
+        // Selects the columns of a note by id, which is appended or bound
+        private static final String SELECT = "SELECT " + NoteSchema.ID + ", "
+                + NoteSchema.TITLE + ", " + NoteSchema.NOTE + ", " + NoteSchema.CREATED + ", "
+                + NoteSchema.MODIFIED + " FROM " + NoteSchema.NOTES + " WHERE "
+                + NoteSchema.ID + " = ";
+
+        @Param({"LITERAL", "BOUND"})
+        public IdBinding binding;
+
+        @Param({"1000", "100000"})
+        public int noteCount;
+
+        Store store;
+
+        private File mFile;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            mFile = StoreKind.tempDatabase();
+            store = new Store(mFile);
+            List<Note> dataset = NoteDataset.notes(7, noteCount);
+            for (int i = 0; i < noteCount; i += BATCH_SIZE) {
+                store.insertAll(dataset.subList(i, Math.min(noteCount, i + BATCH_SIZE)));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            store.close();
+            mFile.delete();
+        }
+
+        // Reads the title of a note
+        String select(long id) {
+            NoteDatabase.Rows rows = binding == IdBinding.LITERAL
+                    ? store.database().query(SELECT + id)
+                    : store.database().query(SELECT + "?", id);
+            try {
+                return rows.next() ? rows.getString(1) : null;
+            } finally {
+                rows.close();
+            }
+        }
+    }
+
+    // A store that lets the benchmark query its connection
+    static final class Store extends JdbcNoteStore {
+
+        Store(File file) {
+            super("jdbc:sqlite:" + file.getPath());
+        }
+
+        NoteDatabase database() {
+            return getDatabase();
+        }
+    }
+
+    @Benchmark
+    public String select(Database database) {
+        return database.select(1 + mRandom.nextInt(database.noteCount));
+    }
+
+    @Benchmark
+    public Note get(LoadedStore store) {
+        return store.notes.get(1 + mRandom.nextInt(store.noteCount));
+    }
+
+    @Benchmark
+    public boolean update(LoadedStore store) {
+        Note edit = mEdits.get(mNextEdit);
+        mNextEdit = (mNextEdit + 1) % EDIT_COUNT;
+        return store.notes.update(edit.withId(1 + mRandom.nextInt(store.noteCount)));
+    }
+}
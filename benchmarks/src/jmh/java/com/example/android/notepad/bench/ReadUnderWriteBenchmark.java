@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.JdbcNoteStore;
+import com.example.android.notepad.store.Note;
+import com.example.android.notepad.store.NoteStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of the notes list while another connection saves notes as fast as it can, as
+ * when the list refreshes during an import or a sync. In WAL mode, the provider's, readers
+ * aren't blocked by the writer; in DELETE mode, where the provider falls back to when WAL
+ * can't be enabled, a commit waits for the readers and they wait for it. The {@code alone}
+ * group reads the same database without a writer, as the baseline.
+ *
+ * Every thread has its own connection to the database file.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadUnderWriteBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    /**
+     * The database file, filled once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Param({"10000"})
+        public int noteCount;
+
+        @Param({JdbcNoteStore.JOURNAL_MODE_DELETE, JdbcNoteStore.JOURNAL_MODE_WAL})
+        public String journalMode;
+
+        File file;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            file = StoreKind.tempDatabase();
+            NoteStore notes = connect(this);
+            try {
+                notes.insertAll(NoteDataset.notes(7, noteCount));
+            } finally {
+                notes.close();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            file.delete();
+        }
+    }
+
+    /**
+     * The connection of a thread.
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+
+        NoteStore notes;
+        List<Note> edits;
+        int nextEdit;
+        final Random random = new Random(5);
+
+        @Setup(Level.Trial)
+        public void open(Database database) {
+            notes = connect(database);
+            edits = NoteDataset.notes(13, 1000);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            notes.close();
+        }
+    }
+
+    // Opens a connection to the database file in its journal mode
+    private static NoteStore connect(Database database) {
+        return new JdbcNoteStore("jdbc:sqlite:" + database.file.getPath(),
+                database.journalMode, null, null);
+    }
+
+    @Benchmark
+    @Group("underWrite")
+    @GroupThreads(3)
+    public List<Note> read(Connection connection) {
+        return connection.notes.list(NoteStore.Order.MODIFIED, PAGE_SIZE);
+    }
+
+    @Benchmark
+    @Group("underWrite")
+    @GroupThreads(1)
+    public boolean write(Connection connection, Database database) {
+        Note edit = connection.edits.get(connection.nextEdit);
+        connection.nextEdit = (connection.nextEdit + 1) % connection.edits.size();
+        long id = 1 + connection.random.nextInt(database.noteCount);
+        // Saved now, so it moves to the top of the list the readers read
+        return connection.notes.update(new Note(id, edit.title, edit.content, edit.created,
+                System.currentTimeMillis()));
+    }
+
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(3)
+    public List<Note> readAlone(Connection connection) {
+        return connection.notes.list(NoteStore.Order.MODIFIED, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.Note;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a search of the titles and contents, for a page of results. The queries are
+ * picked by the frequency of their words: a common word matches most notes and must be ranked,
+ * a rare word matches a few, and two words match the notes that have both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    /** The kind of query */
+    @Param({"COMMON", "RARE", "TWO_WORDS"})
+    public String query;
+
+    private String mTerms;
+
+    @Setup
+    public void pick() {
+        if ("COMMON".equals(query)) {
+            mTerms = NoteDataset.word(5);
+        } else if ("RARE".equals(query)) {
+            mTerms = NoteDataset.word(5000);
+        } else {
+            mTerms = NoteDataset.word(20) + " " + NoteDataset.word(200);
+        }
+    }
+
+    @Benchmark
+    public List<Note> search(LoadedStore store) {
+        return store.notes.search(mTerms, PAGE_SIZE);
+    }
+}
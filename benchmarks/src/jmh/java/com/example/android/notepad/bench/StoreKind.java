@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.notepad.bench;
+
+import com.example.android.notepad.store.JdbcNoteStore;
+import com.example.android.notepad.store.MemoryNoteStore;
+import com.example.android.notepad.store.NoteCache;
+import com.example.android.notepad.store.NoteStore;
+import com.example.android.notepad.store.QueryCache;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The stores the benchmarks run against, as the values of their {@code store} parameter.
+ */
+public enum StoreKind {
+
+    /** The in-memory baseline */
+    MEMORY {
+        @Override
+        NoteStore open(File file) {
+            return new MemoryNoteStore();
+        }
+    },
+
+    /**
+     * SQLite on a file in WAL mode like the app's database, written and read by the provider's
+     * own code: long notes are split into chunks and read back whole, and every save adds a
+     * revision
+     */
+    SQLITE {
+        @Override
+        NoteStore open(File file) {
+            return new JdbcNoteStore("jdbc:sqlite:" + file.getPath());
+        }
+    },
+
+    /** {@link #SQLITE} behind the note and list caches of the provider, with its sizes */
+    SQLITE_CACHED {
+        @Override
+        NoteStore open(File file) {
+            return new JdbcNoteStore("jdbc:sqlite:" + file.getPath(),
+                    new NoteCache(NOTE_CACHE_BYTES),
+                    new QueryCache(QUERY_CACHE_BYTES, QUERY_CACHE_ROWS));
+        }
+    };
+
+    // The sizes of the caches of NotePadProvider
+    private static final int NOTE_CACHE_BYTES = 2 * 1024 * 1024;
+    private static final int QUERY_CACHE_BYTES = 1024 * 1024;
+    private static final int QUERY_CACHE_ROWS = 500;
+
+    /**
+     * Opens a store of this kind. The ones that keep a database keep it in the given file.
+     */
+    abstract NoteStore open(File file);
+
+    /**
+     * Returns a new temporary file for a database, deleted with its journals when the JVM exits.
+     */
+    static File tempDatabase() throws IOException {
+        File file = File.createTempFile("notes", ".db");
+        file.delete();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        return file;
+    }
+}
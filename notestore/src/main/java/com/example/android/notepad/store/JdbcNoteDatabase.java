@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link NoteDatabase} on a single JDBC connection, for {@link JdbcNoteStore}.
+ *
+ * Threads take turns on the connection: a statement holds it while it runs, a query until its
+ * rows are closed, and a transaction until it ends. Prepared statements are kept by SQL, as
+ * Android keeps them per connection, so the SQL of the notes is compiled once.
+ */
+final class JdbcNoteDatabase implements NoteDatabase {
+
+    // The number of prepared statements kept, that of an Android connection
+    private static final int STATEMENT_CACHE_SIZE = 25;
+
+    private final Connection mConnection;
+
+    // Held by the thread using the connection
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // The statements by SQL, least recently used first. Guarded by mLock.
+    private final LinkedHashMap<String, PreparedStatement> mStatements =
+            new LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= STATEMENT_CACHE_SIZE || mInUse.contains(eldest.getValue())) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+
+    // The cached statements whose rows are open. Guarded by mLock.
+    private final HashSet<PreparedStatement> mInUse = new HashSet<PreparedStatement>();
+
+    // The nesting of the current transaction, whether its innermost level was set successful,
+    // and whether any level ended without being set successful. Guarded by mLock.
+    private int mTransactionDepth;
+    private boolean mMarkedSuccessful;
+    private boolean mFailed;
+
+    JdbcNoteDatabase(String url) throws SQLException {
+        mConnection = DriverManager.getConnection(url);
+    }
+
+    @Override
+    public void execute(String sql, Object... args) {
+        mLock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, args);
+            try {
+                // A pragma may return a row, which must be closed before the next statement
+                if (statement.execute()) {
+                    statement.getResultSet().close();
+                }
+            } finally {
+                release(statement);
+            }
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to run " + sql, e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public long insert(String sql, Object... args) {
+        mLock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, args);
+            try {
+                statement.executeUpdate();
+            } finally {
+                release(statement);
+            }
+            // Runs on the same connection, so it is the id of this insert
+            PreparedStatement lastId = prepare("SELECT last_insert_rowid()");
+            try {
+                ResultSet id = lastId.executeQuery();
+                try {
+                    id.next();
+                    return id.getLong(1);
+                } finally {
+                    id.close();
+                }
+            } finally {
+                release(lastId);
+            }
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to run " + sql, e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int update(String sql, Object... args) {
+        mLock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, args);
+            try {
+                return statement.executeUpdate();
+            } finally {
+                release(statement);
+            }
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to run " + sql, e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public Rows query(String sql, Object... args) {
+        mLock.lock();
+        boolean returned = false;
+        try {
+            final PreparedStatement statement = prepare(sql, args);
+            try {
+                final ResultSet results = statement.executeQuery();
+                returned = true;
+                return new Rows() {
+                    private boolean mClosed;
+
+                    @Override
+                    public boolean next() {
+                        try {
+                            return results.next();
+                        } catch (SQLException e) {
+                            throw new NoteStoreException("Failed to read rows", e);
+                        }
+                    }
+
+                    @Override
+                    public boolean isNull(int column) {
+                        try {
+                            return results.getObject(column + 1) == null;
+                        } catch (SQLException e) {
+                            throw new NoteStoreException("Failed to read rows", e);
+                        }
+                    }
+
+                    @Override
+                    public long getLong(int column) {
+                        try {
+                            return results.getLong(column + 1);
+                        } catch (SQLException e) {
+                            throw new NoteStoreException("Failed to read rows", e);
+                        }
+                    }
+
+                    @Override
+                    public String getString(int column) {
+                        try {
+                            return results.getString(column + 1);
+                        } catch (SQLException e) {
+                            throw new NoteStoreException("Failed to read rows", e);
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        if (mClosed) {
+                            return;
+                        }
+                        mClosed = true;
+                        try {
+                            results.close();
+                        } catch (SQLException e) {
+                            throw new NoteStoreException("Failed to close rows", e);
+                        } finally {
+                            release(statement);
+                            mLock.unlock();
+                        }
+                    }
+                };
+            } finally {
+                if (!returned) {
+                    release(statement);
+                }
+            }
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to run " + sql, e);
+        } finally {
+            // The rows hold the lock until they are closed
+            if (!returned) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+        mLock.lock();
+        boolean begun = false;
+        try {
+            if (mTransactionDepth == 0) {
+                mConnection.setAutoCommit(false);
+                mFailed = false;
+            }
+            mTransactionDepth++;
+            mMarkedSuccessful = false;
+            begun = true;
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to begin a transaction", e);
+        } finally {
+            // The transaction holds the lock until it ends
+            if (!begun) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        checkTransaction();
+        mMarkedSuccessful = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        checkTransaction();
+        try {
+            if (!mMarkedSuccessful) {
+                mFailed = true;
+            }
+            // The level around this one hadn't been set successful when this one began
+            mMarkedSuccessful = false;
+            if (--mTransactionDepth == 0) {
+                try {
+                    if (mFailed) {
+                        mConnection.rollback();
+                    } else {
+                        mConnection.commit();
+                    }
+                } finally {
+                    mConnection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to end a transaction", e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void checkTransaction() {
+        if (!mLock.isHeldByCurrentThread() || mTransactionDepth == 0) {
+            throw new IllegalStateException("No transaction in progress on this thread");
+        }
+    }
+
+    /**
+     * Closes the statements and the connection.
+     */
+    void close() throws SQLException {
+        mLock.lock();
+        try {
+            for (PreparedStatement statement : mStatements.values()) {
+                closeQuietly(statement);
+            }
+            mStatements.clear();
+            mConnection.close();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    // Returns a statement of sql with args bound, cached unless the cached one is in use.
+    // Must be called with mLock held, and the statement passed to release().
+    private PreparedStatement prepare(String sql, Object... args) throws SQLException {
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mStatements.put(sql, statement);
+        } else if (mInUse.contains(statement)) {
+            // Runs a nested query of the same SQL on its own statement
+            statement = mConnection.prepareStatement(sql);
+        }
+        mInUse.add(statement);
+
+        statement.clearParameters();
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                statement.setNull(i + 1, Types.NULL);
+            } else if (arg instanceof Long || arg instanceof Integer) {
+                statement.setLong(i + 1, ((Number) arg).longValue());
+            } else {
+                statement.setObject(i + 1, arg);
+            }
+        }
+        return statement;
+    }
+
+    // Closes a statement that isn't cached, or was dropped from the cache while in use
+    private void release(PreparedStatement statement) {
+        mInUse.remove(statement);
+        if (!mStatements.containsValue(statement)) {
+            closeQuietly(statement);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Nothing to do about it
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.sql.SQLException;
+
+/**
+ * A {@link NoteStore} on an embedded SQLite database reached through JDBC, e.g. with the
+ * {@code jdbc:sqlite:notes.db} URL of the xerial driver, which the caller puts on its
+ * classpath. The database has the schema of the NotePad provider, {@link NoteSchema}, and is
+ * written by the provider's own code, {@link NoteSql} and {@link RevisionLog}, so the SQL the
+ * app runs can be measured and tested on a plain JVM.
+ *
+ * The store uses a single connection, which threads take turns on.
+ */
+public class JdbcNoteStore extends SqlNoteStore {
+
+    /** Write-ahead logging, the journal mode of the provider */
+    public static final String JOURNAL_MODE_WAL = "WAL";
+
+    /** The rollback journal, SQLite's default, which the provider keeps without WAL */
+    public static final String JOURNAL_MODE_DELETE = "DELETE";
+
+    private final JdbcNoteDatabase mDatabase;
+
+    /**
+     * Opens the database at the given JDBC URL, creating the schema if it doesn't exist.
+     */
+    public JdbcNoteStore(String url) {
+        this(url, null, null);
+    }
+
+    /**
+     * Opens the database at the given JDBC URL, creating the schema if it doesn't exist, and
+     * reads through the given caches, as the provider does.
+     *
+     * @param noteCache the cache of the notes read by id, or null
+     * @param queryCache the cache of listed pages, or null
+     */
+    public JdbcNoteStore(String url, NoteCache noteCache, QueryCache queryCache) {
+        this(url, JOURNAL_MODE_WAL, noteCache, queryCache);
+    }
+
+    /**
+     * Opens the database at the given JDBC URL in the given journal mode, creating the schema
+     * if it doesn't exist. The provider runs in WAL mode, and falls back to the rollback
+     * journal, {@link #JOURNAL_MODE_DELETE}, where WAL can't be enabled.
+     *
+     * @param journalMode {@link #JOURNAL_MODE_WAL} or {@link #JOURNAL_MODE_DELETE}
+     * @param noteCache the cache of the notes read by id, or null
+     * @param queryCache the cache of listed pages, or null
+     */
+    public JdbcNoteStore(String url, String journalMode, NoteCache noteCache,
+            QueryCache queryCache) {
+        super(noteCache, queryCache);
+        if (!JOURNAL_MODE_WAL.equals(journalMode) && !JOURNAL_MODE_DELETE.equals(journalMode)) {
+            throw new IllegalArgumentException("Unknown journal mode " + journalMode);
+        }
+        try {
+            mDatabase = new JdbcNoteDatabase(url);
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to open " + url, e);
+        }
+
+        // As the provider runs it. An in-memory database keeps its own journal mode.
+        mDatabase.execute("PRAGMA journal_mode=" + journalMode);
+        if (JOURNAL_MODE_WAL.equals(journalMode)) {
+            mDatabase.execute("PRAGMA synchronous=NORMAL");
+        }
+
+        mDatabase.beginTransaction();
+        try {
+            if (NoteSql.longForQuery(mDatabase, "SELECT count(*) FROM sqlite_master"
+                    + " WHERE type = 'table' AND name = ?", NoteSchema.NOTES) == 0) {
+                NoteSchema.create(mDatabase);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @Override
+    protected NoteDatabase getDatabase() {
+        return mDatabase;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mDatabase.close();
+        } catch (SQLException e) {
+            throw new NoteStoreException("Failed to close the database", e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A {@link NoteStore} that keeps the notes in memory. Lists are sorted and searches scan every
+ * note, so it is the baseline the indexed stores are measured against.
+ */
+public class MemoryNoteStore implements NoteStore {
+
+    private static final Comparator<Note> BY_MODIFIED = new Comparator<Note>() {
+        @Override
+        public int compare(Note a, Note b) {
+            int c = compareLongs(b.modified, a.modified);
+            return c != 0 ? c : compareLongs(b.id, a.id);
+        }
+    };
+
+    private static final Comparator<Note> BY_CREATED = new Comparator<Note>() {
+        @Override
+        public int compare(Note a, Note b) {
+            int c = compareLongs(b.created, a.created);
+            return c != 0 ? c : compareLongs(b.id, a.id);
+        }
+    };
+
+    private static final Comparator<Note> BY_TITLE = new Comparator<Note>() {
+        @Override
+        public int compare(Note a, Note b) {
+            int c = compareTitles(a.title, b.title);
+            return c != 0 ? c : compareLongs(a.id, b.id);
+        }
+    };
+
+    // The notes by id. Guarded by this.
+    private final HashMap<Long, Note> mNotes = new HashMap<Long, Note>();
+
+    // The id of the last note inserted. Guarded by this.
+    private long mLastId;
+
+    @Override
+    public synchronized long insert(Note note) {
+        long id = ++mLastId;
+        mNotes.put(id, note.withId(id));
+        return id;
+    }
+
+    @Override
+    public synchronized int insertAll(List<Note> notes) {
+        for (Note note : notes) {
+            insert(note);
+        }
+        return notes.size();
+    }
+
+    @Override
+    public synchronized Note get(long id) {
+        return mNotes.get(id);
+    }
+
+    @Override
+    public synchronized boolean update(Note note) {
+        if (!mNotes.containsKey(note.id)) {
+            return false;
+        }
+        mNotes.put(note.id, note);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        return mNotes.remove(id) != null;
+    }
+
+    @Override
+    public List<Note> list(Order order, int limit) {
+        ArrayList<Note> notes;
+        synchronized (this) {
+            notes = new ArrayList<Note>(mNotes.values());
+        }
+        Comparator<Note> comparator;
+        switch (order) {
+            case CREATED:
+                comparator = BY_CREATED;
+                break;
+            case TITLE:
+                comparator = BY_TITLE;
+                break;
+            default:
+                comparator = BY_MODIFIED;
+                break;
+        }
+        Collections.sort(notes, comparator);
+        return limit < notes.size() ? notes.subList(0, limit) : notes;
+    }
+
+    @Override
+    public List<Note> search(String text, int limit) {
+        String[] terms = NoteSearch.terms(text);
+        ArrayList<Note> notes;
+        synchronized (this) {
+            notes = new ArrayList<Note>(mNotes.values());
+        }
+
+        final HashMap<Note, Integer> scores = new HashMap<Note, Integer>();
+        ArrayList<Note> hits = new ArrayList<Note>();
+        for (Note note : notes) {
+            int score = NoteSearch.score(terms, note.title, note.content);
+            if (score > 0) {
+                scores.put(note, score);
+                hits.add(note);
+            }
+        }
+
+        // Most relevant by score first, then most recently modified, as the provider orders
+        // by its rank
+        Collections.sort(hits, new Comparator<Note>() {
+            @Override
+            public int compare(Note a, Note b) {
+                int c = scores.get(b) - scores.get(a);
+                return c != 0 ? c : BY_MODIFIED.compare(a, b);
+            }
+        });
+        return limit < hits.size() ? hits.subList(0, limit) : hits;
+    }
+
+    @Override
+    public synchronized void close() {
+        mNotes.clear();
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    // Null titles first, then about the order of SQLite's NOCASE collation, which only folds
+    // ASCII letters
+    private static int compareTitles(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            char x = a.charAt(i);
+            char y = b.charAt(i);
+            if (x >= 'A' && x <= 'Z') {
+                x = (char) (x + ('a' - 'A'));
+            }
+            if (y >= 'A' && y <= 'Z') {
+                y = (char) (y + ('a' - 'A'));
+            }
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+/**
+ * A note, as kept by a {@link NoteStore}. The fields are those of the notes table of the
+ * NotePad provider. Notes are immutable; a change is saved by passing a new note with the
+ * same id to {@link NoteStore#update}.
+ */
+public final class Note {
+
+    /** The id of a note that hasn't been inserted yet */
+    public static final long NO_ID = 0;
+
+    public final long id;
+    public final String title;
+    public final String content;
+
+    // Timestamps from System.currentTimeMillis()
+    public final long created;
+    public final long modified;
+
+    public Note(long id, String title, String content, long created, long modified) {
+        this.id = id;
+        this.title = title;
+        this.content = content;
+        this.created = created;
+        this.modified = modified;
+    }
+
+    /**
+     * Returns a copy of this note with the given id.
+     */
+    public Note withId(long id) {
+        return new Note(id, title, content, created, modified);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Note)) {
+            return false;
+        }
+        Note other = (Note) o;
+        return id == other.id && created == other.created && modified == other.modified
+                && equal(title, other.title) && equal(content, other.content);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32)) * 31 + (int) (modified ^ (modified >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "Note{id=" + id + ", title=" + title + ", modified=" + modified + "}";
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
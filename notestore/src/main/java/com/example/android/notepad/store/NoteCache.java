@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the rows of recently read notes, by note id, used by the NotePad provider and by
+ * {@link SqlNoteStore}. The least recently used rows are dropped once the estimated size of
+ * all of them passes a limit in bytes.
+ *
+ * Every invalidation bumps a generation. A reader that loads a row from the database takes the
+ * generation first and passes it to {@link #put}, so a row read before a write can't be cached
+ * after the write invalidated it.
+ */
+public final class NoteCache {
+
+    /**
+     * The columns and values of a note, in the order of the columns.
+     */
+    public static final class Row {
+        public final String[] columns;
+        public final Object[] values;
+
+        // The estimated number of bytes the row takes
+        final int size;
+
+        public Row(String[] columns, Object[] values) {
+            this.columns = columns;
+            this.values = values;
+            this.size = sizeOf(values);
+        }
+
+        /**
+         * Returns the values of the given columns, or of all of them if projection is null.
+         * Returns null if the row doesn't have one of the columns.
+         */
+        public Object[] project(String[] projection) {
+            if (projection == null) {
+                return values;
+            }
+            Object[] projected = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                int column = indexOf(projection[i]);
+                if (column < 0) {
+                    return null;
+                }
+                projected[i] = values[column];
+            }
+            return projected;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // Estimates of the bytes taken by a row, a string in it apart from its characters, and any
+    // other value
+    private static final int ROW_OVERHEAD = 64;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int VALUE_OVERHEAD = 16;
+
+    /**
+     * Returns the estimated number of bytes taken by a row of the given values.
+     */
+    public static int sizeOf(Object[] values) {
+        int size = ROW_OVERHEAD;
+        for (Object value : values) {
+            size += value instanceof String
+                    ? STRING_OVERHEAD + 2 * ((String) value).length() : VALUE_OVERHEAD;
+        }
+        return size;
+    }
+
+    private final int mMaxBytes;
+
+    // The rows, least recently used first
+    private final LinkedHashMap<Long, Row> mRows = new LinkedHashMap<Long, Row>(16, 0.75f, true);
+
+    private int mBytes;
+    private int mGeneration;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public NoteCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the row of a note, or null if it isn't cached.
+     */
+    public synchronized Row get(long noteId) {
+        Row row = mRows.get(noteId);
+        if (row != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return row;
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put} for a row about to be read.
+     */
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the row of a note, unless the cache was invalidated since generation was taken or
+     * the row alone is larger than the cache.
+     */
+    public synchronized void put(long noteId, Row row, int generation) {
+        if (generation != mGeneration || row.size > mMaxBytes) {
+            return;
+        }
+        Row old = mRows.put(noteId, row);
+        if (old != null) {
+            mBytes -= old.size;
+        }
+        mBytes += row.size;
+
+        Iterator<Map.Entry<Long, Row>> eldest = mRows.entrySet().iterator();
+        while (mBytes > mMaxBytes) {
+            mBytes -= eldest.next().getValue().size;
+            eldest.remove();
+            mEvictions++;
+        }
+    }
+
+    /**
+     * Drops the row of a note that was changed or deleted.
+     */
+    public synchronized void invalidate(long noteId) {
+        mGeneration++;
+        Row old = mRows.remove(noteId);
+        if (old != null) {
+            mBytes -= old.size;
+        }
+    }
+
+    /**
+     * Drops every row, after a change that may have touched any note.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mRows.clear();
+        mBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Returns the number of rows cached.
+     */
+    public synchronized int size() {
+        return mRows.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes taken by the rows cached.
+     */
+    public synchronized int getBytes() {
+        return mBytes;
+    }
+}
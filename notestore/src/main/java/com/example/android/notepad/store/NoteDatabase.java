@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.io.Closeable;
+
+/**
+ * The SQLite database the notes are kept in, as far as {@link NoteSql}, {@link RevisionLog}
+ * and {@link NoteSchema} use it. The app implements it on Android's SQLiteDatabase, and
+ * {@link JdbcNoteStore} on a JDBC connection, so both run the same SQL.
+ *
+ * Arguments are bound in order, and are Strings, Longs, Integers or null. Transactions nest
+ * as they do on Android: the outermost {@link #endTransaction} commits if every level set its
+ * transaction successful, and rolls back otherwise. Failures are thrown as unchecked
+ * exceptions, those of the platform or {@link NoteStoreException}.
+ */
+public interface NoteDatabase {
+
+    /**
+     * The rows of a query, read forward. Must be closed.
+     */
+    interface Rows extends Closeable {
+
+        /**
+         * Moves to the next row. Returns false past the last one.
+         */
+        boolean next();
+
+        boolean isNull(int column);
+
+        /**
+         * Returns the value of a column of the current row, 0 if it is null.
+         */
+        long getLong(int column);
+
+        String getString(int column);
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Runs a statement that returns no rows, such as DDL.
+     */
+    void execute(String sql, Object... args);
+
+    /**
+     * Runs an INSERT, and returns the row id of the new row.
+     */
+    long insert(String sql, Object... args);
+
+    /**
+     * Runs an UPDATE or a DELETE, and returns the number of rows it changed.
+     */
+    int update(String sql, Object... args);
+
+    /**
+     * Runs a query.
+     */
+    Rows query(String sql, Object... args);
+
+    void beginTransaction();
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+}
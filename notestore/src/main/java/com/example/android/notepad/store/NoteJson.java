@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes notes as newline-delimited JSON, the format of the NotePad provider's
+ * {@code EXPORT_TYPE_NDJSON} export. Each line is one object whose members are named after the
+ * note columns. Strings are escaped piece by piece, so the content of a note can be written
+ * one chunk at a time.
+ */
+public final class NoteJson {
+
+    // The names of the members, which are those of the columns of NotePad.Notes
+    private static final String TITLE = "title";
+    private static final String CREATE_DATE = "created";
+    private static final String MODIFICATION_DATE = "modified";
+    private static final String NOTE = "note";
+
+    // This class cannot be instantiated
+    private NoteJson() {
+    }
+
+    /**
+     * Starts the object of a note, and writes every member but the note content. The content
+     * follows as one or more calls to {@link #writeEscaped}, then {@link #endNote}.
+     */
+    public static void beginNote(Writer out, String title, long created, long modified)
+            throws IOException {
+        out.write("{\"");
+        out.write(TITLE);
+        out.write("\":\"");
+        if (title != null) {
+            writeEscaped(out, title);
+        }
+        out.write("\",\"");
+        out.write(CREATE_DATE);
+        out.write("\":");
+        out.write(Long.toString(created));
+        out.write(",\"");
+        out.write(MODIFICATION_DATE);
+        out.write("\":");
+        out.write(Long.toString(modified));
+        out.write(",\"");
+        out.write(NOTE);
+        out.write("\":\"");
+    }
+
+    /**
+     * Ends the object started by {@link #beginNote}, and the line.
+     */
+    public static void endNote(Writer out) throws IOException {
+        out.write("\"}\n");
+    }
+
+    /**
+     * Writes a line with one object whose members are the given columns. Longs and doubles
+     * are written as numbers, nulls as null, and any other value as a string.
+     */
+    public static void writeRow(Writer out, String[] columns, Object[] values)
+            throws IOException {
+        out.write('{');
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('"');
+            writeEscaped(out, columns[i]);
+            out.write("\":");
+            Object value = values[i];
+            if (value == null) {
+                out.write("null");
+            } else if (value instanceof Long || value instanceof Double) {
+                out.write(value.toString());
+            } else {
+                out.write('"');
+                writeEscaped(out, value.toString());
+                out.write('"');
+            }
+        }
+        out.write("}\n");
+    }
+
+    /**
+     * Writes text as the inside of a JSON string.
+     */
+    public static void writeEscaped(Writer out, String text) throws IOException {
+        // Copies runs of plain characters in one call, and escapes the others
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String escape;
+            switch (c) {
+                case '"': escape = "\\\""; break;
+                case '\\': escape = "\\\\"; break;
+                case '\n': escape = "\\n"; break;
+                case '\r': escape = "\\r"; break;
+                case '\t': escape = "\\t"; break;
+                default:
+                    if (c >= 0x20 && c != 0x2028 && c != 0x2029) {
+                        continue;
+                    }
+                    escape = String.format("\\u%04x", (int) c);
+            }
+            out.write(text, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(text, start, text.length() - start);
+    }
+}
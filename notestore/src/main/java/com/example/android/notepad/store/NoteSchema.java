@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+/**
+ * The schema of the notes database: the notes table, the chunks long notes continue in, the
+ * full-text index, the sort indexes, and the revisions. The NotePad provider creates its
+ * database with it, and {@link JdbcNoteStore} its own, so both have the same tables.
+ *
+ * The names are those of the NotePad contract, NotePad.Notes and NotePad.NoteChunks.
+ */
+public final class NoteSchema {
+
+    /*
+     * The notes table
+     */
+
+    public static final String NOTES = "notes";
+    public static final String ID = "_id";
+    public static final String TITLE = "title";
+
+    /** The content of a note, or its first chunk if the note is longer than a chunk */
+    public static final String NOTE = "note";
+
+    public static final String CREATED = "created";
+    public static final String MODIFIED = "modified";
+
+    /** The number of chunks a note continues in after the one in the notes table */
+    public static final String CHUNK_COUNT = "chunks";
+
+    /*
+     * The chunks table, which holds the chunks numbered from 1
+     */
+
+    public static final String CHUNKS = "note_chunks";
+    public static final String CHUNK_NOTE_ID = "note_id";
+    public static final String CHUNK_SEQ = "seq";
+    public static final String CHUNK_BODY = "body";
+
+    /** The most characters in a chunk */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /** The full-text shadow table that indexes note titles and bodies */
+    public static final String FTS = "notes_fts";
+
+    /**
+     * The column of the full-text table holding the {@link NoteSearch#bigrams} of the title,
+     * then of the content after a newline, which CJK terms are searched by
+     */
+    public static final String BIGRAMS = "bigrams";
+
+    // This class cannot be instantiated
+    private NoteSchema() {
+    }
+
+    /**
+     * Creates every table, index and trigger in an empty database.
+     */
+    public static void create(NoteDatabase db) {
+        db.execute("CREATE TABLE " + NOTES + " ("
+                + ID + " INTEGER PRIMARY KEY,"
+                + TITLE + " TEXT,"
+                + NOTE + " TEXT,"
+                + CREATED + " INTEGER,"
+                + MODIFIED + " INTEGER,"
+                + CHUNK_COUNT + " INTEGER NOT NULL DEFAULT 0"
+                + ");");
+        createFullTextIndex(db);
+        createIndexes(db);
+        createChunksTable(db);
+        RevisionLog.createTable(db);
+    }
+
+    /**
+     * Creates the table holding the chunks that long notes continue in, and the trigger that
+     * deletes the chunks of deleted notes. The first chunk of a note stays in the notes table,
+     * so the chunks table only holds the chunks numbered from 1.
+     */
+    public static void createChunksTable(NoteDatabase db) {
+        db.execute("CREATE TABLE " + CHUNKS + " ("
+                + CHUNK_NOTE_ID + " INTEGER NOT NULL,"
+                + CHUNK_SEQ + " INTEGER NOT NULL,"
+                + CHUNK_BODY + " TEXT,"
+                + "PRIMARY KEY (" + CHUNK_NOTE_ID + ", " + CHUNK_SEQ + ")"
+                + ");");
+
+        db.execute("CREATE TRIGGER note_chunks_delete AFTER DELETE ON " + NOTES + " BEGIN "
+                + "DELETE FROM " + CHUNKS + " WHERE " + CHUNK_NOTE_ID + " = old." + ID
+                + "; END;");
+    }
+
+    /**
+     * Creates one index per supported sort order. Each is keyed by the sort column and the
+     * note id, so it delivers the rows in keyset order without a sort step, and a page starts
+     * at its key without stepping over the pages before it. The indexes don't cover the list
+     * projection: its preview is cut from the note column, and its creation date isn't in the
+     * modified or title index, so each row of a page is still read from the notes table. That
+     * is one lookup by rowid per row shown rather than a scan of every note.
+     */
+    public static void createIndexes(NoteDatabase db) {
+        db.execute("CREATE INDEX notes_modified_index ON " + NOTES + " ("
+                + MODIFIED + ", " + ID + ", " + TITLE + ");");
+        db.execute("CREATE INDEX notes_created_index ON " + NOTES + " ("
+                + CREATED + ", " + ID + ", " + TITLE + ", " + MODIFIED + ");");
+        db.execute("CREATE INDEX notes_title_index ON " + NOTES + " ("
+                + TITLE + " COLLATE NOCASE, " + ID + ", " + MODIFIED + ");");
+    }
+
+    /**
+     * Creates the full-text shadow table of the notes table, plus the trigger that removes
+     * deleted notes from it. The shadow row of a note shares its id as docid. Inserts and
+     * updates are indexed by {@link NoteSql} with the whole content of the note, as a trigger
+     * would only see its first chunk.
+     */
+    public static void createFullTextIndex(NoteDatabase db) {
+        db.execute("CREATE VIRTUAL TABLE " + FTS + " USING fts4(" + TITLE + ", " + NOTE + ", "
+                + BIGRAMS + ");");
+
+        db.execute("CREATE TRIGGER notes_fts_delete AFTER DELETE ON " + NOTES + " BEGIN "
+                + "DELETE FROM " + FTS + " WHERE docid = old." + ID + "; END;");
+    }
+}
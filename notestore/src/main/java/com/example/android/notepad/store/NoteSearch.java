@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The search semantics shared by the stores: the free text typed by the user is split into
+ * words, and a note matches if its title or content has every word as the prefix of a word.
+ *
+ * The SQLite stores run the search as an FTS MATCH expression, see {@link #matchExpression}.
+ * Stores without a full-text index use {@link #score}, which follows the simple tokenizer of
+ * FTS: a word is a run of ASCII letters and digits or of non-ASCII characters, and only
+ * ASCII letters are folded to lower case.
+ *
+ * Chinese, Japanese and Korean text isn't split into words by spaces, so the simple tokenizer
+ * sees a whole sentence as one word, and a word in the middle of it can't be found as a
+ * prefix. A term with CJK characters is matched as a substring of the title or content
+ * instead, see {@link #substringTerms}. On SQLite, the full-text index also holds the
+ * {@link #bigrams} of the CJK text, which MATCH finds the term by as a phrase of its own
+ * bigrams.
+ */
+public final class NoteSearch {
+
+    // This class cannot be instantiated
+    private NoteSearch() {
+    }
+
+    /**
+     * Returns the words of the free text typed by the user, or an empty array if there are
+     * none. The words are split as the simple tokenizer splits the text it indexes, so
+     * "e-mail" is the two words "e" and "mail", and punctuation on its own is no word at all.
+     * Each word is then a single token, which {@link #score} can match like FTS does.
+     */
+    public static String[] terms(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        if (text != null) {
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                if (i < text.length() && isWordChar(text.charAt(i))) {
+                    if (start < 0) {
+                        start = i;
+                    }
+                } else if (start >= 0) {
+                    terms.add(text.substring(start, i));
+                    start = -1;
+                }
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * Turns the free text typed by the user into an FTS MATCH expression that requires every
+     * word. A word is matched as a prefix, and each run of CJK characters in a
+     * {@link #substringTerms substring term} as the phrase of its bigrams, or as a prefix if
+     * it is a single character, which finds the run anywhere in a run of the indexed
+     * {@link #bigrams}. FTS4 can't limit a phrase to the bigrams column, so a phrase of more
+     * than one bigram may also match separate words of the title or content, and the terms
+     * that leaves in doubt are checked on the matches with {@link #likeTerms}. Returns null if
+     * there are no words to search for.
+     */
+    public static String matchExpression(String text) {
+        StringBuilder match = new StringBuilder();
+        for (String term : terms(text)) {
+            if (!isSubstringTerm(term)) {
+                appendToken(match, "\"" + term + "*\"");
+                continue;
+            }
+            int i = 0;
+            while (i < term.length()) {
+                int start = i;
+                int count = 0;
+                while (i < term.length() && isCjk(term.codePointAt(i))) {
+                    i += Character.charCount(term.codePointAt(i));
+                    count++;
+                }
+                if (count == 0) {
+                    i += Character.charCount(term.codePointAt(i));
+                } else if (count == 1) {
+                    // A single character has no bigram of its own unless it ends a run, so it
+                    // is the start of one
+                    appendToken(match, "\"" + term.substring(start, i) + "*\"");
+                } else {
+                    StringBuilder phrase = new StringBuilder();
+                    appendBigrams(phrase, term.substring(start, i), false);
+                    appendToken(match, "\"" + phrase + "\"");
+                }
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    // Appends a token to a MATCH expression, after a space if it isn't the first
+    private static void appendToken(StringBuilder match, String token) {
+        if (match.length() > 0) {
+            match.append(' ');
+        }
+        match.append(token);
+    }
+
+    /**
+     * Returns the text the SQLite stores index in the {@link NoteSchema#BIGRAMS} column for
+     * text: each pair of consecutive characters of each run of CJK characters, followed by
+     * the last character of the run on its own, separated by spaces. "東京へ" is "東京 京へ へ".
+     * Returns an empty string if text has no CJK characters.
+     */
+    public static String bigrams(String text) {
+        StringBuilder bigrams = new StringBuilder();
+        if (text != null) {
+            int i = 0;
+            while (i < text.length()) {
+                int start = i;
+                while (i < text.length() && isCjk(text.codePointAt(i))) {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+                if (i > start) {
+                    if (bigrams.length() > 0) {
+                        bigrams.append(' ');
+                    }
+                    appendBigrams(bigrams, text.substring(start, i), true);
+                } else {
+                    i += Character.charCount(text.codePointAt(i));
+                }
+            }
+        }
+        return bigrams.toString();
+    }
+
+    // Appends the bigrams of a run of CJK characters, and its last character if last is set,
+    // which lets a single character be found at the end of a run, where it starts no bigram
+    private static void appendBigrams(StringBuilder bigrams, String run, boolean last) {
+        int first = 0;
+        int second = Character.charCount(run.codePointAt(0));
+        while (second < run.length()) {
+            int end = second + Character.charCount(run.codePointAt(second));
+            if (first > 0) {
+                bigrams.append(' ');
+            }
+            bigrams.append(run, first, end);
+            first = second;
+            second = end;
+        }
+        if (last) {
+            bigrams.append(first > 0 ? " " : "").append(run, first, run.length());
+        }
+    }
+
+    /**
+     * Returns the words of the free text that are matched as substrings rather than as
+     * prefixes, those with CJK characters.
+     */
+    public static String[] substringTerms(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (String term : terms(text)) {
+            if (isSubstringTerm(term)) {
+                terms.add(term);
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * Returns the substring terms that MATCH only narrows down to the notes to check with a
+     * {@link #likePattern}: those that also have characters other than CJK ones, and those
+     * with a run of more than two CJK characters, the phrase of which has more than one
+     * bigram. Terms of one or two CJK characters are matched exactly by MATCH alone.
+     */
+    public static String[] likeTerms(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (String term : substringTerms(text)) {
+            int run = 0;
+            for (int i = 0; i < term.length(); ) {
+                int c = term.codePointAt(i);
+                run = isCjk(c) ? run + 1 : -1;
+                if (run < 0 || run > 2) {
+                    terms.add(term);
+                    break;
+                }
+                i += Character.charCount(c);
+            }
+        }
+        return terms.toArray(new String[terms.size()]);
+    }
+
+    /**
+     * Returns a LIKE pattern that matches text containing term, to be run with
+     * {@code ESCAPE '\'}.
+     */
+    public static String likePattern(String term) {
+        StringBuilder pattern = new StringBuilder(term.length() + 2).append('%');
+        for (int i = 0; i < term.length(); i++) {
+            char c = term.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Whether a term is matched as a substring, because it has CJK characters.
+     */
+    public static boolean isSubstringTerm(String term) {
+        for (int i = 0; i < term.length(); ) {
+            int c = term.codePointAt(i);
+            if (isCjk(c)) {
+                return true;
+            }
+            i += Character.charCount(c);
+        }
+        return false;
+    }
+
+    // Whether c is in the scripts written without spaces between words: the CJK ideographs,
+    // radicals and punctuation, kana, and Hangul syllables
+    private static boolean isCjk(int c) {
+        return (c >= 0x2E80 && c <= 0x9FFF)
+                || (c >= 0xAC00 && c <= 0xD7AF)
+                || (c >= 0xF900 && c <= 0xFAFF)
+                || (c >= 0xFF66 && c <= 0xFF9F)
+                || (c >= 0x20000 && c <= 0x2FA1F);
+    }
+
+    /**
+     * Whether every note matching terms also matches previous, because each previous term is a
+     * prefix of one of terms, as when the user types on after a search. The matches of terms
+     * can then be picked out of those of previous with {@link #score}.
+     */
+    public static boolean narrows(String[] terms, String[] previous) {
+        for (String term : previous) {
+            String folded = term.toLowerCase(Locale.US);
+            boolean substring = isSubstringTerm(term);
+            boolean found = false;
+            for (String t : terms) {
+                // A substring term is implied by any term containing it, and a prefix term
+                // by a prefix term it starts
+                if (substring ? t.contains(term)
+                        : !isSubstringTerm(t) && t.toLowerCase(Locale.US).startsWith(folded)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of words of the title and content that one of the terms is a prefix
+     * of, plus the number of times a substring term occurs in them, or 0 if any term matches
+     * none of them. A higher score is a more relevant note. It is close to, but not the same
+     * as, the rank of the SQLite stores, which is the length of the FTS offsets of the matches
+     * and counts the bigrams a substring term matched.
+     */
+    public static int score(String[] terms, String title, String content) {
+        if (terms.length == 0) {
+            return 0;
+        }
+        // The substring terms are left null here, and counted apart
+        String[] folded = new String[terms.length];
+        boolean[] matched = new boolean[terms.length];
+        int score = 0;
+        for (int i = 0; i < terms.length; i++) {
+            if (isSubstringTerm(terms[i])) {
+                int count = occurrences(title, terms[i]) + occurrences(content, terms[i]);
+                matched[i] = count > 0;
+                score += count;
+            } else {
+                folded[i] = terms[i].toLowerCase(Locale.US);
+            }
+        }
+
+        score += score(folded, matched, title) + score(folded, matched, content);
+        for (boolean m : matched) {
+            if (!m) {
+                return 0;
+            }
+        }
+        return score;
+    }
+
+    private static int score(String[] terms, boolean[] matched, String text) {
+        if (text == null) {
+            return 0;
+        }
+        int score = 0;
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            // Skips to the start of the next word
+            while (start < length && !isWordChar(text.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while (end < length && isWordChar(text.charAt(end))) {
+                end++;
+            }
+            if (end > start) {
+                for (int i = 0; i < terms.length; i++) {
+                    if (terms[i] != null && startsWithFolded(text, start, end, terms[i])) {
+                        matched[i] = true;
+                        score++;
+                    }
+                }
+            }
+            start = end;
+        }
+        return score;
+    }
+
+    private static int occurrences(String text, String term) {
+        if (text == null) {
+            return 0;
+        }
+        int count = 0;
+        for (int i = text.indexOf(term); i >= 0; i = text.indexOf(term, i + term.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z');
+    }
+
+    // Whether the word text[start, end) starts with the lower case term
+    private static boolean startsWithFolded(String text, int start, int end, String term) {
+        if (end - start < term.length()) {
+            return false;
+        }
+        for (int i = 0; i < term.length(); i++) {
+            char c = text.charAt(start + i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and writes notes in a database of {@link NoteSchema}. The NotePad provider runs its
+ * inserts and updates through here, with the columns of the caller's ContentValues, and
+ * {@link SqlNoteStore} with those of a {@link Note}, so both keep long notes in chunks and add
+ * the revisions of every save the same way.
+ *
+ * A note longer than {@link NoteSchema#CHUNK_SIZE} characters keeps its first chunk in the
+ * note column, and continues in the chunks table, so no row is larger than a cursor window.
+ * The full-text index is written here too, in the transaction of the write, with the whole
+ * content of the note rather than the first chunk a trigger would see.
+ */
+public final class NoteSql {
+
+    // Selects a single note by the id bound as its argument
+    private static final String ID_WHERE = NoteSchema.ID + " = ?";
+
+    /**
+     * Selects a range of the chunks of a note, bound as (note id, note id, first chunk,
+     * limit), as (seq, body) rows. Chunk 0 is the start of the note, which is kept in the
+     * notes table.
+     */
+    public static final String CHUNKS_QUERY = "SELECT "
+            + NoteSchema.CHUNK_SEQ + ", " + NoteSchema.CHUNK_BODY
+            + " FROM (SELECT 0 AS " + NoteSchema.CHUNK_SEQ + ", "
+            + NoteSchema.NOTE + " AS " + NoteSchema.CHUNK_BODY
+            + " FROM " + NoteSchema.NOTES + " WHERE " + NoteSchema.ID + " = ?"
+            + " UNION ALL SELECT " + NoteSchema.CHUNK_SEQ + ", " + NoteSchema.CHUNK_BODY
+            + " FROM " + NoteSchema.CHUNKS + " WHERE " + NoteSchema.CHUNK_NOTE_ID + " = ?)"
+            + " WHERE " + NoteSchema.CHUNK_SEQ + " >= CAST(? AS INTEGER)"
+            + " ORDER BY " + NoteSchema.CHUNK_SEQ + " LIMIT ?";
+
+    // Relevance of a full-text hit: the more (and longer) the matches, the longer its offsets
+    // list
+    private static final String SEARCH_RANK = "rank";
+
+    /** The order of search results, most relevant first */
+    public static final String SEARCH_SORT_ORDER = SEARCH_RANK + " DESC, "
+            + NoteSchema.MODIFIED + " DESC";
+
+    /**
+     * Returns the tables of a search for the free text typed by the user: the notes table
+     * joined to the notes whose full-text row matches the {@link NoteSearch#matchExpression},
+     * and has each of the {@link NoteSearch#likeTerms} in its title or content, bound as
+     * {@link #searchArgs}. The LIKE checks only run on the rows MATCH found. Returns null if
+     * there is nothing to search for.
+     */
+    public static String searchTables(String text) {
+        if (NoteSearch.matchExpression(text) == null) {
+            return null;
+        }
+
+        StringBuilder tables = new StringBuilder(NoteSchema.NOTES).append(" JOIN (SELECT docid, ")
+                .append("length(offsets(").append(NoteSchema.FTS).append(")) AS ")
+                .append(SEARCH_RANK).append(" FROM ").append(NoteSchema.FTS).append(" WHERE ")
+                .append(NoteSchema.FTS).append(" MATCH ?");
+        for (int i = NoteSearch.likeTerms(text).length; i > 0; i--) {
+            tables.append(" AND (").append(NoteSchema.TITLE).append(" LIKE ? ESCAPE '\\' OR ")
+                    .append(NoteSchema.NOTE).append(" LIKE ? ESCAPE '\\')");
+        }
+        return tables.append(") AS hits ON ").append(NoteSchema.NOTES).append('.')
+                .append(NoteSchema.ID).append(" = hits.docid").toString();
+    }
+
+    /**
+     * Returns the arguments of {@link #searchTables} for the same text.
+     */
+    public static String[] searchArgs(String text) {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(NoteSearch.matchExpression(text));
+        for (String term : NoteSearch.likeTerms(text)) {
+            String pattern = NoteSearch.likePattern(term);
+            // Once for the title and once for the content
+            args.add(pattern);
+            args.add(pattern);
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    // Inserts a chunk, bound as (note id, seq, body)
+    private static final String INSERT_CHUNK = "INSERT INTO " + NoteSchema.CHUNKS + " ("
+            + NoteSchema.CHUNK_NOTE_ID + ", " + NoteSchema.CHUNK_SEQ + ", "
+            + NoteSchema.CHUNK_BODY + ") VALUES (?, ?, ?)";
+
+    // Adds a note to the full-text index, bound as (note id, title, whole content, bigrams)
+    private static final String INDEX_NOTE = "INSERT INTO " + NoteSchema.FTS + " (docid, "
+            + NoteSchema.TITLE + ", " + NoteSchema.NOTE + ", " + NoteSchema.BIGRAMS
+            + ") VALUES (?, ?, ?, ?)";
+
+    // Removes a note from the full-text index, bound as (note id)
+    private static final String UNINDEX_NOTE = "DELETE FROM " + NoteSchema.FTS
+            + " WHERE docid = ?";
+
+    // Replaces the title of a note in the full-text index, bound as (title, bigrams, note id)
+    private static final String INDEX_TITLE = "UPDATE " + NoteSchema.FTS + " SET "
+            + NoteSchema.TITLE + " = ?, " + NoteSchema.BIGRAMS + " = ? WHERE docid = ?";
+
+    // Selects the title of a note, bound as (note id)
+    private static final String TITLE_QUERY = "SELECT " + NoteSchema.TITLE + " FROM "
+            + NoteSchema.NOTES + " WHERE " + ID_WHERE;
+
+    // Selects the indexed bigrams of a note, bound as (note id)
+    private static final String BIGRAMS_QUERY = "SELECT " + NoteSchema.BIGRAMS + " FROM "
+            + NoteSchema.FTS + " WHERE docid = ?";
+
+    // This class cannot be instantiated
+    private NoteSql() {
+    }
+
+    /**
+     * Inserts a note with the given columns and values, keeping the note content in chunks
+     * if it is long. The chunk count is set here, and dropped from columns if it is there.
+     *
+     * @param revision whether the content, if any, starts the history of the note
+     * @return the id of the new note
+     */
+    public static long insert(NoteDatabase db, String[] columns, Object[] values,
+            boolean revision) {
+        int noteColumn = indexOf(columns, NoteSchema.NOTE);
+        String note = noteColumn >= 0 ? asString(values[noteColumn]) : null;
+        List<String> chunks = split(note);
+
+        ArrayList<String> rowColumns = new ArrayList<String>(columns.length + 1);
+        ArrayList<Object> args = new ArrayList<Object>(columns.length + 1);
+        addRow(columns, values, chunks, rowColumns, args);
+        StringBuilder sql = new StringBuilder("INSERT INTO " + NoteSchema.NOTES + " (");
+        for (int i = 0; i < rowColumns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(rowColumns.get(i));
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < rowColumns.size(); i++) {
+            sql.append(i > 0 ? ", ?" : "?");
+        }
+        sql.append(')');
+
+        db.beginTransaction();
+        try {
+            long id = db.insert(sql.toString(), args.toArray());
+            if (id > 0) {
+                if (chunks.size() > 1) {
+                    writeChunks(db, id, chunks);
+                }
+                addToIndex(db, id, note);
+                if (revision && note != null && note.length() > 0) {
+                    RevisionLog.add(db, id, null, note, revisionTime(columns, values));
+                }
+            }
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates a single note, as the editor does on every save. If the content is set, its
+     * chunks are replaced, and a revision is added as a delta against the content it replaces.
+     *
+     * @return the number of notes updated, 0 or 1
+     */
+    public static int update(NoteDatabase db, long id, String[] columns, Object[] values) {
+        int noteColumn = indexOf(columns, NoteSchema.NOTE);
+        if (noteColumn < 0) {
+            if (indexOf(columns, NoteSchema.TITLE) < 0) {
+                return updateRows(db, columns, values, null, ID_WHERE, id);
+            }
+            db.beginTransaction();
+            try {
+                int count = updateRows(db, columns, values, null, ID_WHERE, id);
+                if (count > 0) {
+                    indexTitle(db, id);
+                }
+                db.setTransactionSuccessful();
+                return count;
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        String note = asString(values[noteColumn]);
+        List<String> chunks = split(note);
+        db.beginTransaction();
+        try {
+            // The revision is stored as a delta against the content being replaced
+            String oldNote = readWholeNote(db, id);
+            int count = updateRows(db, columns, values, chunks, ID_WHERE, id);
+            if (count > 0) {
+                writeChunks(db, id, chunks);
+                indexNote(db, id, note);
+                RevisionLog.add(db, id, oldNote, note, revisionTime(columns, values));
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Updates the notes matching the where clause. If the content is set, it is split into
+     * chunks as needed, and the chunks of every updated note are replaced.
+     *
+     * @return the number of notes updated
+     */
+    public static int update(NoteDatabase db, String[] columns, Object[] values, String where,
+            Object... whereArgs) {
+        int noteColumn = indexOf(columns, NoteSchema.NOTE);
+        boolean title = indexOf(columns, NoteSchema.TITLE) >= 0;
+        if (noteColumn < 0 && !title) {
+            return updateRows(db, columns, values, null, where, whereArgs);
+        }
+
+        String note = noteColumn >= 0 ? asString(values[noteColumn]) : null;
+        List<String> chunks = noteColumn >= 0 ? split(note) : null;
+        db.beginTransaction();
+        try {
+            // Finds the notes to update first, since the update may change what matches
+            ArrayList<Long> ids = new ArrayList<Long>();
+            NoteDatabase.Rows rows = db.query("SELECT " + NoteSchema.ID + " FROM "
+                    + NoteSchema.NOTES + (where != null ? " WHERE " + where : ""),
+                    whereArgs != null ? whereArgs : new Object[0]);
+            try {
+                while (rows.next()) {
+                    ids.add(rows.getLong(0));
+                }
+            } finally {
+                rows.close();
+            }
+
+            int count = updateRows(db, columns, values, chunks, where, whereArgs);
+            if (chunks == null) {
+                for (long id : ids) {
+                    indexTitle(db, id);
+                }
+            } else {
+                // The old content isn't read for a bulk update, so each revision is a snapshot
+                long time = revisionTime(columns, values);
+                for (long id : ids) {
+                    writeChunks(db, id, chunks);
+                    indexNote(db, id, note);
+                    RevisionLog.add(db, id, null, note, time);
+                }
+            }
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Runs the UPDATE of the notes table. The chunk count is set if chunks isn't null, and
+    // dropped from columns otherwise.
+    private static int updateRows(NoteDatabase db, String[] columns, Object[] values,
+            List<String> chunks, String where, Object... whereArgs) {
+        ArrayList<String> rowColumns = new ArrayList<String>(columns.length + 1);
+        ArrayList<Object> args = new ArrayList<Object>();
+        addRow(columns, values, chunks, rowColumns, args);
+        if (rowColumns.isEmpty()) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE " + NoteSchema.NOTES + " SET ");
+        for (int i = 0; i < rowColumns.size(); i++) {
+            sql.append(i > 0 ? ", " : "").append(rowColumns.get(i)).append(" = ?");
+        }
+        if (where != null) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (whereArgs != null) {
+            Collections.addAll(args, whereArgs);
+        }
+        return db.update(sql.toString(), args.toArray());
+    }
+
+    // Adds the columns of the notes row and their values, with the first chunk for the
+    // content and the chunk count if there are chunks
+    private static void addRow(String[] columns, Object[] values, List<String> chunks,
+            List<String> rowColumns, List<Object> args) {
+        for (int i = 0; i < columns.length; i++) {
+            if (NoteSchema.CHUNK_COUNT.equals(columns[i])) {
+                continue;
+            }
+            rowColumns.add(columns[i]);
+            args.add(NoteSchema.NOTE.equals(columns[i]) ? chunks.get(0) : values[i]);
+        }
+        if (chunks != null) {
+            rowColumns.add(NoteSchema.CHUNK_COUNT);
+            args.add(chunks.size() - 1);
+        }
+    }
+
+    /**
+     * Splits the content of a note into the chunks it is stored in, the first of which is
+     * kept in the notes table. A null or short note is a single chunk.
+     */
+    public static List<String> split(String note) {
+        if (note == null || note.length() <= NoteSchema.CHUNK_SIZE) {
+            return Collections.singletonList(note);
+        }
+        ArrayList<String> chunks = new ArrayList<String>();
+        int start = 0;
+        while (start < note.length()) {
+            int end = chunkEnd(note, start);
+            chunks.add(note.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Ends a chunk at most CHUNK_SIZE characters after start, without splitting a surrogate pair
+    private static int chunkEnd(String note, int start) {
+        int end = Math.min(note.length(), start + NoteSchema.CHUNK_SIZE);
+        if (end < note.length() && Character.isHighSurrogate(note.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Replaces the chunks a note continues in with those after the first of chunks. Must be
+     * called in a transaction.
+     */
+    public static void writeChunks(NoteDatabase db, long noteId, List<String> chunks) {
+        db.update("DELETE FROM " + NoteSchema.CHUNKS + " WHERE " + NoteSchema.CHUNK_NOTE_ID
+                + " = ?", noteId);
+        for (int i = 1; i < chunks.size(); i++) {
+            db.insert(INSERT_CHUNK, noteId, i, chunks.get(i));
+        }
+    }
+
+    /**
+     * Replaces the full-text row of a note with its current title and the given whole
+     * content. Must be called in a transaction.
+     */
+    public static void indexNote(NoteDatabase db, long noteId, String note) {
+        db.update(UNINDEX_NOTE, noteId);
+        addToIndex(db, noteId, note);
+    }
+
+    private static void addToIndex(NoteDatabase db, long noteId, String note) {
+        String title = stringForQuery(db, TITLE_QUERY, noteId);
+        db.insert(INDEX_NOTE, noteId, title, note,
+                NoteSearch.bigrams(title) + '\n' + NoteSearch.bigrams(note));
+    }
+
+    // Copies the title of a note to its full-text row. The bigrams of the content are kept
+    // from the row, after the newline that ends those of the old title, so the content isn't
+    // read for a rename.
+    private static void indexTitle(NoteDatabase db, long noteId) {
+        String bigrams = stringForQuery(db, BIGRAMS_QUERY, noteId);
+        String title = stringForQuery(db, TITLE_QUERY, noteId);
+        db.update(INDEX_TITLE, title, NoteSearch.bigrams(title) + '\n'
+                + (bigrams != null ? bigrams.substring(bigrams.indexOf('\n') + 1) : ""), noteId);
+    }
+
+    /**
+     * Returns the whole content of a note, or null if there is no such note.
+     */
+    public static String readWholeNote(NoteDatabase db, long noteId) {
+        NoteDatabase.Rows rows = db.query(CHUNKS_QUERY, noteId, noteId, 0, -1);
+        try {
+            if (!rows.next()) {
+                return null;
+            }
+            String head = rows.getString(1);
+            if (!rows.next()) {
+                return head;
+            }
+            StringBuilder note = new StringBuilder(head);
+            do {
+                note.append(rows.getString(1));
+            } while (rows.next());
+            return note.toString();
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Returns the value of the first column of the first row of a query, 0 if there is none.
+     */
+    public static long longForQuery(NoteDatabase db, String sql, Object... args) {
+        NoteDatabase.Rows rows = db.query(sql, args);
+        try {
+            return rows.next() ? rows.getLong(0) : 0;
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Returns the value of the first column of the first row of a query, null if there is
+     * none.
+     */
+    public static String stringForQuery(NoteDatabase db, String sql, Object... args) {
+        NoteDatabase.Rows rows = db.query(sql, args);
+        try {
+            return rows.next() ? rows.getString(0) : null;
+        } finally {
+            rows.close();
+        }
+    }
+
+    // Dates a revision with the modification date being saved, if any
+    private static long revisionTime(String[] columns, Object[] values) {
+        int modified = indexOf(columns, NoteSchema.MODIFIED);
+        Object value = modified >= 0 ? values[modified] : null;
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value != null) {
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                // Not a date, so the revision is dated now
+            }
+        }
+        return System.currentTimeMillis();
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (column.equals(columns[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * The storage of the notes. {@link MemoryNoteStore} and {@link JdbcNoteStore} implement it on
+ * a plain JVM, so the storage paths can be profiled and benchmarked without a device.
+ *
+ * The NotePad provider doesn't go through this interface, as it takes ContentValues,
+ * selections and projections of any columns. It shares the layer below instead: its reads
+ * and writes run {@link NoteSql} on a {@link NoteDatabase}, which the app implements on
+ * Android's SQLite, and {@link JdbcNoteStore} runs the same NoteSql over JDBC.
+ *
+ * Implementations are safe to use from several threads. Failures of the underlying storage
+ * are thrown as {@link NoteStoreException}, or as the unchecked exception of the platform.
+ */
+public interface NoteStore extends Closeable {
+
+    /**
+     * The orders notes are listed in. Ties are broken by id, in the same direction.
+     */
+    enum Order {
+        /** Most recently modified first, the order of the notes list */
+        MODIFIED,
+
+        /** Most recently created first */
+        CREATED,
+
+        /** Alphabetically by title, ignoring case */
+        TITLE,
+    }
+
+    /**
+     * Inserts a note, ignoring its id.
+     *
+     * @return the id of the new note
+     */
+    long insert(Note note);
+
+    /**
+     * Inserts notes in a single transaction, ignoring their ids, as the provider's bulkInsert
+     * does for imports.
+     *
+     * @return the number of notes inserted
+     */
+    int insertAll(List<Note> notes);
+
+    /**
+     * Returns the note with the given id, or null if there is none.
+     */
+    Note get(long id);
+
+    /**
+     * Replaces the title, content and dates of the note with the id of the given one.
+     *
+     * @return false if there is no such note
+     */
+    boolean update(Note note);
+
+    /**
+     * Deletes a note.
+     *
+     * @return false if there is no such note
+     */
+    boolean delete(long id);
+
+    /**
+     * Returns up to limit notes in the given order.
+     */
+    List<Note> list(Order order, int limit);
+
+    /**
+     * Returns up to limit notes whose title or content has every word of terms, each as the
+     * prefix of a word, most relevant first. See {@link NoteSearch}.
+     */
+    List<Note> search(String terms, int limit);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of the results of list queries, used by the NotePad provider and by
+ * {@link SqlNoteStore}. A result is kept as an immutable snapshot of its rows, keyed by
+ * everything that defines the query, and stamped with the write generation of its owner at the
+ * time the query started. A snapshot is only served while the generation is unchanged, so any
+ * write since makes the next query run again. Each hit returns the shared snapshot, which the
+ * caller reads without copying the rows.
+ */
+public final class QueryCache {
+
+    // Estimates of the bytes taken by a snapshot, a row, a string apart from its characters,
+    // and any other value
+    private static final int SNAPSHOT_OVERHEAD = 128;
+    private static final int ROW_OVERHEAD = 32;
+    private static final int STRING_OVERHEAD = 40;
+    private static final int VALUE_OVERHEAD = 16;
+
+    /**
+     * The rows of a query result. The arrays must not be changed.
+     */
+    public static final class Snapshot {
+        public final String[] columns;
+        public final Object[][] rows;
+        final int generation;
+        final int size;
+
+        Snapshot(String[] columns, Object[][] rows, int generation, int size) {
+            this.columns = columns;
+            this.rows = rows;
+            this.generation = generation;
+            this.size = size;
+        }
+    }
+
+    private final int mMaxBytes;
+    private final int mMaxRows;
+
+    // The snapshots, least recently used first
+    private final LinkedHashMap<String, Snapshot> mSnapshots =
+            new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+
+    private int mBytes;
+
+    /**
+     * @param maxBytes the most bytes taken by all snapshots
+     * @param maxRows the most rows of a result that is cached
+     */
+    public QueryCache(int maxBytes, int maxRows) {
+        mMaxBytes = maxBytes;
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * Returns the key of a query, from the parts that define it. Each part is a string, an
+     * array of strings, or null.
+     */
+    public static String key(Object... parts) {
+        StringBuilder key = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof String[]) {
+                appendParts(key, (String[]) part);
+            } else {
+                appendPart(key, (String) part);
+            }
+        }
+        return key.toString();
+    }
+
+    // Each part is prefixed with its length, so no two queries have the same key
+    private static void appendPart(StringBuilder key, String part) {
+        if (part == null) {
+            key.append("-;");
+        } else {
+            key.append(part.length()).append(':').append(part);
+        }
+    }
+
+    private static void appendParts(StringBuilder key, String[] parts) {
+        key.append(parts.length).append('[');
+        for (String part : parts) {
+            appendPart(key, part);
+        }
+    }
+
+    /**
+     * Returns the most rows of a result that is cached.
+     */
+    public int getMaxRows() {
+        return mMaxRows;
+    }
+
+    /**
+     * Returns the most bytes of a result that is cached, as estimated by {@link #sizeOf}.
+     */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the estimated bytes taken by a row of a snapshot. A result is cached if the
+     * rows add up to no more than {@link #getMaxBytes}, so a caller copying a result can stop
+     * as soon as they don't.
+     */
+    public static int sizeOf(Object[] row) {
+        int size = ROW_OVERHEAD;
+        for (Object value : row) {
+            size += value instanceof String
+                    ? STRING_OVERHEAD + 2 * ((String) value).length() : VALUE_OVERHEAD;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the cached result of a query, or null if there is none from the given
+     * generation.
+     */
+    public synchronized Snapshot get(String key, int generation) {
+        Snapshot snapshot = mSnapshots.get(key);
+        if (snapshot == null) {
+            return null;
+        } else if (snapshot.generation != generation) {
+            // Written since; it will never be served again
+            mSnapshots.remove(key);
+            mBytes -= snapshot.size;
+            return null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Caches the result of a query that started at the given generation, unless it has more
+     * than {@link #getMaxRows} rows or is too large. Returns a snapshot of the rows either way.
+     */
+    public Snapshot put(String key, int generation, String[] columns, Object[][] rows) {
+        int size = SNAPSHOT_OVERHEAD;
+        for (Object[] row : rows) {
+            size += sizeOf(row);
+        }
+
+        Snapshot snapshot = new Snapshot(columns, rows, generation, size);
+        if (rows.length <= mMaxRows && size <= mMaxBytes) {
+            synchronized (this) {
+                Snapshot old = mSnapshots.put(key, snapshot);
+                if (old != null) {
+                    mBytes -= old.size;
+                }
+                mBytes += size;
+
+                Iterator<Map.Entry<String, Snapshot>> eldest = mSnapshots.entrySet().iterator();
+                while (mBytes > mMaxBytes) {
+                    mBytes -= eldest.next().getValue().size;
+                    eldest.remove();
+                }
+            }
+        }
+        return snapshot;
+    }
+}
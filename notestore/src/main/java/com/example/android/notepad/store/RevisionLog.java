@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+/**
+ * Keeps the revisions of the notes, the table behind NotePad.NoteRevisions.
+ *
+ * Most revisions are stored as a delta against the one before: the number of characters the
+ * two share at the start and at the end, and the text in between that the new revision has. A
+ * save of a long note that changes a few words takes a few bytes. Every so often a revision is
+ * stored whole instead, as a snapshot, so a revision is rebuilt from the snapshot before it and
+ * at most {@link #MAX_DELTAS} deltas. A snapshot is taken once the deltas since the last one
+ * add up to more text than the note itself, so the history grows with the edits rather than
+ * with the size of the note.
+ */
+public final class RevisionLog {
+
+    /*
+     * The columns of the contract, NotePad.NoteRevisions
+     */
+
+    public static final String REVISIONS = "note_revisions";
+    public static final String ID = "_id";
+    public static final String NOTE_ID = "note_id";
+    public static final String CREATED = "created";
+
+    /** The length of the content of the revision */
+    public static final String LENGTH = "length";
+
+    /*
+     * The columns only the provider sees
+     */
+
+    // The number of deltas since the last snapshot, 0 for a snapshot
+    private static final String DEPTH = "depth";
+
+    // The length of the text the revision shares with the previous one at the start and end
+    private static final String PREFIX = "prefix";
+    private static final String SUFFIX = "suffix";
+
+    // The whole text of a snapshot, or the text between the prefix and suffix of a delta
+    private static final String BODY = "body";
+
+    // The number of characters in the bodies of the deltas since the last snapshot
+    private static final String DELTA_LENGTH = "delta_length";
+
+    /** The most deltas between two snapshots, which bounds the work of rebuilding a revision */
+    public static final int MAX_DELTAS = 100;
+
+    // The number of characters of a body read at a time. SQLite counts characters, which may
+    // take two chars in Java, so this keeps each piece well within a CursorWindow.
+    private static final int PIECE_LENGTH = NoteSchema.CHUNK_SIZE / 2;
+
+    // Selects the last revision of the note whose id is bound
+    private static final String LAST_REVISION_QUERY = "SELECT "
+            + DEPTH + ", " + DELTA_LENGTH + ", " + LENGTH + " FROM " + REVISIONS
+            + " WHERE " + NOTE_ID + " = ? ORDER BY " + ID + " DESC LIMIT 1";
+
+    // Inserts a revision, bound as (note id, created, length, depth, prefix, suffix,
+    // delta length, body)
+    private static final String INSERT = "INSERT INTO " + REVISIONS + " (" + NOTE_ID + ", "
+            + CREATED + ", " + LENGTH + ", " + DEPTH + ", " + PREFIX + ", " + SUFFIX + ", "
+            + DELTA_LENGTH + ", " + BODY + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // This class cannot be instantiated
+    private RevisionLog() {
+    }
+
+    /**
+     * Creates the revisions table, its index, and the trigger that deletes the revisions of
+     * deleted notes.
+     */
+    public static void createTable(NoteDatabase db) {
+        db.execute("CREATE TABLE " + REVISIONS + " ("
+                + ID + " INTEGER PRIMARY KEY,"
+                + NOTE_ID + " INTEGER NOT NULL,"
+                + CREATED + " INTEGER,"
+                + LENGTH + " INTEGER NOT NULL,"
+                + DEPTH + " INTEGER NOT NULL,"
+                + PREFIX + " INTEGER NOT NULL DEFAULT 0,"
+                + SUFFIX + " INTEGER NOT NULL DEFAULT 0,"
+                + DELTA_LENGTH + " INTEGER NOT NULL DEFAULT 0,"
+                + BODY + " TEXT"
+                + ");");
+
+        // Keeps the revisions of a note together in id order, as the index holds the row id
+        db.execute("CREATE INDEX note_revisions_note_index ON " + REVISIONS + " ("
+                + NOTE_ID + ");");
+
+        db.execute("CREATE TRIGGER note_revisions_delete AFTER DELETE ON " + NoteSchema.NOTES
+                + " BEGIN DELETE FROM " + REVISIONS + " WHERE " + NOTE_ID + " = old."
+                + NoteSchema.ID + "; END;");
+    }
+
+    public static void dropTable(NoteDatabase db) {
+        db.execute("DROP TABLE IF EXISTS " + REVISIONS);
+    }
+
+    /**
+     * Adds a revision for a save of a note. Must be called in the transaction of the save.
+     *
+     * @param oldText the content of the note before the save, or null to store a snapshot
+     * @param newText the content saved
+     */
+    public static void add(NoteDatabase db, long noteId, String oldText, String newText,
+            long time) {
+        if (newText == null) {
+            newText = "";
+        }
+        if (newText.equals(oldText)) {
+            return;
+        }
+
+        String delta = null;
+        int prefix = 0;
+        int suffix = 0;
+        int depth = 0;
+        int deltaLength = 0;
+        NoteDatabase.Rows last = db.query(LAST_REVISION_QUERY, noteId);
+        try {
+            // The old text must be the last revision for a delta to rebuild the new one. A
+            // length that differs means it was written without a revision.
+            if (oldText != null && last.next() && last.getLong(2) == oldText.length()) {
+                int max = Math.min(oldText.length(), newText.length());
+                while (prefix < max && oldText.charAt(prefix) == newText.charAt(prefix)) {
+                    prefix++;
+                }
+                // The delta is stored as text, so it mustn't start or end in half a surrogate
+                // pair
+                if (prefix > 0 && Character.isHighSurrogate(newText.charAt(prefix - 1))) {
+                    prefix--;
+                }
+                while (suffix < max - prefix && oldText.charAt(oldText.length() - 1 - suffix)
+                        == newText.charAt(newText.length() - 1 - suffix)) {
+                    suffix++;
+                }
+                if (suffix > 0
+                        && Character.isLowSurrogate(newText.charAt(newText.length() - suffix))) {
+                    suffix--;
+                }
+                delta = newText.substring(prefix, newText.length() - suffix);
+                depth = (int) last.getLong(0) + 1;
+                deltaLength = (int) last.getLong(1) + delta.length();
+            }
+        } finally {
+            last.close();
+        }
+
+        if (delta != null && depth <= MAX_DELTAS && deltaLength <= newText.length()) {
+            db.insert(INSERT, noteId, time, newText.length(), depth, prefix, suffix,
+                    deltaLength, delta);
+        } else {
+            db.insert(INSERT, noteId, time, newText.length(), 0, 0, 0, 0, newText);
+        }
+    }
+
+    /**
+     * Rebuilds the content of a revision of a note, from the snapshot at or before it and the
+     * deltas after that snapshot. Returns null if the note has no such revision.
+     */
+    public static String read(NoteDatabase db, long noteId, long revisionId) {
+        // Walks back from the revision, past at most MAX_DELTAS rows
+        long snapshotId = NoteSql.longForQuery(db, "SELECT ifnull(max(" + ID + "), 0) FROM "
+                + REVISIONS + " WHERE " + NOTE_ID + " = ? AND " + ID + " <= ? AND "
+                + DEPTH + " = 0", noteId, revisionId);
+        if (snapshotId == 0) {
+            return null;
+        }
+
+        // The bodies are read separately, as a large one may not fit in the cursor window
+        long[] ids = new long[MAX_DELTAS + 1];
+        int[] prefixes = new int[MAX_DELTAS + 1];
+        int[] suffixes = new int[MAX_DELTAS + 1];
+        int count = 0;
+        NoteDatabase.Rows deltas = db.query("SELECT " + ID + ", " + PREFIX + ", " + SUFFIX
+                + " FROM " + REVISIONS + " WHERE " + NOTE_ID + " = ? AND " + ID + " >= ? AND "
+                + ID + " <= ? ORDER BY " + ID + " LIMIT " + (MAX_DELTAS + 1),
+                noteId, snapshotId, revisionId);
+        try {
+            while (deltas.next()) {
+                ids[count] = deltas.getLong(0);
+                prefixes[count] = (int) deltas.getLong(1);
+                suffixes[count] = (int) deltas.getLong(2);
+                count++;
+            }
+        } finally {
+            deltas.close();
+        }
+
+        // The revision asked for is the last row, unless the note has no such revision
+        if (ids[count - 1] != revisionId) {
+            return null;
+        }
+        String text = readBody(db, ids[0]);
+        for (int i = 1; i < count; i++) {
+            text = text.substring(0, prefixes[i]) + readBody(db, ids[i])
+                    + text.substring(text.length() - suffixes[i]);
+        }
+        return text;
+    }
+
+    private static String readBody(NoteDatabase db, long revisionId) {
+        StringBuilder body = new StringBuilder();
+        for (int start = 1; ; start += PIECE_LENGTH) {
+            String piece = NoteSql.stringForQuery(db, "SELECT ifnull(substr(" + BODY + ", ?, "
+                    + PIECE_LENGTH + "), '') FROM " + REVISIONS + " WHERE " + ID + " = ?",
+                    start, revisionId);
+            body.append(piece);
+
+            // A piece has at least as many chars as characters, so a short one is the last
+            if (piece.length() < PIECE_LENGTH) {
+                return body.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link NoteStore} on a SQLite database of {@link NoteSchema}. It writes through
+ * {@link NoteSql}, as the NotePad provider does, so long notes are split into chunks and every
+ * save of the content adds a revision, and it reads whole notes back from their chunks.
+ * {@link JdbcNoteStore} runs it on a plain JVM, and the app on Android's SQLite.
+ *
+ * Notes read by id can be kept in a {@link NoteCache}, and listed pages in a
+ * {@link QueryCache}, as the provider keeps them. The caches are only correct if every write
+ * to the database goes through this store.
+ */
+public abstract class SqlNoteStore implements NoteStore {
+
+    // The columns a note is written with
+    private static final String[] WRITE_COLUMNS = new String[] {
+            NoteSchema.TITLE,
+            NoteSchema.NOTE,
+            NoteSchema.CREATED,
+            NoteSchema.MODIFIED,
+    };
+
+    // The columns of a cached note, in the order of the fields of Note
+    private static final String[] CACHE_COLUMNS = new String[] {
+            NoteSchema.ID,
+            NoteSchema.TITLE,
+            NoteSchema.NOTE,
+            NoteSchema.CREATED,
+            NoteSchema.MODIFIED,
+    };
+
+    // Selects the columns of CACHE_COLUMNS and the chunk count
+    private static final String SELECT = "SELECT " + NoteSchema.NOTES + "." + NoteSchema.ID
+            + ", " + NoteSchema.TITLE + ", " + NoteSchema.NOTE + ", " + NoteSchema.CREATED
+            + ", " + NoteSchema.MODIFIED + ", " + NoteSchema.CHUNK_COUNT + " FROM ";
+
+    // The ORDER BY clauses of the orders, with the id tie breakers the provider pages by
+    private static final String ORDER_MODIFIED = NoteSchema.MODIFIED + " DESC, "
+            + NoteSchema.ID + " DESC";
+    private static final String ORDER_CREATED = NoteSchema.CREATED + " DESC, "
+            + NoteSchema.ID + " DESC";
+    private static final String ORDER_TITLE = NoteSchema.TITLE + " COLLATE NOCASE ASC, "
+            + NoteSchema.ID + " ASC";
+
+    private final NoteCache mNoteCache;
+    private final QueryCache mQueryCache;
+
+    // Bumped after every write, which makes every page in mQueryCache stale
+    private final AtomicInteger mWriteGeneration = new AtomicInteger();
+
+    /**
+     * @param noteCache the cache of the notes read by id, or null
+     * @param queryCache the cache of listed pages, or null
+     */
+    protected SqlNoteStore(NoteCache noteCache, QueryCache queryCache) {
+        mNoteCache = noteCache;
+        mQueryCache = queryCache;
+    }
+
+    /**
+     * Returns the database of the store.
+     */
+    protected abstract NoteDatabase getDatabase();
+
+    @Override
+    public long insert(Note note) {
+        long id = NoteSql.insert(getDatabase(), WRITE_COLUMNS, values(note), true);
+        if (id <= 0) {
+            throw new NoteStoreException("Failed to insert " + note, null);
+        }
+        mWriteGeneration.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Inserts the notes as the provider's bulkInsert() does: in one transaction, and without
+     * revisions.
+     */
+    @Override
+    public int insertAll(List<Note> notes) {
+        NoteDatabase db = getDatabase();
+        db.beginTransaction();
+        try {
+            for (Note note : notes) {
+                if (NoteSql.insert(db, WRITE_COLUMNS, values(note), false) <= 0) {
+                    // Rolls back the whole batch
+                    throw new NoteStoreException("Failed to insert " + note, null);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mWriteGeneration.incrementAndGet();
+        }
+        return notes.size();
+    }
+
+    @Override
+    public Note get(long id) {
+        int generation = 0;
+        if (mNoteCache != null) {
+            NoteCache.Row row = mNoteCache.get(id);
+            if (row != null) {
+                return toNote(row.values);
+            }
+            generation = mNoteCache.getGeneration();
+        }
+
+        NoteDatabase db = getDatabase();
+        List<Note> notes = readNotes(db, db.query(SELECT + NoteSchema.NOTES + " WHERE "
+                + NoteSchema.ID + " = ?", id));
+        if (notes.isEmpty()) {
+            return null;
+        }
+        Note note = notes.get(0);
+        if (mNoteCache != null) {
+            mNoteCache.put(id, new NoteCache.Row(CACHE_COLUMNS, toValues(note)), generation);
+        }
+        return note;
+    }
+
+    @Override
+    public boolean update(Note note) {
+        try {
+            return NoteSql.update(getDatabase(), note.id, WRITE_COLUMNS, values(note)) > 0;
+        } finally {
+            written(note.id);
+        }
+    }
+
+    @Override
+    public boolean delete(long id) {
+        try {
+            return getDatabase().update("DELETE FROM " + NoteSchema.NOTES + " WHERE "
+                    + NoteSchema.ID + " = ?", id) > 0;
+        } finally {
+            written(id);
+        }
+    }
+
+    @Override
+    public List<Note> list(Order order, int limit) {
+        String orderBy;
+        switch (order) {
+            case CREATED:
+                orderBy = ORDER_CREATED;
+                break;
+            case TITLE:
+                orderBy = ORDER_TITLE;
+                break;
+            default:
+                orderBy = ORDER_MODIFIED;
+                break;
+        }
+
+        String key = null;
+        int generation = 0;
+        if (mQueryCache != null) {
+            key = QueryCache.key(order.name(), Integer.toString(limit));
+            generation = mWriteGeneration.get();
+            QueryCache.Snapshot cached = mQueryCache.get(key, generation);
+            if (cached != null) {
+                ArrayList<Note> notes = new ArrayList<Note>(cached.rows.length);
+                for (Object[] row : cached.rows) {
+                    notes.add(toNote(row));
+                }
+                return notes;
+            }
+        }
+
+        NoteDatabase db = getDatabase();
+        List<Note> notes = readNotes(db, db.query(SELECT + NoteSchema.NOTES + " ORDER BY "
+                + orderBy + " LIMIT ?", limit));
+        if (key != null && notes.size() <= mQueryCache.getMaxRows()) {
+            Object[][] rows = new Object[notes.size()][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = toValues(notes.get(i));
+            }
+            mQueryCache.put(key, generation, CACHE_COLUMNS, rows);
+        }
+        return notes;
+    }
+
+    @Override
+    public List<Note> search(String terms, int limit) {
+        String tables = NoteSql.searchTables(terms);
+        if (tables == null) {
+            return new ArrayList<Note>();
+        }
+        String[] searchArgs = NoteSql.searchArgs(terms);
+        Object[] args = new Object[searchArgs.length + 1];
+        System.arraycopy(searchArgs, 0, args, 0, searchArgs.length);
+        args[searchArgs.length] = limit;
+        NoteDatabase db = getDatabase();
+        return readNotes(db, db.query(SELECT + tables + " ORDER BY "
+                + NoteSql.SEARCH_SORT_ORDER + " LIMIT ?", args));
+    }
+
+    // Makes the cached copies of a note and every cached page stale
+    private void written(long id) {
+        mWriteGeneration.incrementAndGet();
+        if (mNoteCache != null) {
+            mNoteCache.invalidate(id);
+        }
+    }
+
+    private static Object[] values(Note note) {
+        return new Object[] { note.title, note.content, note.created, note.modified };
+    }
+
+    private static Object[] toValues(Note note) {
+        return new Object[] { note.id, note.title, note.content, note.created, note.modified };
+    }
+
+    private static Note toNote(Object[] values) {
+        return new Note((Long) values[0], (String) values[1], (String) values[2],
+                (Long) values[3], (Long) values[4]);
+    }
+
+    // Reads the notes of rows, which has the columns of SELECT, and closes it. The content of
+    // a long note is read from its chunks once rows is closed.
+    private static List<Note> readNotes(NoteDatabase db, NoteDatabase.Rows rows) {
+        ArrayList<Note> notes = new ArrayList<Note>();
+        ArrayList<Integer> chunked = new ArrayList<Integer>();
+        try {
+            while (rows.next()) {
+                if (rows.getLong(5) > 0) {
+                    chunked.add(notes.size());
+                }
+                notes.add(new Note(rows.getLong(0), rows.getString(1), rows.getString(2),
+                        rows.getLong(3), rows.getLong(4)));
+            }
+        } finally {
+            rows.close();
+        }
+        for (int i : chunked) {
+            Note head = notes.get(i);
+            notes.set(i, new Note(head.id, head.title, NoteSql.readWholeNote(db, head.id),
+                    head.created, head.modified));
+        }
+        return notes;
+    }
+}
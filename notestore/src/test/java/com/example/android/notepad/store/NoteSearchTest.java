@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NoteSearchTest {
+
+    @Test
+    public void termsSplitOnWhitespaceAndDropQuotes() {
+        assertArrayEquals(new String[] { "buy", "milk" }, NoteSearch.terms("  buy \t milk "));
+        assertArrayEquals(new String[] { "say", "hi" }, NoteSearch.terms("\"say\" hi\""));
+        assertArrayEquals(new String[0], NoteSearch.terms("  \" "));
+        assertArrayEquals(new String[0], NoteSearch.terms(null));
+    }
+
+    @Test
+    public void termsSplitOnPunctuationLikeTheTokenizer() {
+        assertArrayEquals(new String[] { "e", "mail" }, NoteSearch.terms("e-mail"));
+        assertArrayEquals(new String[] { "c" }, NoteSearch.terms("c++"));
+        assertArrayEquals(new String[] { "12", "30" }, NoteSearch.terms("12:30"));
+        assertArrayEquals(new String[] { "a", "b" }, NoteSearch.terms("a.b"));
+        assertArrayEquals(new String[] { "café" }, NoteSearch.terms("(café)"));
+        assertArrayEquals(new String[0], NoteSearch.terms("- ++ ."));
+    }
+
+    @Test
+    public void punctuatedTermsMatchTheirWords() {
+        assertEquals(2, NoteSearch.score(NoteSearch.terms("e-mail"), null, "send an e-mail"));
+        assertTrue(NoteSearch.score(NoteSearch.terms("c++"), "C++ notes", null) > 0);
+        assertTrue(NoteSearch.score(NoteSearch.terms("12:30"), null, "lunch at 12:30") > 0);
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("e-mail"), NoteSearch.terms("e-m")));
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("12:30"), NoteSearch.terms("12:")));
+    }
+
+    @Test
+    public void matchExpressionRequiresEveryTermAsPrefix() {
+        assertEquals("\"buy*\" \"milk*\"", NoteSearch.matchExpression("buy milk"));
+        assertNull(NoteSearch.matchExpression(" "));
+    }
+
+    @Test
+    public void scoreCountsPrefixMatchesOfEveryTerm() {
+        String[] terms = NoteSearch.terms("mil");
+        assertEquals(2, NoteSearch.score(terms, "Milk", "milkshake, not a latte"));
+        assertEquals(4, NoteSearch.score(terms, "Milk", "milkshake, and mild milk"));
+        assertEquals(0, NoteSearch.score(terms, "Bread", "flour"));
+    }
+
+    @Test
+    public void scoreIsZeroUnlessEveryTermMatches() {
+        String[] terms = NoteSearch.terms("buy milk");
+        assertTrue(NoteSearch.score(terms, "Groceries", "buy milk") > 0);
+        assertEquals(0, NoteSearch.score(terms, "Groceries", "buy bread"));
+        assertEquals(0, NoteSearch.score(new String[0], "Groceries", "buy milk"));
+    }
+
+    @Test
+    public void scoreMatchesWordStartsOnly() {
+        assertEquals(0, NoteSearch.score(NoteSearch.terms("ilk"), null, "milk"));
+        assertEquals(1, NoteSearch.score(NoteSearch.terms("ilk"), null, "m-ilk"));
+    }
+
+    @Test
+    public void scoreFoldsAsciiCaseOnly() {
+        assertEquals(1, NoteSearch.score(NoteSearch.terms("MILK"), null, "milk"));
+        // The simple tokenizer of FTS leaves non-ASCII letters as they are
+        assertEquals(0, NoteSearch.score(NoteSearch.terms("été"), null, "ÉTÉ"));
+    }
+
+    @Test
+    public void cjkTermsAreMatchedAsSubstrings() {
+        assertEquals("\"東京\" \"kyoto*\"", NoteSearch.matchExpression("東京 kyoto"));
+        assertEquals("\"東京 京タ タワ\"", NoteSearch.matchExpression("東京タワ"));
+        assertEquals("\"京*\"", NoteSearch.matchExpression("京"));
+        assertEquals("\"駅*\"", NoteSearch.matchExpression("tokyo駅"));
+        assertArrayEquals(new String[] { "東京" }, NoteSearch.substringTerms("東京 kyoto"));
+        // Only the terms MATCH leaves in doubt are checked with LIKE
+        assertArrayEquals(new String[0], NoteSearch.likeTerms("東京 京 kyoto"));
+        assertArrayEquals(new String[] { "tokyo駅", "東京タ" },
+                NoteSearch.likeTerms("tokyo駅 東京タ"));
+        assertEquals(2, NoteSearch.score(NoteSearch.terms("東京"), "東京", "今日は東京へ"));
+        assertEquals(0, NoteSearch.score(NoteSearch.terms("東京 kyoto"), null, "今日は東京へ"));
+    }
+
+    @Test
+    public void bigramsEndEachRunWithItsLastCharacter() {
+        assertEquals("東京 京へ へ 行 大阪 阪", NoteSearch.bigrams("東京へ 行, 大阪 and Kyoto"));
+        assertEquals("𠮷野 野", NoteSearch.bigrams("𠮷野"));
+        assertEquals("", NoteSearch.bigrams("milk"));
+        assertEquals("", NoteSearch.bigrams(null));
+    }
+
+    @Test
+    public void likePatternsEscapeWildcards() {
+        assertEquals("%東京%", NoteSearch.likePattern("東京"));
+        assertEquals("%100\\%\\_\\\\%", NoteSearch.likePattern("100%_\\"));
+    }
+
+    @Test
+    public void narrowsWhenEveryPreviousTermIsAPrefix() {
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("milk"), NoteSearch.terms("mi")));
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("buy MILK"), NoteSearch.terms("mil")));
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("buy milk"), NoteSearch.terms("buy")));
+        assertFalse(NoteSearch.narrows(NoteSearch.terms("milk"), NoteSearch.terms("milky")));
+        assertFalse(NoteSearch.narrows(NoteSearch.terms("milk"), NoteSearch.terms("buy mi")));
+        // A substring term is narrowed by any term containing it
+        assertTrue(NoteSearch.narrows(NoteSearch.terms("今日は東京"), NoteSearch.terms("東京")));
+        assertFalse(NoteSearch.narrows(NoteSearch.terms("東"), NoteSearch.terms("東京")));
+        assertFalse(NoteSearch.narrows(NoteSearch.terms("東京"), NoteSearch.terms("t")));
+    }
+}
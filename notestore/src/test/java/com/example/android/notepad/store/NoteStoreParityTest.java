@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the same operations on a {@link MemoryNoteStore} and a {@link JdbcNoteStore}, which
+ * runs the provider's SQL, and checks that both return the same notes.
+ */
+public class NoteStoreParityTest {
+
+    // Longer than two chunks, with a surrogate pair across the end of the first
+    private static final String LONG_NOTE = repeat('a', NoteSchema.CHUNK_SIZE - 1)
+            + "📝" + repeat('b', NoteSchema.CHUNK_SIZE + 10) + " tail";
+
+    private MemoryNoteStore mMemory;
+    private JdbcNoteStore mJdbc;
+
+    @Before
+    public void setUp() {
+        mMemory = new MemoryNoteStore();
+        mJdbc = new JdbcNoteStore("jdbc:sqlite::memory:");
+    }
+
+    @After
+    public void tearDown() {
+        mMemory.close();
+        mJdbc.close();
+    }
+
+    @Test
+    public void insertAndGet() {
+        Note note = new Note(Note.NO_ID, "Groceries", "buy milk", 1000, 2000);
+        long id = insert(note);
+        assertEquals(note.withId(id), mJdbc.get(id));
+        assertEquals(mMemory.get(id), mJdbc.get(id));
+        assertNull(mJdbc.get(id + 1));
+    }
+
+    @Test
+    public void longNotesReadBackWhole() {
+        long id = insert(new Note(Note.NO_ID, "Long", LONG_NOTE, 1000, 2000));
+        assertEquals(LONG_NOTE, mJdbc.get(id).content);
+        assertEquals(mMemory.list(NoteStore.Order.MODIFIED, 10),
+                mJdbc.list(NoteStore.Order.MODIFIED, 10));
+
+        // Shrinking the note drops its chunks
+        Note shorter = new Note(id, "Long", "short now", 1000, 3000);
+        assertTrue(mMemory.update(shorter));
+        assertTrue(mJdbc.update(shorter));
+        assertEquals(shorter, mJdbc.get(id));
+        assertEquals(0, NoteSql.longForQuery(mJdbc.getDatabase(),
+                "SELECT count(*) FROM " + NoteSchema.CHUNKS));
+    }
+
+    @Test
+    public void searchesTheWholeOfLongNotes() {
+        long id = insert(new Note(Note.NO_ID, "Long", LONG_NOTE, 1000, 2000));
+        assertEquals(Collections.singleton(id), ids(mJdbc.search("tail", 10)));
+
+        // Saving the note again indexes its new content, and only that
+        Note edited = new Note(id, "Long", LONG_NOTE.replace(" tail", " end"), 1000, 3000);
+        assertTrue(mMemory.update(edited));
+        assertTrue(mJdbc.update(edited));
+        assertEquals(ids(mMemory.search("tail", 10)), ids(mJdbc.search("tail", 10)));
+        assertEquals(Collections.singleton(id), ids(mJdbc.search("end", 10)));
+
+        assertTrue(mJdbc.delete(id));
+        assertTrue(mJdbc.search("end", 10).isEmpty());
+    }
+
+    @Test
+    public void searchesRenamedNotesByTheirNewTitle() {
+        long id = insert(new Note(Note.NO_ID, "Draft", "some text", 1000, 1000));
+        NoteSql.update(mJdbc.getDatabase(), id, new String[] { NoteSchema.TITLE },
+                new Object[] { "Final" });
+        assertTrue(mJdbc.search("draft", 10).isEmpty());
+        assertEquals(Collections.singleton(id), ids(mJdbc.search("final text", 10)));
+    }
+
+    @Test
+    public void updateAndDelete() {
+        long id = insert(new Note(Note.NO_ID, "Draft", "first", 1000, 1000));
+        Note edited = new Note(id, "Final", "second", 1000, 5000);
+        assertTrue(mMemory.update(edited));
+        assertTrue(mJdbc.update(edited));
+        assertEquals(mMemory.get(id), mJdbc.get(id));
+
+        assertFalse(mJdbc.update(new Note(id + 1, "Missing", "", 0, 0)));
+        assertTrue(mMemory.delete(id));
+        assertTrue(mJdbc.delete(id));
+        assertNull(mJdbc.get(id));
+        assertFalse(mJdbc.delete(id));
+    }
+
+    @Test
+    public void listsInEveryOrder() {
+        List<Note> notes = new ArrayList<Note>();
+        notes.add(new Note(Note.NO_ID, "banana", "", 3000, 1000));
+        notes.add(new Note(Note.NO_ID, "Apple", "", 1000, 3000));
+        notes.add(new Note(Note.NO_ID, "cherry", "", 2000, 2000));
+        // Ties broken by id
+        notes.add(new Note(Note.NO_ID, "apple", "", 2000, 2000));
+        assertEquals(notes.size(), mMemory.insertAll(notes));
+        assertEquals(notes.size(), mJdbc.insertAll(notes));
+
+        for (NoteStore.Order order : NoteStore.Order.values()) {
+            assertEquals(order.name(), mMemory.list(order, 10), mJdbc.list(order, 10));
+            assertEquals(order.name(), mMemory.list(order, 2), mJdbc.list(order, 2));
+        }
+    }
+
+    @Test
+    public void searchesFindTheSameNotes() {
+        insert(new Note(Note.NO_ID, "Groceries", "buy milk and bread", 1000, 1000));
+        insert(new Note(Note.NO_ID, "Milkshake", "blend milk", 1000, 2000));
+        insert(new Note(Note.NO_ID, "Bakery", "BREAD rolls", 1000, 3000));
+        insert(new Note(Note.NO_ID, "Café", "crème brûlée", 1000, 4000));
+        insert(new Note(Note.NO_ID, "C++", "e-mail a.b at 12:30", 1000, 5000));
+
+        for (String terms : new String[] {
+                "milk", "mil", "bread", "MILK bread", "buy milk", "rolls bread", "crème",
+                "café", "nothing", "\"milk\"", "", "e-mail", "c++", "12:30", "a.b", "e-m",
+                "12:3", "++", "milk." }) {
+            assertEquals(terms, ids(mMemory.search(terms, 10)), ids(mJdbc.search(terms, 10)));
+        }
+        assertEquals(1, mJdbc.search("e-mail", 10).size());
+        assertEquals(1, mJdbc.search("12:30", 10).size());
+    }
+
+    @Test
+    public void searchesCjkTermsAnywhereInTheText() {
+        insert(new Note(Note.NO_ID, "旅行", "今日は東京へ行きます", 1000, 1000));
+        insert(new Note(Note.NO_ID, "Trip", "東京タワー and Kyoto", 1000, 2000));
+        insert(new Note(Note.NO_ID, "서울", "내일 서울에 갑니다", 1000, 3000));
+        insert(new Note(Note.NO_ID, "Sale", "100% off, 東_京 東京", 1000, 4000));
+        insert(new Note(Note.NO_ID, "Station", "Tokyo駅 東の京", 1000, 5000));
+        // The bigrams of 東京都 as separate words, which its phrase matches
+        insert(new Note(Note.NO_ID, "Words", "東京 京都", 1000, 6000));
+
+        for (String terms : new String[] {
+                "東京", "京", "東京 kyo", "行き", "서울", "울에", "旅", "大阪", "東%京", "東_京",
+                "off 東京", "東京タワー", "京タ", "ー", "Tokyo駅", "kyo駅", "Tokyo東", "東の",
+                "京へ行", "東京都" }) {
+            assertEquals(terms, ids(mMemory.search(terms, 10)), ids(mJdbc.search(terms, 10)));
+        }
+        assertEquals(4, mJdbc.search("東京", 10).size());
+        assertTrue(mJdbc.search("東京都", 10).isEmpty());
+    }
+
+    @Test
+    public void renamingKeepsTheContentSearchable() {
+        long id = insert(new Note(Note.NO_ID, "東京", "大阪へ行く", 1000, 1000));
+        NoteSql.update(mJdbc.getDatabase(), id, new String[] { NoteSchema.TITLE },
+                new Object[] { "京都" });
+
+        assertEquals(1, mJdbc.search("京都", 10).size());
+        assertEquals(1, mJdbc.search("阪へ", 10).size());
+        assertTrue(mJdbc.search("東京", 10).isEmpty());
+    }
+
+    @Test
+    public void cachedStoreSeesItsOwnWrites() {
+        JdbcNoteStore cached = new JdbcNoteStore("jdbc:sqlite::memory:",
+                new NoteCache(1024 * 1024), new QueryCache(1024 * 1024, 100));
+        try {
+            long id = cached.insert(new Note(Note.NO_ID, "One", "first", 1000, 1000));
+            assertEquals("first", cached.get(id).content);
+            assertEquals(1, cached.list(NoteStore.Order.MODIFIED, 10).size());
+
+            assertTrue(cached.update(new Note(id, "One", "second", 1000, 2000)));
+            assertEquals("second", cached.get(id).content);
+            assertEquals("second",
+                    cached.list(NoteStore.Order.MODIFIED, 10).get(0).content);
+
+            assertTrue(cached.delete(id));
+            assertNull(cached.get(id));
+            assertTrue(cached.list(NoteStore.Order.MODIFIED, 10).isEmpty());
+        } finally {
+            cached.close();
+        }
+    }
+
+    private long insert(Note note) {
+        long id = mMemory.insert(note);
+        assertEquals(id, mJdbc.insert(note));
+        return id;
+    }
+
+    private static Set<Long> ids(List<Note> notes) {
+        Set<Long> ids = new HashSet<Long>();
+        for (Note note : notes) {
+            ids.add(note.id);
+        }
+        return ids;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
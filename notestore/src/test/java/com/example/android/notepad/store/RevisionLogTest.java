@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.notepad.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves runs of revisions through {@link RevisionLog} and checks that every one reads back as
+ * it was saved.
+ */
+public class RevisionLogTest {
+
+    private static final long NOTE_ID = 1;
+
+    private JdbcNoteStore mStore;
+    private NoteDatabase mDb;
+
+    // The text of each revision added, in order
+    private final List<String> mSaved = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        mStore = new JdbcNoteStore("jdbc:sqlite::memory:");
+        mDb = mStore.getDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mStore.close();
+    }
+
+    @Test
+    public void smallEditsAreDeltasUntilMaxDeltas() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+        save(text.toString());
+        for (int i = 0; i <= RevisionLog.MAX_DELTAS + 1; i++) {
+            text.setCharAt(i * 7, '#');
+            save(text.toString());
+        }
+
+        List<long[]> revisions = revisions();
+        assertEquals(RevisionLog.MAX_DELTAS + 3, revisions.size());
+        for (int i = 0; i < revisions.size(); i++) {
+            // A snapshot, MAX_DELTAS deltas, then a snapshot again
+            assertEquals(i % (RevisionLog.MAX_DELTAS + 1), revisions.get(i)[1]);
+        }
+        assertReadsBack(revisions);
+    }
+
+    @Test
+    public void takesASnapshotOnceTheDeltasOutgrowTheNote() {
+        save("first");
+        save("second");
+        save("third!");
+        save("fourth");
+
+        List<long[]> revisions = revisions();
+        // Each delta is the whole note, so the second one is longer than the note
+        assertEquals(0, revisions.get(0)[1]);
+        assertEquals(1, revisions.get(1)[1]);
+        assertEquals(0, revisions.get(2)[1]);
+        assertEquals(1, revisions.get(3)[1]);
+        assertReadsBack(revisions);
+    }
+
+    @Test
+    public void deltasKeepSurrogatePairsWhole() {
+        String text = repeat('a', 500);
+        // The same high surrogate, then the same low surrogate, on either side of the edit
+        save(text + "😀" + text);
+        save(text + "😁" + text);
+        save(text + "𐈁" + text);
+        save(text + "𐈁" + text + "📝");
+
+        List<long[]> revisions = revisions();
+        assertEquals(3, revisions.get(3)[1]);
+        assertReadsBack(revisions);
+    }
+
+    @Test
+    public void readsNothingForOtherNotes() {
+        save("text");
+        assertNull(RevisionLog.read(mDb, NOTE_ID + 1, revisions().get(0)[0]));
+    }
+
+    private void save(String text) {
+        RevisionLog.add(mDb, NOTE_ID, mSaved.isEmpty() ? null : mSaved.get(mSaved.size() - 1),
+                text, mSaved.size());
+        mSaved.add(text);
+    }
+
+    // Returns the (id, depth) of the revisions of the note, in order
+    private List<long[]> revisions() {
+        List<long[]> revisions = new ArrayList<long[]>();
+        NoteDatabase.Rows rows = mDb.query("SELECT " + RevisionLog.ID + ", depth FROM "
+                + RevisionLog.REVISIONS + " WHERE " + RevisionLog.NOTE_ID + " = ? ORDER BY "
+                + RevisionLog.ID, NOTE_ID);
+        try {
+            while (rows.next()) {
+                revisions.add(new long[] { rows.getLong(0), rows.getLong(1) });
+            }
+        } finally {
+            rows.close();
+        }
+        return revisions;
+    }
+
+    private void assertReadsBack(List<long[]> revisions) {
+        assertEquals(mSaved.size(), revisions.size());
+        for (int i = 0; i < revisions.size(); i++) {
+            assertEquals("revision " + i, mSaved.get(i),
+                    RevisionLog.read(mDb, NOTE_ID, revisions.get(i)[0]));
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder s = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            s.append(c);
+        }
+        return s.toString();
+    }
+}